@@ -0,0 +1,177 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.output.NullWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xml.sax.SAXException;
+
+/**
+ * Benchmarks of the journal pipeline of a poll and a build: reading the journal,
+ * matching project names, selecting the new entries, writing and parsing the
+ * change log. Runs on a journal of {@link JournalGenerator}.
+ * 
+ * Throughput and sample time (latency percentiles) are measured for every
+ * benchmark, the allocation rate with the gc profiler. Start with:
+ * mvn -P benchmark test-compile exec:exec
+ * or select benchmarks and parameters with:
+ * mvn -P benchmark test-compile exec:exec -Djmh.args="-prof gc -p records=10000 readJournal"
+ * 
+ * @author patlau
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class JournalBenchmark {
+
+	private static final Locale DE = new Locale("de");
+	private static final int MAX_FILENAMES = 100000;
+	
+	/**
+	 * Number of journal records.
+	 */
+	@Param({"10000", "1000000", "10000000"})
+	public int records;
+	
+	/**
+	 * Number of projects the records are spread over.
+	 */
+	@Param({"10"})
+	public int projects;
+	
+	/**
+	 * Fraction of changesets with a comment.
+	 */
+	@Param({"0.3"})
+	public double commentRatio;
+	
+	private File dir;
+	private File journalFile;
+	private File changeLogFile;
+	private VssJournal journal;
+	private String[] projectList;
+	private VssProjectMatcher matcher;
+	private String[] filenames;
+	private Calendar fromDate;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		dir = File.createTempFile("vss-benchmark", "");
+		FileUtils.forceDelete(dir);
+		dir.mkdirs();
+		journalFile = new File(dir, "vss.log");
+		JournalGenerator generator = new JournalGenerator(1L);
+		generator.setProjects(projects);
+		generator.setCommentRatio(commentRatio);
+		generator.write(journalFile, records);
+		
+		journal = new VssJournal(DE).readJournal(journalFile, VssProjectMatcher.ALL);
+		projectList = new String[] {JournalGenerator.getProject(0) + "/dir1", JournalGenerator.getProject(1)};
+		matcher = VssProjectMatcher.compile(projectList);
+		List<VssJournalEntry> entries = journal.getEntries();
+		filenames = new String[Math.min(entries.size(), MAX_FILENAMES)];
+		for (int i = 0; i < filenames.length; i++) {
+			filenames[i] = entries.get(entries.size() - filenames.length + i).getFilename();
+		}
+		
+		// The last tenth of the journal is new since the previous build
+		fromDate = Calendar.getInstance();
+		fromDate.setTimeInMillis(entries.get(entries.size() - entries.size() / 10 - 1).getTimestamp());
+		changeLogFile = new File(dir, "changelog.xml");
+		journal.writeChangeFile(changeLogFile, fromDate);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		FileUtils.deleteQuietly(dir);
+	}
+	
+	@Benchmark
+	public VssJournal readJournal() {
+		return new VssJournal(DE).readJournal(journalFile, VssProjectMatcher.ALL);
+	}
+	
+	@Benchmark
+	public VssJournal readJournalFiltered() {
+		return new VssJournal(DE).readJournal(journalFile, matcher);
+	}
+	
+	/**
+	 * Project match of the filenames one by one, compiling the project list on
+	 * every call.
+	 */
+	@Benchmark
+	public void isFilenameInProject(Blackhole blackhole) {
+		for (String filename : filenames) {
+			blackhole.consume(journal.isFilenameInProject(filename, projectList));
+		}
+	}
+	
+	@Benchmark
+	public void matchProjects(Blackhole blackhole) {
+		for (String filename : filenames) {
+			blackhole.consume(matcher.matches(filename));
+		}
+	}
+	
+	@Benchmark
+	public int getNewEntries() {
+		return journal.getNewEntries(fromDate).size();
+	}
+	
+	@Benchmark
+	public void writeChangeFile() throws IOException {
+		journal.writeChangeFile(new NullWriter(), fromDate);
+	}
+	
+	@Benchmark
+	public List<VssJournalEntry> parseChangeLog() throws IOException, SAXException {
+		return new VssChangeLogParser().parseFile(changeLogFile);
+	}
+	
+}
@@ -0,0 +1,146 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import hudson.model.User;
+
+/**
+ * Resolves VSS users of journal records to Jenkins users.
+ * 
+ * The Jenkins user registry is synchronized, so resolved users are cached per VSS
+ * user for some minutes. VSS logins are not case sensitive. A mapping from VSS
+ * login to Jenkins user id can be configured globally, changing it clears the cache.
+ * 
+ * @author patlau
+ */
+final class AuthorResolver {
+
+	private static final long TTL = Long.getLong(AuthorResolver.class.getName() + ".ttl", 10 * 60 * 1000L);
+	private static final int MAX_USERS = 1000;
+	private static final AuthorResolver INSTANCE = new AuthorResolver(TTL);
+	
+	private final long ttl;
+	private final LinkedHashMap<String, Cached> cache = new LinkedHashMap<String, Cached>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+			return size() > MAX_USERS;
+		}
+	};
+	private Map<String, String> mapping = Collections.emptyMap();
+	// Incremented on invalidation, so lookups started before are not cached
+	private int generation;
+	
+	AuthorResolver(long ttl) {
+		this.ttl = ttl;
+	}
+	
+	static AuthorResolver getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * Set the mapping from VSS login to Jenkins user id.
+	 * @param text one "vsslogin=jenkinsid" per line, lines starting with # are ignored
+	 */
+	void setMapping(String text) {
+		Map<String, String> map = new HashMap<String, String>();
+		if (text != null) {
+			for (String line : text.split("[\\r\\n]+")) {
+				String s = line.trim();
+				int i = s.indexOf('=');
+				if (s.startsWith("#") || i <= 0 || i == s.length() - 1)
+					continue;
+				map.put(s.substring(0, i).trim().toLowerCase(Locale.ENGLISH), s.substring(i + 1).trim());
+			}
+		}
+		synchronized (this) {
+			mapping = map;
+			invalidate();
+		}
+	}
+	
+	/**
+	 * Remove all cached users.
+	 */
+	synchronized void invalidate() {
+		cache.clear();
+		generation++;
+	}
+	
+	/**
+	 * Get the Jenkins user id of a VSS user.
+	 * @param vssUser VSS login
+	 * @return mapped Jenkins user id, or the VSS login
+	 */
+	synchronized String getUserId(String vssUser) {
+		String id = mapping.get(vssUser.toLowerCase(Locale.ENGLISH));
+		return id != null ? id : vssUser;
+	}
+	
+	/**
+	 * Get the Jenkins user of a VSS user.
+	 * @param vssUser VSS login
+	 * @return Jenkins user, or the unknown user for an empty login
+	 */
+	User resolve(String vssUser) {
+		if (vssUser == null || vssUser.isEmpty())
+			return User.getUnknown();
+		String key = vssUser.toLowerCase(Locale.ENGLISH);
+		long now = System.currentTimeMillis();
+		int lookupGeneration;
+		synchronized (this) {
+			Cached cached = cache.get(key);
+			if (cached != null && now - cached.created < ttl)
+				return cached.user;
+			lookupGeneration = generation;
+		}
+		// Not locked, the user registry has its own lock
+		User user = User.get(getUserId(vssUser));
+		synchronized (this) {
+			if (lookupGeneration == generation)
+				cache.put(key, new Cached(user, now));
+		}
+		return user;
+	}
+	
+	/**
+	 * Resolved user with creation time.
+	 */
+	private static final class Cached {
+		private final User user;
+		private final long created;
+		
+		Cached(User user, long created) {
+			this.user = user;
+			this.created = created;
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package org.jenkinsci.plugins.vssj;
 
+import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
@@ -13,6 +14,16 @@ import java.util.TimeZone;
  */
 public final class CalendarUtils {
 	
+	/**
+	 * DateFormat is not thread safe, so each thread gets its own instance.
+	 */
+	private static final ThreadLocal<DateFormat> DATETIME_FORMAT = new ThreadLocal<DateFormat>() {
+		@Override
+		protected DateFormat initialValue() {
+			return DateFormat.getDateTimeInstance();
+		}
+	};
+	
 	private CalendarUtils() {	
 	}
 
@@ -47,7 +58,7 @@ public final class CalendarUtils {
 		
 		if (date != null) {
 			cal.setTime(date);
-			cal.set(Calendar.HOUR, time == null ? 0 : time.getHours());
+			cal.set(Calendar.HOUR_OF_DAY, time == null ? 0 : time.getHours());
 			cal.set(Calendar.MINUTE, time == null ? 0 : time.getMinutes());
 		} else {
 			cal = null;
@@ -56,4 +67,23 @@ public final class CalendarUtils {
 		return cal;
     }
     
+    /**
+     * Format date using the default date time format.
+     * @param millis milliseconds since epoch
+     * @return formatted date
+     */
+    public static String formatDatetime(long millis) {
+    	return DATETIME_FORMAT.get().format(new Date(millis));
+    }
+    
+    /**
+     * Parse date formatted with {@link #formatDatetime(long)}.
+     * @param s formatted date
+     * @return milliseconds since epoch
+     * @throws ParseException if date is invalid
+     */
+    public static long parseDatetime(String s) throws ParseException {
+    	return DATETIME_FORMAT.get().parse(s).getTime();
+    }
+    
 }
@@ -0,0 +1,192 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Streaming writer for the change log XML file.
+ * 
+ * Entries are written one by one to a buffered writer, so the change log is never
+ * held in memory as a whole. All element values are XML escaped.
+ * 
+ * A change element contains either a single record, or the records of a changeset
+ * as file elements which share the date, user and comment of the change.
+ * 
+ * @author patlau
+ */
+final class ChangeLogWriter implements Closeable {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	private final Writer out;
+	
+	// Journal dates have minute resolution, so many entries share the same date string
+	private long lastTimestamp = VssJournalEntry.NO_DATETIME;
+	private String lastDatetime;
+	
+	ChangeLogWriter(OutputStream stream) throws IOException {
+		this(new OutputStreamWriter(stream, "UTF-8"));
+	}
+	
+	ChangeLogWriter(Writer writer) {
+		out = writer instanceof BufferedWriter ? writer : new BufferedWriter(writer, BUFFER_SIZE);
+	}
+	
+	/**
+	 * Write XML declaration and start of log element.
+	 */
+	void startLog() throws IOException {
+		out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		out.write("<log>\n");
+	}
+	
+	/**
+	 * Write one change element.
+	 * @param entry journal entry
+	 */
+	void writeEntry(VssJournalEntry entry) throws IOException {
+		out.write("\t<change>\n");
+		writeElement("version", entry.getVersion());
+		writeElement("date", getDatetimeString(entry));
+		writeElement("user", entry.getUser());
+		writeElement("action", entry.getAction());
+		writeElement("filename", entry.getFilename());
+		String comment = entry.getComment();
+		if (comment != null && !comment.isEmpty())
+			writeElement("comment", comment);
+		out.write("\t</change>\n");
+	}
+	
+	/**
+	 * Write one change element for a changeset. The date, user and comment of the
+	 * first record are written once, followed by one file element per record. A
+	 * changeset of a single record is written as plain change element.
+	 * @param records journal records with the same user and comment
+	 */
+	void writeChangeset(List<VssJournalEntry> records) throws IOException {
+		if (records.size() == 1) {
+			writeEntry(records.get(0));
+			return;
+		}
+		VssJournalEntry first = records.get(0);
+		String date = getDatetimeString(first);
+		out.write("\t<change>\n");
+		writeElement("date", date);
+		writeElement("user", first.getUser());
+		String comment = first.getComment();
+		if (comment != null && !comment.isEmpty())
+			writeElement("comment", comment);
+		for (VssJournalEntry entry : records) {
+			out.write("\t\t<file>\n");
+			writeElement("version", entry.getVersion());
+			String fileDate = getDatetimeString(entry);
+			if (fileDate != null && !fileDate.equals(date))
+				writeElement("date", fileDate);
+			writeElement("action", entry.getAction());
+			writeElement("filename", entry.getFilename());
+			out.write("\t\t</file>\n");
+		}
+		out.write("\t</change>\n");
+	}
+	
+	/**
+	 * Write end of log element and flush the output.
+	 */
+	void endLog() throws IOException {
+		out.write("</log>\n");
+		out.flush();
+	}
+	
+	public void close() throws IOException {
+		out.close();
+	}
+	
+	private String getDatetimeString(VssJournalEntry entry) {
+		long timestamp = entry.getTimestamp();
+		if (timestamp == VssJournalEntry.NO_DATETIME)
+			return null;
+		if (lastDatetime == null || timestamp != lastTimestamp) {
+			lastTimestamp = timestamp;
+			lastDatetime = CalendarUtils.formatDatetime(timestamp);
+		}
+		return lastDatetime;
+	}
+	
+	private void writeElement(String name, String value) throws IOException {
+		out.write("\t\t<");
+		out.write(name);
+		out.write('>');
+		if (value != null)
+			writeEscaped(value);
+		out.write("</");
+		out.write(name);
+		out.write(">\n");
+	}
+	
+	/**
+	 * Write text with XML special characters replaced by entities. Characters which
+	 * are not allowed in XML 1.0 are dropped.
+	 */
+	private void writeEscaped(String value) throws IOException {
+		int start = 0;
+		int length = value.length();
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			String entity;
+			switch (c) {
+			case '&':
+				entity = "&amp;";
+				break;
+			case '<':
+				entity = "&lt;";
+				break;
+			case '>':
+				entity = "&gt;";
+				break;
+			case '"':
+				entity = "&quot;";
+				break;
+			case '\'':
+				entity = "&apos;";
+				break;
+			default:
+				if (c >= 0x20 || c == '\t' || c == '\n' || c == '\r')
+					continue;
+				entity = "";
+				break;
+			}
+			out.write(value, start, i - start);
+			out.write(entity);
+			start = i + 1;
+		}
+		out.write(value, start, length - start);
+	}
+
+}
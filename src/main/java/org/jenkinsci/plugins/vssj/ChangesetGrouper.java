@@ -0,0 +1,181 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups the per-file journal records of a check-in to one changeset.
+ * 
+ * Records are grouped if they have the same user and comment and their dates are
+ * at most the window apart from the previous record of the group. Records of other
+ * users in between do not split a group. Changesets are passed to the sink in the
+ * order of their first record, as soon as no further record can be added, so only
+ * the changesets of the current window are held in memory.
+ * 
+ * @author patlau
+ */
+final class ChangesetGrouper {
+
+	/**
+	 * Default maximum seconds between two records of a changeset, used by jobs
+	 * without a configured window. Negative to disable grouping.
+	 */
+	static final long WINDOW_SECONDS = Long.getLong(ChangesetGrouper.class.getName() + ".window", 120L);
+	
+	private final long windowMillis;
+	private final Sink sink;
+	private final LinkedList<Group> pending = new LinkedList<Group>();
+	private final Map<String, Group> open = new HashMap<String, Group>();
+	
+	/**
+	 * Receives the grouped changesets.
+	 */
+	interface Sink {
+		
+		/**
+		 * Called for every changeset.
+		 * @param records journal records of the changeset, at least one
+		 * @throws IOException on write errors
+		 */
+		void changeset(List<VssJournalEntry> records) throws IOException;
+	}
+	
+	ChangesetGrouper(long windowMillis, Sink sink) {
+		this.windowMillis = windowMillis;
+		this.sink = sink;
+	}
+	
+	/**
+	 * Group records.
+	 * @param records journal records
+	 * @param windowMillis maximum milliseconds between two records of a changeset
+	 * @return changesets
+	 */
+	static List<List<VssJournalEntry>> group(Iterable<VssJournalEntry> records, long windowMillis) {
+		final List<List<VssJournalEntry>> changesets = new ArrayList<List<VssJournalEntry>>();
+		ChangesetGrouper grouper = new ChangesetGrouper(windowMillis, new Sink() {
+			public void changeset(List<VssJournalEntry> group) {
+				changesets.add(group);
+			}
+		});
+		try {
+			for (VssJournalEntry record : records) {
+				grouper.add(record);
+			}
+			grouper.flush();
+		} catch (IOException e) {
+			// The sink does not throw
+			throw new RuntimeException(e);
+		}
+		return changesets;
+	}
+	
+	/**
+	 * Add the next record.
+	 * @param record journal record
+	 * @throws IOException if the sink fails
+	 */
+	void add(VssJournalEntry record) throws IOException {
+		long timestamp = record.getTimestamp();
+		if (windowMillis < 0) {
+			List<VssJournalEntry> single = new ArrayList<VssJournalEntry>(1);
+			single.add(record);
+			sink.changeset(single);
+			return;
+		}
+		String key = getKey(record);
+		Group group = open.get(key);
+		if (group != null && isWithin(group.lastTimestamp, timestamp)) {
+			group.add(record);
+		} else {
+			group = new Group(key, record);
+			pending.add(group);
+			open.put(key, group);
+		}
+		// Pass on the oldest changesets which can not grow any more
+		while (!pending.isEmpty() && isClosed(pending.getFirst(), timestamp)) {
+			emit(pending.removeFirst());
+		}
+	}
+	
+	/**
+	 * Pass on all remaining changesets.
+	 * @throws IOException if the sink fails
+	 */
+	void flush() throws IOException {
+		while (!pending.isEmpty()) {
+			emit(pending.removeFirst());
+		}
+	}
+	
+	private void emit(Group group) throws IOException {
+		if (open.get(group.key) == group)
+			open.remove(group.key);
+		sink.changeset(group.records);
+	}
+	
+	private boolean isWithin(long last, long timestamp) {
+		if (last == VssJournalEntry.NO_DATETIME || timestamp == VssJournalEntry.NO_DATETIME)
+			return last == timestamp;
+		return Math.abs(timestamp - last) <= windowMillis;
+	}
+	
+	private boolean isClosed(Group group, long timestamp) {
+		if (group.lastTimestamp == VssJournalEntry.NO_DATETIME || timestamp == VssJournalEntry.NO_DATETIME)
+			return false;
+		return timestamp - group.lastTimestamp > windowMillis;
+	}
+	
+	private static String getKey(VssJournalEntry record) {
+		String comment = record.getComment();
+		if (comment == null)
+			comment = "";
+		String user = record.getUser() == null ? "" : record.getUser();
+		return user + '\n' + comment.trim();
+	}
+	
+	/**
+	 * Records of one changeset.
+	 */
+	private static final class Group {
+		private final String key;
+		private final List<VssJournalEntry> records = new ArrayList<VssJournalEntry>();
+		private long lastTimestamp;
+		
+		Group(String key, VssJournalEntry first) {
+			this.key = key;
+			add(first);
+		}
+		
+		void add(VssJournalEntry record) {
+			records.add(record);
+			lastTimestamp = record.getTimestamp();
+		}
+	}
+}
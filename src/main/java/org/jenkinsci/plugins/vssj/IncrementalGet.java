@@ -0,0 +1,351 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Plan of an incremental get from journal entries.
+ * 
+ * Check-in and rollback records name the changed file, which is fetched on its own.
+ * Project records (add, create, rename, share) name the parent project, which is
+ * fetched recursively. Deletes need no get. Records which may name a file or a
+ * project, like labels, fetch the containing project recursively. Files within a
+ * project fetched recursively are skipped.
+ * 
+ * Files are grouped by their SourceSafe project, because ss.exe gets files to the
+ * current directory, and split into batches to stay below the command line limit
+ * of CMD.EXE.
+ * 
+ * @author patlau
+ */
+final class IncrementalGet {
+
+	/**
+	 * Maximum length of the file list of one ss.exe call, CMD.EXE allows 8191 characters.
+	 */
+	static final int MAX_ITEMS_LENGTH = 7000;
+	
+	private final String[] projects;
+	private final JournalActions actions;
+	private final Map<String, Target> targets = new LinkedHashMap<String, Target>();
+	private final List<VssJournalEntry> entries = new ArrayList<VssJournalEntry>();
+	
+	/**
+	 * Create empty plan.
+	 * @param projects configured SourceSafe projects
+	 * @param locale journal locale
+	 */
+	IncrementalGet(String[] projects, Locale locale) {
+		this.projects = new String[projects.length];
+		for (int i = 0; i < projects.length; i++) {
+			this.projects[i] = normalize(projects[i]);
+		}
+		this.actions = JournalActions.forLocale(locale);
+	}
+	
+	/**
+	 * Add files of journal entries.
+	 * @param entries journal entries
+	 */
+	void addAll(Collection<VssJournalEntry> entries) {
+		for (VssJournalEntry entry : entries) {
+			add(entry);
+		}
+	}
+	
+	/**
+	 * Get journal entries added to this plan.
+	 */
+	List<VssJournalEntry> getEntries() {
+		return entries;
+	}
+	
+	/**
+	 * Add file of a journal entry. Entries outside of the configured projects are ignored.
+	 * 
+	 * Check-ins and rollbacks get the file, changes of a project get the project
+	 * recursively. Other records, like labels, may be recorded on a file or a project,
+	 * so the project containing the record is fetched recursively.
+	 * @param entry journal entry
+	 */
+	void add(VssJournalEntry entry) {
+		entries.add(entry);
+		String path = normalize(entry.getFilename());
+		if (isFileRecord(entry)) {
+			addFile(path, WorkspaceManifest.parseVersion(entry.getVersion()));
+		} else if (actions.isDelete(entry.getAction())) {
+			return;
+		} else if (actions.isProjectAction(entry.getAction())) {
+			addRecursive(path);
+		} else {
+			int slash = path.lastIndexOf('/');
+			String parent = slash < 0 ? null : path.substring(0, slash);
+			addRecursive(parent != null && findProject(parent) != null ? parent : path);
+		}
+	}
+	
+	private void addRecursive(String vssPath) {
+		Target target = getTarget(vssPath);
+		if (target != null)
+			target.recursive = true;
+	}
+	
+	/**
+	 * Add a file to fetch.
+	 * @param filename SourceSafe path of file
+	 * @param version version of file or 0 if unknown
+	 */
+	void addFile(String filename, int version) {
+		String path = normalize(filename);
+		int slash = path.lastIndexOf('/');
+		if (slash < 0)
+			return;
+		Target target = getTarget(path.substring(0, slash));
+		if (target != null)
+			target.addFile(path, version);
+	}
+	
+	/**
+	 * Check if a journal entry is a check-in or rollback of a file.
+	 * @param entry journal entry
+	 * @return true if recorded on a file
+	 */
+	boolean isFileRecord(VssJournalEntry entry) {
+		return actions.isCheckin(entry.getAction()) || actions.isRollback(entry.getAction());
+	}
+	
+	/**
+	 * Check if a journal entry is a check-in of a file.
+	 * @param entry journal entry
+	 * @return true if check-in
+	 */
+	boolean isCheckin(VssJournalEntry entry) {
+		return actions.isCheckin(entry.getAction());
+	}
+	
+	/**
+	 * Get the SourceSafe path of the file or project named by a project record.
+	 * @param entry journal entry
+	 * @return path or null if the record names no file or project
+	 */
+	String getNamedPath(VssJournalEntry entry) {
+		String item = actions.getNamedItem(entry.getAction());
+		if (item == null || item.isEmpty())
+			return null;
+		return normalize(item.startsWith("$") ? item : entry.getFilename() + "/" + item);
+	}
+	
+	/**
+	 * Get SourceSafe paths of files and projects deleted, renamed or moved by the
+	 * added journal entries, which are removed from the workspace by a selective clean.
+	 * @return removed paths within the configured projects
+	 */
+	List<String> getRemovedPaths() {
+		Map<String, String> paths = new LinkedHashMap<String, String>();
+		for (VssJournalEntry entry : entries) {
+			String item = actions.getRemovedItem(entry.getAction());
+			if (item == null || item.isEmpty())
+				continue;
+			String path = normalize(item.startsWith("$") ? item : entry.getFilename() + "/" + item);
+			String project = findProject(path);
+			// Never remove a configured project itself
+			if (project != null && path.length() > project.length())
+				paths.put(path.toLowerCase(Locale.ENGLISH), path);
+		}
+		return new ArrayList<String>(paths.values());
+	}
+	
+	/**
+	 * Get the configured project containing a path.
+	 * @param vssPath SourceSafe path
+	 * @return normalized project or null if not within the configured projects
+	 */
+	String getProject(String vssPath) {
+		return findProject(normalize(vssPath));
+	}
+	
+	/**
+	 * Get projects to fetch, without projects contained in a project fetched recursively.
+	 */
+	List<Target> getTargets() {
+		List<Target> result = new ArrayList<Target>();
+		for (Target target : targets.values()) {
+			if (!isWithinRecursiveTarget(target))
+				result.add(target);
+		}
+		return result;
+	}
+	
+	boolean isEmpty() {
+		return targets.isEmpty();
+	}
+	
+	private boolean isWithinRecursiveTarget(Target target) {
+		for (Target other : targets.values()) {
+			if (other != target && other.recursive && other.project.equals(target.project)
+					&& isWithin(target.vssPath, other.vssPath))
+				return true;
+		}
+		return false;
+	}
+	
+	private Target getTarget(String vssPath) {
+		String project = findProject(vssPath);
+		if (project == null)
+			return null;
+		String key = vssPath.toLowerCase(Locale.ENGLISH);
+		Target target = targets.get(key);
+		if (target == null) {
+			target = new Target(project, vssPath, vssPath.substring(project.length()));
+			targets.put(key, target);
+		}
+		return target;
+	}
+	
+	private String findProject(String vssPath) {
+		String project = null;
+		for (String p : projects) {
+			if (isWithin(vssPath, p) && (project == null || p.length() > project.length()))
+				project = p;
+		}
+		return project;
+	}
+	
+	private static boolean isWithin(String path, String dir) {
+		if (!path.regionMatches(true, 0, dir, 0, dir.length()))
+			return false;
+		return path.length() == dir.length() || path.charAt(dir.length()) == '/';
+	}
+	
+	/**
+	 * Normalize SourceSafe path: trimmed, with "/" as separator and without trailing "/".
+	 */
+	static String normalize(String path) {
+		String s = path == null ? "" : path.trim().replace('\\', '/');
+		while (s.endsWith("/"))
+			s = s.substring(0, s.length() - 1);
+		return s;
+	}
+	
+	/**
+	 * Split file list into batches, each not longer than maxLength if joined.
+	 * @param items items
+	 * @param maxLength maximum length of all items including separators
+	 * @return batches
+	 */
+	static List<List<String>> batch(List<String> items, int maxLength) {
+		List<List<String>> batches = new ArrayList<List<String>>();
+		List<String> batch = new ArrayList<String>();
+		int length = 0;
+		for (String item : items) {
+			// Quotes and separator
+			int itemLength = item.length() + 3;
+			if (!batch.isEmpty() && length + itemLength > maxLength) {
+				batches.add(batch);
+				batch = new ArrayList<String>();
+				length = 0;
+			}
+			batch.add(item);
+			length += itemLength;
+		}
+		if (!batch.isEmpty())
+			batches.add(batch);
+		return batches;
+	}
+	
+	/**
+	 * SourceSafe project to fetch, either recursively or only the changed files.
+	 */
+	static final class Target {
+		private final String project;
+		private final String vssPath;
+		private final String relativePath;
+		private final Map<String, String> files = new LinkedHashMap<String, String>();
+		private final Map<String, Integer> versions = new HashMap<String, Integer>();
+		private boolean recursive;
+		
+		Target(String project, String vssPath, String relativePath) {
+			this.project = project;
+			this.vssPath = vssPath;
+			this.relativePath = relativePath;
+		}
+		
+		private void addFile(String file, int version) {
+			String key = file.toLowerCase(Locale.ENGLISH);
+			if (!files.containsKey(key))
+				files.put(key, file);
+			// Records are added in journal order, a rollback lowers the version
+			versions.put(key, version);
+		}
+		
+		/**
+		 * Configured project containing this target.
+		 */
+		String getProject() {
+			return project;
+		}
+		
+		/**
+		 * SourceSafe path of this project.
+		 */
+		String getVssPath() {
+			return vssPath;
+		}
+		
+		/**
+		 * Path relative to the configured project, empty or starting with "/".
+		 */
+		String getRelativePath() {
+			return relativePath;
+		}
+		
+		boolean isRecursive() {
+			return recursive;
+		}
+		
+		/**
+		 * Get the version of the last record of a changed file.
+		 * @param file SourceSafe path of file
+		 * @return version or 0 if unknown
+		 */
+		int getVersion(String file) {
+			Integer version = versions.get(file.toLowerCase(Locale.ENGLISH));
+			return version == null ? 0 : version;
+		}
+		
+		/**
+		 * Changed files, empty if recursive.
+		 */
+		List<String> getFiles() {
+			return recursive ? new ArrayList<String>() : new ArrayList<String>(files.values());
+		}
+	}
+
+}
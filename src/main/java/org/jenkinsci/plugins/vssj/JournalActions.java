@@ -0,0 +1,140 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Classifies journal actions of a journal locale.
+ * 
+ * Check-ins and rollbacks are recorded on the file itself. Adds, deletes, renames,
+ * moves and shares are recorded on the parent project, the action names the
+ * affected file or project. Other actions like labels may be recorded on a file or
+ * a project. The action
+ * texts are defined as regular expressions in the journal resource bundle.
+ * 
+ * @author patlau
+ */
+final class JournalActions {
+
+	private final String checkinAction;
+	private final String rollbackAction;
+	private final Pattern projectPattern;
+	private final Pattern deletePattern;
+	private final Pattern renamePattern;
+	private final Pattern movePattern;
+	
+	private JournalActions(ResourceBundle bundle) {
+		checkinAction = bundle.getString("checkinAction");
+		rollbackAction = bundle.getString("rollbackAction");
+		projectPattern = Pattern.compile(bundle.getString("projectPattern"));
+		deletePattern = Pattern.compile(bundle.getString("deletePattern"));
+		renamePattern = Pattern.compile(bundle.getString("renamePattern"));
+		movePattern = Pattern.compile(bundle.getString("movePattern"));
+	}
+	
+	/**
+	 * Get journal actions of a locale.
+	 * @param locale journal locale
+	 * @return journal actions
+	 */
+	static JournalActions forLocale(Locale locale) {
+		return new JournalActions(ResourceBundle.getBundle("vss-journal", locale));
+	}
+	
+	/**
+	 * Check if action is a check-in of a file.
+	 * @param action journal action
+	 * @return true if check-in
+	 */
+	boolean isCheckin(String action) {
+		return action != null && action.trim().equalsIgnoreCase(checkinAction);
+	}
+	
+	/**
+	 * Check if action is a rollback of a file to an older version.
+	 * @param action journal action
+	 * @return true if rollback
+	 */
+	boolean isRollback(String action) {
+		return action != null && action.trim().equalsIgnoreCase(rollbackAction);
+	}
+	
+	/**
+	 * Check if action is recorded on a project and names a file or project within.
+	 * @param action journal action
+	 * @return true if add, delete, rename, move or share
+	 */
+	boolean isProjectAction(String action) {
+		return action != null && (projectPattern.matcher(action.trim()).matches() || getRemovedItem(action) != null);
+	}
+	
+	/**
+	 * Check if action deletes a file or project.
+	 * @param action journal action
+	 * @return true if delete
+	 */
+	boolean isDelete(String action) {
+		return action != null && deletePattern.matcher(action.trim()).matches();
+	}
+	
+	/**
+	 * Get the file or project named by an action recorded on a project.
+	 * @param action journal action
+	 * @return name or SourceSafe path of the item, null for other actions
+	 */
+	String getNamedItem(String action) {
+		if (action == null)
+			return null;
+		Matcher m = projectPattern.matcher(action.trim());
+		if (m.matches())
+			return m.group(1).trim();
+		return getRemovedItem(action);
+	}
+	
+	/**
+	 * Get the file or project removed from the project of the journal record by a
+	 * delete, rename or move.
+	 * @param action journal action
+	 * @return name or SourceSafe path of removed item, null for other actions
+	 */
+	String getRemovedItem(String action) {
+		if (action == null)
+			return null;
+		String s = action.trim();
+		Matcher m = deletePattern.matcher(s);
+		if (m.matches())
+			return m.group(1).trim();
+		m = renamePattern.matcher(s);
+		if (m.matches())
+			return m.group(1).trim();
+		m = movePattern.matcher(s);
+		if (m.matches())
+			return m.group(1).trim();
+		return null;
+	}
+
+}
@@ -0,0 +1,249 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Parser for journal date and time fields.
+ * 
+ * Supports the numeric subset of SimpleDateFormat patterns used by journal files
+ * (d, M, y, H and m with literal separators, e.g. "dd.MM.yy" and "HH:mm"). Like
+ * SimpleDateFormat, numeric fields accept fewer digits than the pattern letters, and
+ * two digit years are interpreted relative to the current century. Parsing works on
+ * the raw bytes of the journal and does not allocate. The epoch of the last parsed
+ * hour is cached, as journal records are mostly in chronological order.
+ * 
+ * Parsers are thread safe and created once per locale.
+ * 
+ * @author patlau
+ *
+ */
+final class JournalDateParser {
+
+	private static final ConcurrentMap<Locale, JournalDateParser> PARSERS = new ConcurrentHashMap<Locale, JournalDateParser>();
+	
+	private static final int DAY = 0;
+	private static final int MONTH = 1;
+	private static final int YEAR = 2;
+	private static final int HOUR = 3;
+	private static final int MINUTE = 4;
+	private static final int LITERAL = 5;
+	private static final int[] MAX_VALUES = new int[] {31, 12, 4095, 23, 59};
+	
+	private final int[] dateFields;
+	private final char[] dateLiterals;
+	private final int[] timeFields;
+	private final char[] timeLiterals;
+	private final int defaultCenturyStart;
+	private final TimeZone timeZone;
+	private volatile long[] lastHour = new long[] {-1L, 0L};
+	
+	JournalDateParser(String datePattern, String timePattern, TimeZone timeZone) {
+		this.dateFields = compileFields(datePattern);
+		this.dateLiterals = compileLiterals(datePattern);
+		this.timeFields = compileFields(timePattern);
+		this.timeLiterals = compileLiterals(timePattern);
+		this.timeZone = timeZone;
+		Calendar now = Calendar.getInstance(timeZone);
+		this.defaultCenturyStart = now.get(Calendar.YEAR) - 80;
+	}
+	
+	/**
+	 * Get the parser for the date and time formats of a journal locale.
+	 * @param locale journal locale
+	 * @return parser
+	 */
+	static JournalDateParser forLocale(Locale locale) {
+		JournalDateParser parser = PARSERS.get(locale);
+		if (parser == null) {
+			ResourceBundle bundle = ResourceBundle.getBundle("vss-journal", locale);
+			parser = new JournalDateParser(bundle.getString("dateFormat"), bundle.getString("timeFormat"), TimeZone.getDefault());
+			JournalDateParser existing = PARSERS.putIfAbsent(locale, parser);
+			if (existing != null)
+				parser = existing;
+		}
+		return parser;
+	}
+	
+	/**
+	 * Parse date and time fields.
+	 * @param buf buffer
+	 * @param dateFrom start of date
+	 * @param dateTo end of date
+	 * @param timeFrom start of time, -1 if there is no time
+	 * @param timeTo end of time
+	 * @return epoch milliseconds, or VssJournalEntry.NO_DATETIME if date is invalid
+	 */
+	long parse(byte[] buf, int dateFrom, int dateTo, int timeFrom, int timeTo) {
+		long date = parseFields(buf, dateFrom, dateTo, dateFields, dateLiterals);
+		if (date < 0)
+			return VssJournalEntry.NO_DATETIME;
+		long time = timeFrom < 0 ? 0L : parseFields(buf, timeFrom, timeTo, timeFields, timeLiterals);
+		long fields = time < 0 ? date : date | time;
+		int day = field(fields, DAY);
+		int month = field(fields, MONTH);
+		if (month < 1 || day < 1)
+			return VssJournalEntry.NO_DATETIME;
+		return epochOfHour(field(fields, YEAR), month, day, field(fields, HOUR)) + field(fields, MINUTE) * 60000L;
+	}
+	
+	/**
+	 * Parse date and time strings.
+	 * @param date date string
+	 * @param time time string, may be null
+	 * @return epoch milliseconds, or VssJournalEntry.NO_DATETIME if date is invalid
+	 */
+	long parse(String date, String time) {
+		if (date == null)
+			return VssJournalEntry.NO_DATETIME;
+		byte[] d = ascii(date);
+		byte[] t = time == null ? new byte[0] : ascii(time);
+		byte[] buf = new byte[d.length + t.length];
+		System.arraycopy(d, 0, buf, 0, d.length);
+		System.arraycopy(t, 0, buf, d.length, t.length);
+		return parse(buf, 0, d.length, time == null ? -1 : d.length, buf.length);
+	}
+	
+	/**
+	 * Parse numeric fields and pack them into a long with 12 bits per field.
+	 * @return packed fields or -1 if the input does not match the pattern
+	 */
+	private long parseFields(byte[] buf, int from, int to, int[] fields, char[] literals) {
+		long packed = 0L;
+		int p = from;
+		for (int i = 0; i < fields.length; i++) {
+			int field = fields[i];
+			if (field == LITERAL) {
+				if (p >= to || buf[p] != literals[i])
+					return -1L;
+				p++;
+				continue;
+			}
+			int start = p;
+			int value = 0;
+			while (p < to && p - start < 4 && buf[p] >= '0' && buf[p] <= '9') {
+				value = value * 10 + (buf[p] - '0');
+				p++;
+			}
+			if (p == start || value > MAX_VALUES[field])
+				return -1L;
+			if (field == YEAR && p - start <= 2)
+				value = twoDigitYear(value);
+			packed |= ((long) value) << (field * 12);
+		}
+		return p == to ? packed : -1L;
+	}
+	
+	private static int field(long packed, int field) {
+		return (int) (packed >>> (field * 12)) & 0xfff;
+	}
+	
+	private int twoDigitYear(int value) {
+		int year = (defaultCenturyStart / 100) * 100 + value;
+		if (year < defaultCenturyStart)
+			year += 100;
+		return year;
+	}
+	
+	private long epochOfHour(int year, int month, int day, int hour) {
+		long key = ((year * 100L + month) * 100L + day) * 100L + hour;
+		long[] cached = lastHour;
+		if (cached[0] == key)
+			return cached[1];
+		Calendar cal = Calendar.getInstance(timeZone);
+		cal.clear();
+		cal.set(year, month - 1, day, hour, 0, 0);
+		long epoch = cal.getTimeInMillis();
+		lastHour = new long[] {key, epoch};
+		return epoch;
+	}
+	
+	private static byte[] ascii(String s) {
+		byte[] b = new byte[s.length()];
+		for (int i = 0; i < b.length; i++) {
+			char c = s.charAt(i);
+			b[i] = c < 128 ? (byte) c : (byte) '?';
+		}
+		return b;
+	}
+	
+	private static int[] compileFields(String pattern) {
+		int count = 0;
+		for (int i = 0; i < pattern.length(); i++) {
+			if (i == 0 || !isField(pattern.charAt(i)) || pattern.charAt(i) != pattern.charAt(i - 1))
+				count++;
+		}
+		int[] fields = new int[count];
+		int n = 0;
+		for (int i = 0; i < pattern.length(); i++) {
+			char c = pattern.charAt(i);
+			if (i > 0 && isField(c) && c == pattern.charAt(i - 1))
+				continue;
+			fields[n++] = fieldOf(c);
+		}
+		return fields;
+	}
+	
+	private static char[] compileLiterals(String pattern) {
+		int[] fields = compileFields(pattern);
+		char[] literals = new char[fields.length];
+		int n = 0;
+		for (int i = 0; i < pattern.length(); i++) {
+			char c = pattern.charAt(i);
+			if (i > 0 && isField(c) && c == pattern.charAt(i - 1))
+				continue;
+			literals[n++] = c;
+		}
+		return literals;
+	}
+	
+	private static boolean isField(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+	
+	private static int fieldOf(char c) {
+		switch (c) {
+			case 'd':
+				return DAY;
+			case 'M':
+				return MONTH;
+			case 'y':
+				return YEAR;
+			case 'H':
+				return HOUR;
+			case 'm':
+				return MINUTE;
+			default:
+				if (isField(c))
+					throw new IllegalArgumentException("Unsupported journal date pattern letter: " + c);
+				return LITERAL;
+		}
+	}
+	
+}
@@ -0,0 +1,557 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import jenkins.model.Jenkins;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Persistent index of a journal file for history queries.
+ * 
+ * The index file has a header followed by one fixed size entry per journal record:
+ * position, timestamp, highest timestamp up to the record, project id and hash of
+ * the path. The position is the
+ * generation of the journal segment and the byte offset in it (see
+ * {@link JournalSegments}), so the archived segments of a rotated journal are
+ * indexed too. Project ids refer to the top level VSS projects, stored one per line
+ * in a separate file. Queries scan the memory mapped entries and only read the
+ * matching records from the journal. The entries are in journal order, which is not
+ * strictly the order of the record dates, as VSS writes the dates of the client
+ * clocks. The start of a date range is found by binary search on the highest
+ * timestamp up to each entry, which grows with the journal.
+ * 
+ * The index is updated incrementally with the records appended to the journal, in
+ * the background when the journal viewer queries it. When the journal is rotated, the
+ * index is carried over and continues with the rest of the archived segment with
+ * the last indexed record. It is rebuilt if no segment contains the last indexed
+ * record anymore. The index file is never truncated but overwritten in place, as a
+ * mapped file can not be truncated on Windows.
+ * 
+ * @author patlau
+ */
+final class JournalIndex {
+
+	static final int HEADER_SIZE = 64;
+	static final int ENTRY_SIZE = 32;
+	
+	private static final int MAGIC = 0x56535349;
+	private static final int FORMAT_VERSION = 3;
+	private static final int WRITE_BUFFER_ENTRIES = 4096;
+	private static final Map<String, JournalIndex> INDEXES = new HashMap<String, JournalIndex>();
+	private static final Logger LOGGER = Logger.getLogger(JournalIndex.class.getName());
+	/**
+	 * Background updates of the journal indexes, one at a time.
+	 */
+	static final ExecutorService UPDATER = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "VSS Journal Index");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+	});
+	
+	private final File journalFile;
+	private final Locale locale;
+	private final File indexFile;
+	private final File projectFile;
+	
+	private boolean loaded;
+	private int count;
+	private JournalSegments.Checkpoint checkpoint = new JournalSegments.Checkpoint();
+	private long maxTimestamp = VssJournalEntry.NO_DATETIME;
+	private final List<String> projects = new ArrayList<String>();
+	private final Map<String, Integer> projectIds = new HashMap<String, Integer>();
+	private final AtomicBoolean updatePending = new AtomicBoolean();
+	private final AtomicInteger updating = new AtomicInteger();
+	private final Object updateLock = new Object();
+	
+	/**
+	 * Create index.
+	 * @param journalFile journal file
+	 * @param locale journal locale
+	 * @param indexFile index file, the project file is stored next to it
+	 */
+	JournalIndex(File journalFile, Locale locale, File indexFile) {
+		this.journalFile = journalFile;
+		this.locale = locale;
+		this.indexFile = indexFile;
+		this.projectFile = new File(indexFile.getPath() + ".projects");
+	}
+	
+	/**
+	 * Get the shared index of a journal file, stored in the vssj-index directory
+	 * of JENKINS_HOME.
+	 * @param journalFile journal file
+	 * @param locale journal locale
+	 * @return index
+	 */
+	static synchronized JournalIndex forJournal(File journalFile, Locale locale) {
+		File file = journalFile.getAbsoluteFile();
+		try {
+			file = file.getCanonicalFile();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		String key = file.getPath() + "|" + locale;
+		JournalIndex index = INDEXES.get(key);
+		if (index == null) {
+			File dir = new File(Jenkins.getInstance().getRootDir(), "vssj-index");
+			String name = file.getName() + "-" + Integer.toHexString(key.hashCode()) + ".idx";
+			index = new JournalIndex(file, locale, new File(dir, name));
+			INDEXES.put(key, index);
+		}
+		return index;
+	}
+	
+	/**
+	 * Get the top level project of a VSS path, e.g. "$/project1" for "$/PROJECT1/File.txt".
+	 */
+	static String getProject(String path) {
+		String s = path.replace('\\', '/').toLowerCase(Locale.ENGLISH);
+		int start = s.startsWith("$/") ? 2 : 0;
+		int end = s.indexOf('/', start);
+		return end < 0 ? "$/" : "$/" + s.substring(start, end);
+	}
+	
+	/**
+	 * Hash of a VSS path, ignoring case and path separator.
+	 */
+	static int pathHash(String path) {
+		return path.trim().replace('\\', '/').toLowerCase(Locale.ENGLISH).hashCode();
+	}
+	
+	/**
+	 * Index the records appended to the journal since the last update. The new
+	 * state is only taken over after the entries and the header were written, so a
+	 * failed update leaves the index as it was. Queries are not blocked while the
+	 * journal is read, they see the entries of the last update.
+	 * @return number of records added
+	 * @throws IOException on read or write errors
+	 */
+	int update() throws IOException {
+		synchronized (updateLock) {
+			JournalSegments.Checkpoint next;
+			synchronized (this) {
+				load();
+				next = checkpoint.copy();
+			}
+			if (!journalFile.exists() || next.isCurrent(journalFile))
+				return 0;
+			
+			RandomAccessFile index = null;
+			try {
+				FileUtils.forceMkdir(indexFile.getParentFile());
+				index = new RandomAccessFile(indexFile, "rw");
+				FileChannel out = index.getChannel();
+				EntryWriter writer = new EntryWriter(out);
+				next.read(journalFile, new VssJournal(locale).getCharset(), writer);
+				writer.flush();
+				synchronized (this) {
+					if (!writer.newProjects.isEmpty()) {
+						List<String> allProjects = new ArrayList<String>(projects);
+						allProjects.addAll(writer.newProjects);
+						saveProjects(allProjects);
+					}
+					out.force(false);
+					
+					count += writer.added;
+					checkpoint = next;
+					maxTimestamp = writer.maxTimestamp;
+					projects.addAll(writer.newProjects);
+					projectIds.putAll(writer.newProjectIds);
+					try {
+						// The header is written last, so an interrupted update only loses the new entries
+						writeHeader(out);
+					} catch (IOException e) {
+						// Read the last header written again
+						reset();
+						loaded = false;
+						throw e;
+					}
+				}
+				return writer.added;
+			} finally {
+				if (index != null)
+					index.close();
+			}
+		}
+	}
+	
+	/**
+	 * Index the records appended to the journal in the background, so viewers do
+	 * not wait for it. Requests while an update is waiting are merged.
+	 */
+	void updateLater() {
+		if (!updatePending.compareAndSet(false, true))
+			return;
+		updating.incrementAndGet();
+		UPDATER.execute(new Runnable() {
+			public void run() {
+				updatePending.set(false);
+				try {
+					update();
+				} catch (IOException e) {
+					LOGGER.log(Level.WARNING, "Error updating journal index of " + journalFile, e);
+				} finally {
+					updating.decrementAndGet();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Check if a background update was requested and has not finished yet, so the
+	 * latest records may be missing from query results.
+	 */
+	boolean isUpdating() {
+		return updating.get() > 0;
+	}
+	
+	/**
+	 * Update the index right away if the journal was rotated since the last update.
+	 * The positions found before point into the segments of the old live generation
+	 * then, so a query must be repeated after the update.
+	 * @return true if the journal was rotated
+	 * @throws IOException on read or write errors
+	 */
+	boolean updateIfRotated() throws IOException {
+		JournalSegments.Checkpoint current;
+		synchronized (this) {
+			load();
+			current = checkpoint.copy();
+		}
+		if (!journalFile.exists() || current.isLive(journalFile))
+			return false;
+		update();
+		return true;
+	}
+	
+	/**
+	 * Number of indexed records.
+	 */
+	synchronized int size() {
+		load();
+		return count;
+	}
+	
+	/**
+	 * Find the records after a date, of all projects or of one top level project.
+	 * The entries before the first entry with a later highest timestamp are skipped,
+	 * the dates of the other entries are compared, as a later record may have an
+	 * earlier date.
+	 * @param from exclusive start date in milliseconds since epoch, NO_DATETIME for all records
+	 * @param to inclusive end date in milliseconds since epoch
+	 * @param project top level project or null for all projects
+	 * @return positions of the records in journal order
+	 * @throws IOException on read errors
+	 */
+	synchronized long[] findRange(long from, long to, String project) throws IOException {
+		load();
+		int projectId = -1;
+		if (project != null) {
+			Integer id = projectIds.get(getProject(project + "/"));
+			if (id == null)
+				return new long[0];
+			projectId = id;
+		}
+		long[] offsets = new long[16];
+		int n = 0;
+		ByteBuffer entries = map();
+		for (int i = firstAfter(entries, from); i < count; i++) {
+			int p = i * ENTRY_SIZE;
+			long timestamp = entries.getLong(p + 8);
+			if (!isAfter(timestamp, from) || timestamp > to)
+				continue;
+			if (projectId >= 0 && entries.getInt(p + 24) != projectId)
+				continue;
+			if (n == offsets.length)
+				offsets = Arrays.copyOf(offsets, n * 2);
+			offsets[n++] = entries.getLong(p);
+		}
+		return Arrays.copyOf(offsets, n);
+	}
+	
+	/**
+	 * Find the records of a path, e.g. to find when a file was last checked in.
+	 * The records are found by the hash of the path, so the caller has to compare
+	 * the filename of the records read.
+	 * @param path VSS path
+	 * @return positions of the records in journal order
+	 * @throws IOException on read errors
+	 */
+	synchronized long[] findPath(String path) throws IOException {
+		load();
+		return findPath(map(), pathHash(path), VssJournalEntry.NO_DATETIME, 0);
+	}
+	
+	/**
+	 * Find the records of a path after a date, see {@link #findPath(String)}.
+	 * @param path VSS path
+	 * @param from exclusive start date in milliseconds since epoch
+	 * @return positions of the records in journal order
+	 * @throws IOException on read errors
+	 */
+	synchronized long[] findPath(String path, long from) throws IOException {
+		load();
+		ByteBuffer entries = map();
+		return findPath(entries, pathHash(path), from, firstAfter(entries, from));
+	}
+	
+	private long[] findPath(ByteBuffer entries, int hash, long from, int fromIndex) {
+		long[] offsets = new long[16];
+		int n = 0;
+		for (int i = fromIndex; i < count; i++) {
+			int p = i * ENTRY_SIZE;
+			if (entries.getInt(p + 28) != hash)
+				continue;
+			if (!isAfter(entries.getLong(p + 8), from))
+				continue;
+			if (n == offsets.length)
+				offsets = Arrays.copyOf(offsets, n * 2);
+			offsets[n++] = entries.getLong(p);
+		}
+		return Arrays.copyOf(offsets, n);
+	}
+	
+	/**
+	 * Check if a record date is after an exclusive start date, NO_DATETIME as start
+	 * date includes records without a date.
+	 */
+	private static boolean isAfter(long timestamp, long from) {
+		return from == VssJournalEntry.NO_DATETIME || timestamp > from;
+	}
+	
+	/**
+	 * Index of the first entry with a highest timestamp after the given date, all
+	 * entries before are at or before the date.
+	 */
+	private int firstAfter(ByteBuffer entries, long from) {
+		if (from == VssJournalEntry.NO_DATETIME)
+			return 0;
+		int low = 0;
+		int high = count;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (entries.getLong(mid * ENTRY_SIZE + 16) <= from)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+	
+	/**
+	 * Generation of the live journal, to read the records found with this index.
+	 */
+	synchronized int getLiveGeneration() {
+		load();
+		return checkpoint.getLiveGeneration();
+	}
+	
+	/**
+	 * Read the journal records at the given positions.
+	 * @param positions record positions found with this index
+	 * @return entries
+	 */
+	List<VssJournalEntry> readEntries(long[] positions) {
+		return new VssJournal(locale).readEntries(journalFile, positions, getLiveGeneration());
+	}
+	
+	private ByteBuffer map() throws IOException {
+		if (count == 0)
+			return ByteBuffer.allocate(0);
+		RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+		try {
+			return file.getChannel().map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, (long) count * ENTRY_SIZE);
+		} finally {
+			file.close();
+		}
+	}
+	
+	private void reset() {
+		count = 0;
+		checkpoint = new JournalSegments.Checkpoint();
+		maxTimestamp = VssJournalEntry.NO_DATETIME;
+		projects.clear();
+		projectIds.clear();
+	}
+	
+	private synchronized void load() {
+		if (loaded)
+			return;
+		loaded = true;
+		if (!indexFile.exists())
+			return;
+		try {
+			RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+			try {
+				if (file.length() < HEADER_SIZE || file.readInt() != MAGIC || file.readInt() != FORMAT_VERSION)
+					return;
+				int n = file.readInt();
+				int liveGeneration = file.readInt();
+				int generation = file.readInt();
+				long journalOffset = file.readLong();
+				long lastRecordOffset = file.readLong();
+				long lastRecordHash = file.readLong();
+				long max = file.readLong();
+				checkpoint = new JournalSegments.Checkpoint(liveGeneration, generation, journalOffset, lastRecordOffset,
+						lastRecordHash);
+				maxTimestamp = max;
+				if (file.length() < HEADER_SIZE + (long) n * ENTRY_SIZE) {
+					reset();
+					return;
+				}
+				count = n;
+			} finally {
+				file.close();
+			}
+			if (projectFile.exists()) {
+				for (String project : FileUtils.readLines(projectFile, "UTF-8")) {
+					projectIds.put(project, projects.size());
+					projects.add(project);
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			reset();
+		}
+	}
+	
+	private void writeHeader(FileChannel out) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC);
+		header.putInt(FORMAT_VERSION);
+		header.putInt(count);
+		header.putInt(checkpoint.getLiveGeneration());
+		header.putInt(checkpoint.getGeneration());
+		header.putLong(checkpoint.getOffset());
+		header.putLong(checkpoint.getLastRecordOffset());
+		header.putLong(checkpoint.getLastRecordHash());
+		header.putLong(maxTimestamp);
+		header.rewind();
+		while (header.hasRemaining()) {
+			out.write(header, header.position());
+		}
+	}
+	
+	private void saveProjects(List<String> allProjects) throws IOException {
+		File tmp = new File(projectFile.getPath() + ".tmp");
+		FileUtils.writeLines(tmp, "UTF-8", allProjects, "\n");
+		if (projectFile.exists() && !projectFile.delete())
+			throw new IOException("Can not replace " + projectFile);
+		if (!tmp.renameTo(projectFile))
+			throw new IOException("Can not rename " + tmp);
+	}
+	
+	private static long flush(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+		buffer.flip();
+		long p = position;
+		while (buffer.hasRemaining()) {
+			p += out.write(buffer, p);
+		}
+		buffer.clear();
+		return p;
+	}
+	
+	/**
+	 * Writes the index entries of the records read, new projects are only added to
+	 * the index when the update is committed.
+	 */
+	private final class EntryWriter implements JournalSegments.RecordHandler {
+		private final FileChannel out;
+		private final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_ENTRIES * ENTRY_SIZE);
+		private final JournalDateParser dateParser = JournalDateParser.forLocale(locale);
+		private final List<String> newProjects = new ArrayList<String>();
+		private final Map<String, Integer> newProjectIds = new HashMap<String, Integer>();
+		private long position;
+		private int added;
+		private long maxTimestamp;
+		
+		EntryWriter(FileChannel out) {
+			this.out = out;
+			this.position = HEADER_SIZE + (long) count * ENTRY_SIZE;
+			this.maxTimestamp = JournalIndex.this.maxTimestamp;
+		}
+		
+		public void reset() throws IOException {
+			synchronized (JournalIndex.this) {
+				// Invalidate the old entries before the project ids change
+				JournalIndex.this.reset();
+				writeHeader(out);
+				out.force(false);
+			}
+			position = HEADER_SIZE;
+			maxTimestamp = VssJournalEntry.NO_DATETIME;
+		}
+		
+		public void record(JournalScanner scanner, long recordPosition) throws IOException {
+			String filename = scanner.getLine(0);
+			String project = getProject(filename);
+			Integer projectId = projectIds.get(project);
+			if (projectId == null)
+				projectId = newProjectIds.get(project);
+			if (projectId == null) {
+				projectId = projects.size() + newProjects.size();
+				newProjects.add(project);
+				newProjectIds.put(project, projectId);
+			}
+			long timestamp = VssJournalEntry.NO_DATETIME;
+			if (scanner.getLineCount() > 2 && scanner.hasToken(2, 5))
+				timestamp = scanner.getDatetime(2, 3, 5, dateParser);
+			maxTimestamp = Math.max(maxTimestamp, timestamp);
+			buffer.putLong(recordPosition);
+			buffer.putLong(timestamp);
+			buffer.putLong(maxTimestamp);
+			buffer.putInt(projectId);
+			buffer.putInt(pathHash(filename));
+			if (!buffer.hasRemaining())
+				flush();
+			added++;
+		}
+		
+		void flush() throws IOException {
+			position = JournalIndex.flush(out, buffer, position);
+		}
+	}
+}
@@ -0,0 +1,431 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * Byte level scanner for the journal file. Splits the file into records separated
+ * by blank lines without decoding them, so only the lines of records which are
+ * actually used need to be converted to strings.
+ * 
+ * The file is read through a reusable buffer with positional reads instead of being
+ * memory mapped, because a mapped file can not be truncated or renamed on Windows
+ * until the mapping is garbage collected.
+ * 
+ * Compressed journal segments are scanned sequentially from a stream instead.
+ * 
+ * @author patlau
+ *
+ */
+class JournalScanner {
+
+	private static final int BUFFER_SIZE = 1024 * 1024;
+	private static final int MAX_BUFFER_SIZE = 64 * 1024 * 1024;
+	private static final int MAX_LINES = 8;
+	
+	private final FileChannel channel;
+	private final long size;
+	private final InputStream stream;
+	private boolean eof;
+	private final Charset charset;
+	
+	private byte[] buffer;
+	private long base;
+	private int limit;
+	private int position;
+	
+	private int lineCount;
+	private final int[] lineStart = new int[MAX_LINES];
+	private final int[] lineEnd = new int[MAX_LINES];
+	private long recordOffset;
+	private long recordEnd;
+	
+	/**
+	 * Create scanner starting at given byte offset.
+	 * @param channel journal file channel
+	 * @param fromOffset byte offset to start reading
+	 * @param charset journal charset
+	 * @throws IOException on read errors
+	 */
+	JournalScanner(FileChannel channel, long fromOffset, Charset charset) throws IOException {
+		this(channel, fromOffset, charset, BUFFER_SIZE);
+	}
+	
+	/**
+	 * Create scanner with a smaller buffer, e.g. to read single records. The buffer
+	 * grows if a record does not fit.
+	 * @param channel journal file channel
+	 * @param fromOffset byte offset to start reading
+	 * @param charset journal charset
+	 * @param bufferSize initial buffer size
+	 * @throws IOException on read errors
+	 */
+	JournalScanner(FileChannel channel, long fromOffset, Charset charset, int bufferSize) throws IOException {
+		this.channel = channel;
+		this.size = channel.size();
+		this.stream = null;
+		this.charset = charset;
+		this.buffer = new byte[bufferSize];
+		load(fromOffset);
+	}
+	
+	/**
+	 * Create scanner reading sequentially from a stream, e.g. a decompressed journal
+	 * segment. Offsets are positions in the stream.
+	 * @param stream journal stream
+	 * @param fromOffset number of bytes to skip
+	 * @param charset journal charset
+	 * @throws IOException on read errors
+	 */
+	JournalScanner(InputStream stream, long fromOffset, Charset charset) throws IOException {
+		this.channel = null;
+		this.size = -1L;
+		this.stream = stream;
+		this.charset = charset;
+		this.buffer = new byte[BUFFER_SIZE];
+		skip(stream, fromOffset);
+		base = fromOffset;
+		load(fromOffset);
+	}
+	
+	/**
+	 * Continue reading at the given byte offset of the file. Bytes already in the
+	 * buffer are not read again, so reading records in the order of their offsets
+	 * reads each part of the file only once.
+	 * @param offset byte offset
+	 * @throws IOException on read errors
+	 */
+	void seek(long offset) throws IOException {
+		if (stream != null)
+			throw new IOException("Can not seek in a stream");
+		if (offset >= base && offset < base + limit)
+			position = (int) (offset - base);
+		else
+			load(offset);
+	}
+	
+	/**
+	 * Skip bytes of a stream.
+	 * @throws IOException if the stream ends before
+	 */
+	static void skip(InputStream stream, long count) throws IOException {
+		long remaining = count;
+		byte[] skipBuffer = null;
+		while (remaining > 0) {
+			long n = stream.skip(remaining);
+			if (n <= 0) {
+				// Some streams do not skip, read instead
+				if (skipBuffer == null)
+					skipBuffer = new byte[(int) Math.min(remaining, 8192)];
+				n = stream.read(skipBuffer, 0, (int) Math.min(remaining, skipBuffer.length));
+				if (n < 0)
+					throw new EOFException("Stream ends before offset " + count);
+			}
+			remaining -= n;
+		}
+	}
+	
+	/**
+	 * Advance to the next complete record, i.e. a record followed by a blank line.
+	 * A record at the end of the file which is not followed by a blank line is
+	 * complete if it has all header lines (filename, version, user and action) and
+	 * ends with a line feed, as the last record of a journal often has no blank line
+	 * after it. A record with fewer lines is still being written and is left for
+	 * the next read.
+	 * @return true if a complete record was found
+	 * @throws IOException on read errors
+	 */
+	boolean next() throws IOException {
+		while (true) {
+			int p = skipBlankLines(position);
+			if (p < 0)
+				continue;
+			if (p >= limit) {
+				if (isEof())
+					return false;
+				load(base + p);
+				continue;
+			}
+			int result = scanRecord(p);
+			if (result > 0)
+				return true;
+			if (result == 0)
+				return false;
+		}
+	}
+	
+	/**
+	 * Skip blank lines.
+	 * @return position of first non blank line, or -1 if buffer was reloaded
+	 */
+	private int skipBlankLines(int from) throws IOException {
+		int p = from;
+		while (p < limit) {
+			int e = indexOfLineFeed(p);
+			if (e < 0) {
+				if (!isBlank(p, limit))
+					return p;
+				if (isEof())
+					return limit;
+				load(base + p);
+				return -1;
+			}
+			if (!isBlank(p, e))
+				return p;
+			p = e + 1;
+		}
+		return p;
+	}
+	
+	/**
+	 * Scan lines of the record starting at given position.
+	 * @return 1 if record found, 0 if no complete record, -1 if buffer was reloaded
+	 */
+	private int scanRecord(int start) throws IOException {
+		int count = 0;
+		int q = start;
+		int end = start;
+		boolean terminated = false;
+		while (true) {
+			int e = indexOfLineFeed(q);
+			if (e < 0) {
+				if (isEof())
+					return 0;
+				load(base + start);
+				return -1;
+			}
+			if (isBlank(q, e)) {
+				terminated = true;
+				end = e + 1;
+				break;
+			}
+			if (count < MAX_LINES) {
+				lineStart[count] = q;
+				lineEnd[count] = e > q && buffer[e - 1] == '\r' ? e - 1 : e;
+			}
+			count++;
+			q = e + 1;
+			end = q;
+			if (q >= limit) {
+				if (!isEof()) {
+					load(base + start);
+					return -1;
+				}
+				break;
+			}
+		}
+		if (!terminated && count < 4)
+			return 0;
+		lineCount = count;
+		recordOffset = base + start;
+		recordEnd = base + end;
+		position = end;
+		return 1;
+	}
+	
+	private void load(long offset) throws IOException {
+		if (offset == base && limit == buffer.length) {
+			// Record does not fit into buffer
+			if (buffer.length >= MAX_BUFFER_SIZE)
+				throw new IOException("Journal record at offset " + offset + " too large");
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		}
+		if (stream != null) {
+			fill(offset);
+			return;
+		}
+		base = offset;
+		limit = 0;
+		position = 0;
+		ByteBuffer bb = ByteBuffer.wrap(buffer);
+		while (limit < buffer.length && base + limit < size) {
+			bb.limit((int) Math.min(buffer.length, size - base));
+			bb.position(limit);
+			int n = channel.read(bb, base + limit);
+			if (n < 0)
+				break;
+			limit += n;
+		}
+	}
+	
+	/**
+	 * Keep the bytes from the given offset and append the next bytes of the stream.
+	 */
+	private void fill(long offset) throws IOException {
+		int keep = (int) (base + limit - offset);
+		System.arraycopy(buffer, (int) (offset - base), buffer, 0, keep);
+		base = offset;
+		limit = keep;
+		position = 0;
+		while (limit < buffer.length && !eof) {
+			int n = stream.read(buffer, limit, buffer.length - limit);
+			if (n < 0)
+				eof = true;
+			else
+				limit += n;
+		}
+	}
+	
+	private boolean isEof() {
+		return stream != null ? eof : base + limit >= size;
+	}
+	
+	private int indexOfLineFeed(int from) {
+		for (int i = from; i < limit; i++) {
+			if (buffer[i] == '\n')
+				return i;
+		}
+		return -1;
+	}
+	
+	private boolean isBlank(int from, int to) {
+		return to == from || (to == from + 1 && buffer[from] == '\r');
+	}
+	
+	/**
+	 * Byte offset of the current record.
+	 */
+	long getRecordOffset() {
+		return recordOffset;
+	}
+	
+	/**
+	 * Byte offset after the current record and its terminating blank line.
+	 */
+	long getRecordEnd() {
+		return recordEnd;
+	}
+	
+	/**
+	 * CRC32 of the bytes of the current record.
+	 */
+	long getRecordHash() {
+		CRC32 crc = new CRC32();
+		crc.update(buffer, (int) (recordOffset - base), (int) (recordEnd - recordOffset));
+		return crc.getValue();
+	}
+	
+	/**
+	 * Number of lines in the current record.
+	 */
+	int getLineCount() {
+		return lineCount;
+	}
+	
+	/**
+	 * Check if the filename of the current record is in one of the projects. The
+	 * filename is only decoded if it has non ASCII characters.
+	 * @param projects project matcher
+	 * @return true if filename is in a project
+	 */
+	boolean matchesFilename(VssProjectMatcher projects) {
+		int result = projects.matches(buffer, lineStart[0], lineEnd[0]);
+		return result == VssProjectMatcher.UNDECIDED ? projects.matches(getLine(0)) : result > 0;
+	}
+	
+	/**
+	 * Decode a line of the current record.
+	 * @param line line index
+	 * @return line without line terminator
+	 */
+	String getLine(int line) {
+		return new String(buffer, lineStart[line], lineEnd[line] - lineStart[line], charset);
+	}
+	
+	/**
+	 * Decode a whitespace separated token of a line of the current record.
+	 * @param line line index
+	 * @param token token index
+	 * @return token or null if line has less tokens
+	 */
+	String getToken(int line, int token) {
+		long bounds = tokenBounds(line, token);
+		if (bounds < 0)
+			return null;
+		int s = (int) (bounds >>> 32);
+		return new String(buffer, s, (int) bounds - s, charset);
+	}
+	
+	/**
+	 * Check if a line of the current record has a whitespace separated token.
+	 * @param line line index
+	 * @param token token index
+	 * @return true if line has the token
+	 */
+	boolean hasToken(int line, int token) {
+		return tokenBounds(line, token) >= 0;
+	}
+	
+	/**
+	 * Parse date and time tokens of a line of the current record.
+	 * @param line line index
+	 * @param dateToken index of date token
+	 * @param timeToken index of time token
+	 * @param parser date parser
+	 * @return epoch milliseconds or VssJournalEntry.NO_DATETIME
+	 */
+	long getDatetime(int line, int dateToken, int timeToken, JournalDateParser parser) {
+		long date = tokenBounds(line, dateToken);
+		if (date < 0)
+			return VssJournalEntry.NO_DATETIME;
+		long time = tokenBounds(line, timeToken);
+		return parser.parse(buffer, (int) (date >>> 32), (int) date, 
+				time < 0 ? -1 : (int) (time >>> 32), time < 0 ? -1 : (int) time);
+	}
+	
+	/**
+	 * Find a whitespace separated token of a line of the current record.
+	 * @return start and end position packed into a long, -1 if line has less tokens
+	 */
+	private long tokenBounds(int line, int token) {
+		int p = lineStart[line];
+		int end = lineEnd[line];
+		int n = 0;
+		while (p < end) {
+			while (p < end && isWhitespace(buffer[p]))
+				p++;
+			if (p >= end)
+				break;
+			int s = p;
+			while (p < end && !isWhitespace(buffer[p]))
+				p++;
+			if (n == token)
+				return ((long) s << 32) | p;
+			n++;
+		}
+		return -1L;
+	}
+	
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t';
+	}
+	
+}
@@ -0,0 +1,531 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Segments of a rotated journal: the live journal file and the archived segments
+ * next to it, e.g. vss.log with vss.log.1, vss.log.2.gz or journal.txt with
+ * journal.1.txt.gz. A higher rotation number is an older segment. Archived segments
+ * may be gzip compressed and are only decompressed while they are read.
+ * 
+ * Records are located in a rotated journal by a position: the generation of their
+ * segment and their byte offset in it. The live journal has the highest generation,
+ * an archived segment the live generation minus its rotation number, so positions
+ * stay valid when the journal is rotated.
+ * 
+ * @author patlau
+ *
+ */
+final class JournalSegments {
+
+	/**
+	 * Maximum number of archived segments searched for the last record of a
+	 * previous read, i.e. number of rotations between two reads.
+	 */
+	static final int MAX_ROTATIONS = 3;
+	
+	/**
+	 * Highest generation of a record position.
+	 */
+	static final int MAX_GENERATION = (1 << 23) - 1;
+	
+	private static final int OFFSET_BITS = 40;
+	private static final String GZIP_SUFFIX = ".gz";
+	private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+	
+	private final File live;
+	private final File[] archives;
+	
+	private JournalSegments(File live, File[] archives) {
+		this.live = live;
+		this.archives = archives;
+	}
+	
+	/**
+	 * Find the segments of a journal file.
+	 * @param journalFile live journal file
+	 * @return segments, archives ordered from oldest to newest
+	 */
+	static JournalSegments forJournal(File journalFile) {
+		final File file = journalFile.getAbsoluteFile();
+		File dir = file.getParentFile();
+		File[] files = dir == null ? null : dir.listFiles(new FileFilter() {
+			public boolean accept(File f) {
+				return rotation(file.getName(), f.getName()) >= 0 && f.isFile();
+			}
+		});
+		if (files == null)
+			files = new File[0];
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File f1, File f2) {
+				int r1 = rotation(file.getName(), f1.getName());
+				int r2 = rotation(file.getName(), f2.getName());
+				return r1 > r2 ? -1 : (r1 < r2 ? 1 : 0);
+			}
+		});
+		return new JournalSegments(file, files);
+	}
+	
+	/**
+	 * Resolve the configured journal to the live journal file. The journal may be
+	 * given as a file, as a directory or as a file name pattern with * and ? wildcards.
+	 * For a directory or pattern, the live journal is the only matching file which
+	 * is not an archived segment of another file. If several files match, it is the
+	 * only one of them with archived segments; other files are never taken for the
+	 * journal.
+	 * @param spec configured journal
+	 * @return live journal file, or the given file if no journal was found
+	 */
+	static File resolve(String spec) {
+		File file = new File(spec);
+		File live = null;
+		if (file.isDirectory()) {
+			live = findLive(file, null);
+		} else if (spec.indexOf('*') >= 0 || spec.indexOf('?') >= 0) {
+			File dir = file.getParentFile();
+			live = findLive(dir == null ? new File(".") : dir, globPattern(file.getName()));
+		}
+		return live != null ? live : file;
+	}
+	
+	/**
+	 * Live journal file.
+	 */
+	File getLive() {
+		return live;
+	}
+	
+	/**
+	 * Archived segments from oldest to newest.
+	 */
+	List<File> getArchives() {
+		return Collections.unmodifiableList(Arrays.asList(archives));
+	}
+	
+	/**
+	 * Archived segment with the given rotation number.
+	 * @param rotation rotation number, 1 for the newest archive
+	 * @return segment or null if there is no such archive
+	 */
+	File getArchive(int rotation) {
+		for (File archive : archives) {
+			if (getRotation(archive) == rotation)
+				return archive;
+		}
+		return null;
+	}
+	
+	/**
+	 * Rotation number of an archived segment of this journal.
+	 */
+	int getRotation(File archive) {
+		return rotation(live.getName(), archive.getName());
+	}
+	
+	/**
+	 * Position of a record in a rotated journal.
+	 * @param generation generation of the segment
+	 * @param offset byte offset of the record in the segment
+	 * @return position
+	 */
+	static long position(int generation, long offset) {
+		return ((long) generation << OFFSET_BITS) | offset;
+	}
+	
+	/**
+	 * Generation of the segment of a record position.
+	 */
+	static int generation(long position) {
+		return (int) (position >>> OFFSET_BITS);
+	}
+	
+	/**
+	 * Byte offset in its segment of a record position.
+	 */
+	static long offset(long position) {
+		return position & ((1L << OFFSET_BITS) - 1);
+	}
+	
+	/**
+	 * Find the archived segment which ends with the given record, i.e. which was the
+	 * live journal when the record was read. Only the newest {@link #MAX_ROTATIONS}
+	 * segments are searched.
+	 * @param offset byte offset after the record
+	 * @param recordOffset byte offset of the record
+	 * @param recordHash CRC32 of the record
+	 * @return index of the segment in {@link #getArchives()}, or -1
+	 */
+	int indexOfCheckpoint(long offset, long recordOffset, long recordHash) {
+		for (int i = archives.length - 1; i >= 0 && i >= archives.length - MAX_ROTATIONS; i--) {
+			if (isCheckpointValid(archives[i], offset, recordOffset, recordHash))
+				return i;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Open a segment for sequential reading, decompressing gzip segments.
+	 * @param segment journal segment
+	 * @return stream of the uncompressed journal
+	 * @throws IOException on open errors
+	 */
+	static InputStream open(File segment) throws IOException {
+		InputStream in = new FileInputStream(segment);
+		if (!isCompressed(segment))
+			return in;
+		try {
+			return new GZIPInputStream(new BufferedInputStream(in, STREAM_BUFFER_SIZE), STREAM_BUFFER_SIZE);
+		} catch (IOException e) {
+			in.close();
+			throw e;
+		}
+	}
+	
+	static boolean isCompressed(File segment) {
+		return segment.getName().endsWith(GZIP_SUFFIX);
+	}
+	
+	/**
+	 * Check if a segment contains the given record at the given position.
+	 */
+	static boolean isCheckpointValid(File segment, long offset, long recordOffset, long recordHash) {
+		if (!isCompressed(segment))
+			return VssJournal.isCheckpointValid(segment, offset, recordOffset, recordHash);
+		if (recordOffset < 0 || recordOffset >= offset || offset - recordOffset > VssJournal.MAX_RECORD_SIZE)
+			return false;
+		InputStream in = null;
+		try {
+			in = open(segment);
+			JournalScanner.skip(in, recordOffset);
+			byte[] record = new byte[(int) (offset - recordOffset)];
+			int n = 0;
+			while (n < record.length) {
+				int r = in.read(record, n, record.length - n);
+				if (r < 0)
+					return false;
+				n += r;
+			}
+			CRC32 crc = new CRC32();
+			crc.update(record, 0, record.length);
+			return crc.getValue() == recordHash;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Rotation number of an archived segment of the given journal.
+	 * @param journalName name of the live journal, e.g. journal.txt
+	 * @param name segment name, e.g. journal.txt.1, journal.1.txt or journal.1.txt.gz
+	 * @return rotation number, or -1 if name is not a segment of the journal
+	 */
+	static int rotation(String journalName, String name) {
+		String n = name.endsWith(GZIP_SUFFIX) ? name.substring(0, name.length() - GZIP_SUFFIX.length()) : name;
+		if (n.startsWith(journalName + "."))
+			return parseRotation(n.substring(journalName.length() + 1));
+		int dot = journalName.lastIndexOf('.');
+		if (dot <= 0)
+			return -1;
+		String stem = journalName.substring(0, dot + 1);
+		String extension = journalName.substring(dot);
+		if (n.length() > stem.length() + extension.length() && n.startsWith(stem) && n.endsWith(extension))
+			return parseRotation(n.substring(stem.length(), n.length() - extension.length()));
+		return -1;
+	}
+	
+	private static int parseRotation(String s) {
+		if (s.length() == 0 || s.length() > 9)
+			return -1;
+		for (int i = 0; i < s.length(); i++) {
+			if (s.charAt(i) < '0' || s.charAt(i) > '9')
+				return -1;
+		}
+		return Integer.parseInt(s);
+	}
+	
+	private static File findLive(File dir, Pattern pattern) {
+		File[] files = dir.listFiles();
+		if (files == null)
+			return null;
+		List<File> candidates = new ArrayList<File>();
+		for (File f : files) {
+			if (f.isFile() && !isCompressed(f) && (pattern == null || pattern.matcher(f.getName()).matches())
+					&& !isArchive(f, files))
+				candidates.add(f);
+		}
+		if (candidates.size() == 1)
+			return candidates.get(0);
+		File live = null;
+		for (File f : candidates) {
+			if (!hasArchives(f, files))
+				continue;
+			if (live != null)
+				return null;
+			live = f;
+		}
+		return live;
+	}
+	
+	private static boolean isArchive(File file, File[] files) {
+		for (File f : files) {
+			if (f != file && rotation(f.getName(), file.getName()) >= 0)
+				return true;
+		}
+		return false;
+	}
+	
+	private static boolean hasArchives(File file, File[] files) {
+		for (File f : files) {
+			if (f != file && rotation(file.getName(), f.getName()) >= 0)
+				return true;
+		}
+		return false;
+	}
+	
+	private static Pattern globPattern(String glob) {
+		StringBuilder regex = new StringBuilder();
+		for (int i = 0; i < glob.length(); i++) {
+			char c = glob.charAt(i);
+			if (c == '*')
+				regex.append(".*");
+			else if (c == '?')
+				regex.append('.');
+			else
+				regex.append(Pattern.quote(String.valueOf(c)));
+		}
+		return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE);
+	}
+	
+	/**
+	 * Receives the records read after a checkpoint.
+	 */
+	interface RecordHandler {
+		
+		/**
+		 * Called before the journal is read again from the start, as the last
+		 * record read was not found anymore.
+		 * @throws IOException on errors
+		 */
+		void reset() throws IOException;
+		
+		/**
+		 * Called for every complete record.
+		 * @param scanner scanner at the record
+		 * @param position position of the record, see {@link JournalSegments#position(int, long)}
+		 * @throws IOException on errors
+		 */
+		void record(JournalScanner scanner, long position) throws IOException;
+	}
+	
+	/**
+	 * Read position in a rotated journal after the last record read. If the journal
+	 * was rotated since, reading continues in the archived segment with the last
+	 * record and the newer segments, so the records read before keep their
+	 * positions. The journal is read again from the oldest segment if the last
+	 * record is not found.
+	 */
+	static final class Checkpoint {
+		private int liveGeneration;
+		private int generation;
+		private long offset;
+		private long lastRecordOffset = -1L;
+		private long lastRecordHash;
+		
+		Checkpoint() {
+		}
+		
+		/**
+		 * Create a checkpoint, e.g. loaded from an index file.
+		 * @param liveGeneration generation of the live journal
+		 * @param generation generation of the segment of the last record
+		 * @param offset byte offset after the last record
+		 * @param lastRecordOffset byte offset of the last record, or -1
+		 * @param lastRecordHash CRC32 of the last record
+		 */
+		Checkpoint(int liveGeneration, int generation, long offset, long lastRecordOffset, long lastRecordHash) {
+			this.liveGeneration = liveGeneration;
+			this.generation = generation;
+			this.offset = offset;
+			this.lastRecordOffset = lastRecordOffset;
+			this.lastRecordHash = lastRecordHash;
+		}
+		
+		Checkpoint copy() {
+			return new Checkpoint(liveGeneration, generation, offset, lastRecordOffset, lastRecordHash);
+		}
+		
+		/**
+		 * Generation of the live journal, to find the segment of a record position.
+		 */
+		int getLiveGeneration() {
+			return liveGeneration;
+		}
+		
+		/**
+		 * Generation of the segment of the last record.
+		 */
+		int getGeneration() {
+			return generation;
+		}
+		
+		/**
+		 * Byte offset after the last record in its segment.
+		 */
+		long getOffset() {
+			return offset;
+		}
+		
+		long getLastRecordOffset() {
+			return lastRecordOffset;
+		}
+		
+		long getLastRecordHash() {
+			return lastRecordHash;
+		}
+		
+		/**
+		 * Check if the last record is the end of the live journal.
+		 * @param journalFile live journal file
+		 * @return true if no records were appended and the journal was not rotated
+		 */
+		boolean isCurrent(File journalFile) {
+			return generation == liveGeneration && journalFile.length() == offset
+					&& VssJournal.isCheckpointValid(journalFile, offset, lastRecordOffset, lastRecordHash);
+		}
+		
+		/**
+		 * Check if the live generation of this checkpoint is still the generation of
+		 * the live journal, i.e. the segment of the last record was not rotated since.
+		 * Only then the positions of the records read before find the right segments.
+		 * @param journalFile live journal file
+		 * @return true if the last record is still in the segment of its generation
+		 */
+		boolean isLive(File journalFile) {
+			if (lastRecordOffset < 0)
+				return true;
+			File segment = journalFile;
+			if (generation != liveGeneration)
+				segment = forJournal(journalFile).getArchive(liveGeneration - generation);
+			return segment != null && isCheckpointValid(segment, offset, lastRecordOffset, lastRecordHash);
+		}
+		
+		/**
+		 * Read the records after this checkpoint and move it to the last record.
+		 * @param journalFile live journal file
+		 * @param charset journal charset
+		 * @param handler record handler
+		 * @return true if the journal was read from the start
+		 * @throws IOException on read errors or errors of the handler
+		 */
+		boolean read(File journalFile, Charset charset, RecordHandler handler) throws IOException {
+			if (generation == liveGeneration
+					&& VssJournal.isCheckpointValid(journalFile, offset, lastRecordOffset, lastRecordHash)) {
+				readSegment(journalFile, liveGeneration, offset, charset, handler);
+				return false;
+			}
+			JournalSegments segments = forJournal(journalFile);
+			List<File> archives = segments.getArchives();
+			int rotated = segments.indexOfCheckpoint(offset, lastRecordOffset, lastRecordHash);
+			int first;
+			if (rotated >= 0) {
+				liveGeneration = generation + segments.getRotation(archives.get(rotated));
+				readSegment(archives.get(rotated), generation, offset, charset, handler);
+				first = rotated + 1;
+			} else {
+				handler.reset();
+				// Archives with higher rotation numbers than the maximum generation are skipped
+				liveGeneration = archives.isEmpty() ? 0 : Math.min(segments.getRotation(archives.get(0)), MAX_GENERATION);
+				generation = liveGeneration;
+				offset = 0L;
+				lastRecordOffset = -1L;
+				lastRecordHash = 0L;
+				first = 0;
+			}
+			for (int i = first; i < archives.size(); i++) {
+				int archiveGeneration = liveGeneration - segments.getRotation(archives.get(i));
+				if (archiveGeneration >= 0)
+					readSegment(archives.get(i), archiveGeneration, 0L, charset, handler);
+			}
+			if (journalFile.exists())
+				readSegment(journalFile, liveGeneration, 0L, charset, handler);
+			return rotated < 0;
+		}
+		
+		private void readSegment(File segment, int segmentGeneration, long fromOffset, Charset charset,
+				RecordHandler handler) throws IOException {
+			if (segmentGeneration > MAX_GENERATION)
+				throw new IOException("Too many rotations of " + segment);
+			if (isCompressed(segment)) {
+				InputStream in = open(segment);
+				try {
+					read(new JournalScanner(in, fromOffset, charset), segmentGeneration, handler);
+				} finally {
+					in.close();
+				}
+			} else {
+				RandomAccessFile file = new RandomAccessFile(segment, "r");
+				try {
+					read(new JournalScanner(file.getChannel(), fromOffset, charset), segmentGeneration, handler);
+				} finally {
+					file.close();
+				}
+			}
+		}
+		
+		private void read(JournalScanner scanner, int segmentGeneration, RecordHandler handler) throws IOException {
+			while (scanner.next()) {
+				handler.record(scanner, position(segmentGeneration, scanner.getRecordOffset()));
+				generation = segmentGeneration;
+				offset = scanner.getRecordEnd();
+				lastRecordOffset = scanner.getRecordOffset();
+				lastRecordHash = scanner.getRecordHash();
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,351 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Compact column store for journal entries.
+ * 
+ * Timestamps and versions are kept in primitive arrays. Users, actions, directories
+ * and file names are dictionary encoded, as a journal usually has only a few distinct
+ * users and actions and many records for the same files. Comments are mostly unique
+ * and kept as they are. {@link #get(int)} creates a new {@link VssJournalEntry} from
+ * a row, changing it does not change the store.
+ * 
+ * A store is only modified by the thread reading the journal and must not be changed
+ * after it was shared. Rows and dictionary values are only appended, so a copy to
+ * continue reading shares the arrays and dictionaries of the store and appends to
+ * them in place; the store keeps seeing only its own rows. Only one copy may take
+ * over appending, further copies of the same store copy the rows.
+ * 
+ * @author patlau
+ *
+ */
+final class JournalStore {
+
+	private static final int NO_VERSION = Integer.MIN_VALUE;
+	private static final int EMPTY_VERSION = -1;
+	private static final int INDEX_INTERVAL = 64;
+	
+	private int size;
+	private long[] timestamps;
+	private int[] versions;
+	private int[] users;
+	private int[] actions;
+	private String[] comments;
+	private int[] directories;
+	private int[] names;
+	
+	// Sparse time index: maximum timestamp of all rows up to the end of each block
+	// of INDEX_INTERVAL rows. As the journal is almost sorted by time, this finds the
+	// first row after a date with a binary search.
+	private long[] blockMaxTimestamps;
+	private long maxTimestamp = VssJournalEntry.NO_DATETIME;
+	
+	private final Dictionary userDictionary;
+	private final Dictionary actionDictionary;
+	private final Dictionary directoryDictionary;
+	private final Dictionary nameDictionary;
+	private final Dictionary versionDictionary;
+	
+	// Store currently appending to the shared arrays and dictionaries
+	private final AtomicReference<JournalStore> owner;
+	
+	JournalStore() {
+		this(16);
+	}
+	
+	private JournalStore(int capacity) {
+		timestamps = new long[capacity];
+		versions = new int[capacity];
+		users = new int[capacity];
+		actions = new int[capacity];
+		comments = new String[capacity];
+		directories = new int[capacity];
+		names = new int[capacity];
+		blockMaxTimestamps = new long[capacity / INDEX_INTERVAL + 1];
+		userDictionary = new Dictionary();
+		actionDictionary = new Dictionary();
+		directoryDictionary = new Dictionary();
+		nameDictionary = new Dictionary();
+		versionDictionary = new Dictionary();
+		owner = new AtomicReference<JournalStore>(this);
+	}
+	
+	private JournalStore(JournalStore other, int capacity) {
+		size = other.size;
+		timestamps = Arrays.copyOf(other.timestamps, capacity);
+		versions = Arrays.copyOf(other.versions, capacity);
+		users = Arrays.copyOf(other.users, capacity);
+		actions = Arrays.copyOf(other.actions, capacity);
+		comments = Arrays.copyOf(other.comments, capacity);
+		directories = Arrays.copyOf(other.directories, capacity);
+		names = Arrays.copyOf(other.names, capacity);
+		blockMaxTimestamps = Arrays.copyOf(other.blockMaxTimestamps, capacity / INDEX_INTERVAL + 1);
+		maxTimestamp = other.maxTimestamp;
+		userDictionary = new Dictionary(other.userDictionary);
+		actionDictionary = new Dictionary(other.actionDictionary);
+		directoryDictionary = new Dictionary(other.directoryDictionary);
+		nameDictionary = new Dictionary(other.nameDictionary);
+		versionDictionary = new Dictionary(other.versionDictionary);
+		owner = new AtomicReference<JournalStore>(this);
+	}
+	
+	/**
+	 * Create a store sharing the rows of another store.
+	 */
+	private JournalStore(JournalStore other) {
+		size = other.size;
+		timestamps = other.timestamps;
+		versions = other.versions;
+		users = other.users;
+		actions = other.actions;
+		comments = other.comments;
+		directories = other.directories;
+		names = other.names;
+		blockMaxTimestamps = other.blockMaxTimestamps;
+		maxTimestamp = other.maxTimestamp;
+		userDictionary = other.userDictionary;
+		actionDictionary = other.actionDictionary;
+		directoryDictionary = other.directoryDictionary;
+		nameDictionary = other.nameDictionary;
+		versionDictionary = other.versionDictionary;
+		owner = other.owner;
+	}
+	
+	/**
+	 * Copy store, so entries can be appended without changing this store. A copy
+	 * of all rows shares them with this store, unless another copy already appends.
+	 * @param rows rows to copy, null for all
+	 * @return copy of store
+	 */
+	JournalStore copy(int[] rows) {
+		if (rows == null) {
+			JournalStore shared = new JournalStore(this);
+			if (owner.compareAndSet(this, shared))
+				return shared;
+			return new JournalStore(this, Math.max(16, size + size / 8));
+		}
+		JournalStore copy = new JournalStore(Math.max(16, rows.length));
+		for (int row : rows)
+			copy.add(getDirectory(row), getName(row), getVersion(row), getUser(row), timestamps[row], getAction(row), getComment(row));
+		return copy;
+	}
+	
+	int size() {
+		return size;
+	}
+	
+	/**
+	 * Add an entry.
+	 * @return row of entry
+	 */
+	int add(String filename, String version, String user, long timestamp, String action, String comment) {
+		int p = Math.max(filename.lastIndexOf('/'), filename.lastIndexOf('\\')) + 1;
+		return add(filename.substring(0, p), filename.substring(p), version, user, timestamp, action, comment);
+	}
+	
+	private int add(String directory, String name, String version, String user, long timestamp, String action, String comment) {
+		if (owner.get() != this)
+			throw new IllegalStateException("Journal store was copied and must not be changed");
+		if (size == timestamps.length)
+			grow();
+		int row = size;
+		timestamps[row] = timestamp;
+		versions[row] = encodeVersion(version);
+		users[row] = userDictionary.id(user);
+		actions[row] = actionDictionary.id(action);
+		comments[row] = comment;
+		directories[row] = directoryDictionary.id(directory);
+		names[row] = nameDictionary.id(name);
+		if (timestamp > maxTimestamp)
+			maxTimestamp = timestamp;
+		size++;
+		if (size % INDEX_INTERVAL == 0)
+			blockMaxTimestamps[size / INDEX_INTERVAL - 1] = maxTimestamp;
+		return row;
+	}
+	
+	private void grow() {
+		int capacity = Math.max(16, timestamps.length * 2);
+		timestamps = Arrays.copyOf(timestamps, capacity);
+		versions = Arrays.copyOf(versions, capacity);
+		users = Arrays.copyOf(users, capacity);
+		actions = Arrays.copyOf(actions, capacity);
+		comments = Arrays.copyOf(comments, capacity);
+		directories = Arrays.copyOf(directories, capacity);
+		names = Arrays.copyOf(names, capacity);
+		blockMaxTimestamps = Arrays.copyOf(blockMaxTimestamps, capacity / INDEX_INTERVAL + 1);
+	}
+	
+	/**
+	 * Find the first row which may be after the given date. All rows before the
+	 * returned row are at or before the date.
+	 * @param timestamp date in milliseconds since epoch
+	 * @return row, or size if all rows are at or before the date
+	 */
+	int firstRowAfter(long timestamp) {
+		int low = 0;
+		int high = size / INDEX_INTERVAL;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (blockMaxTimestamps[mid] > timestamp)
+				high = mid;
+			else
+				low = mid + 1;
+		}
+		int row = low * INDEX_INTERVAL;
+		// Skip leading rows of the block within the date
+		while (row < size && timestamps[row] <= timestamp)
+			row++;
+		return row;
+	}
+	
+	private int encodeVersion(String version) {
+		if (version == null)
+			return NO_VERSION;
+		if (version.isEmpty())
+			return EMPTY_VERSION;
+		int value = 0;
+		for (int i = 0; i < version.length(); i++) {
+			char c = version.charAt(i);
+			if (c < '0' || c > '9' || i >= 9 || (i == 0 && c == '0' && version.length() > 1))
+				// Not a plain number, keep string in dictionary
+				return -2 - versionDictionary.id(version);
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+	
+	VssJournalEntry get(int row) {
+		VssJournalEntry entry = new VssJournalEntry();
+		entry.setFilename(getFilename(row));
+		entry.setVersion(getVersion(row));
+		entry.setUser(getUser(row));
+		entry.setTimestamp(timestamps[row]);
+		entry.setAction(getAction(row));
+		entry.setComment(comments[row]);
+		return entry;
+	}
+	
+	long getTimestamp(int row) {
+		return timestamps[row];
+	}
+	
+	String getVersion(int row) {
+		int v = versions[row];
+		if (v == NO_VERSION)
+			return null;
+		if (v == EMPTY_VERSION)
+			return "";
+		if (v < EMPTY_VERSION)
+			return versionDictionary.get(-2 - v);
+		return String.valueOf(v);
+	}
+	
+	String getUser(int row) {
+		return userDictionary.get(users[row]);
+	}
+	
+	String getAction(int row) {
+		return actionDictionary.get(actions[row]);
+	}
+	
+	String getComment(int row) {
+		return comments[row];
+	}
+	
+	String getDirectory(int row) {
+		return directoryDictionary.get(directories[row]);
+	}
+	
+	String getName(int row) {
+		return nameDictionary.get(names[row]);
+	}
+	
+	String getFilename(int row) {
+		return getDirectory(row).concat(getName(row));
+	}
+	
+	/**
+	 * Check if filename of a row matches without building the filename.
+	 */
+	boolean matches(int row, VssProjectMatcher matcher) {
+		return matcher.matches(getDirectory(row), getName(row));
+	}
+	
+	/**
+	 * Append only string dictionary. Id -1 is null. Values are read by other
+	 * threads while the owner appends.
+	 */
+	private static final class Dictionary {
+		private final Map<String, Integer> ids;
+		private volatile String[] values;
+		private int count;
+		
+		Dictionary() {
+			ids = new HashMap<String, Integer>();
+			values = new String[16];
+		}
+		
+		/**
+		 * Copy the values of a dictionary, which may be appended concurrently.
+		 */
+		Dictionary(Dictionary other) {
+			String[] v = other.values;
+			ids = new HashMap<String, Integer>();
+			values = Arrays.copyOf(v, v.length);
+			while (count < v.length && v[count] != null) {
+				ids.put(v[count], count);
+				count++;
+			}
+		}
+		
+		int id(String value) {
+			if (value == null)
+				return -1;
+			Integer id = ids.get(value);
+			if (id == null) {
+				id = count;
+				String[] v = values;
+				if (count == v.length)
+					v = Arrays.copyOf(v, count * 2);
+				v[count] = value;
+				count++;
+				// Publish the value before the row using it
+				values = v;
+				ids.put(value, id);
+			}
+			return id;
+		}
+		
+		String get(int id) {
+			return id < 0 ? null : values[id];
+		}
+	}
+	
+}
@@ -0,0 +1,213 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Watches journal files for changes with a stat loop.
+ * 
+ * Journal files are usually on a network share, where file system events are not
+ * reliable, so the length and modification date of each watched file is checked
+ * periodically. The interval starts at the minimum after a change and doubles while
+ * the files do not change, up to the maximum. It is never shorter than ten times the
+ * time of the last check, so slow shares are not flooded.
+ * 
+ * @author patlau
+ */
+final class JournalWatcher {
+
+	private static final long MIN_INTERVAL = Long.getLong(JournalWatcher.class.getName() + ".minInterval", 1000L);
+	private static final long MAX_INTERVAL = Long.getLong(JournalWatcher.class.getName() + ".maxInterval", 8000L);
+	private static final JournalWatcher INSTANCE = new JournalWatcher(MIN_INTERVAL, MAX_INTERVAL);
+	
+	private final long minInterval;
+	private final long maxInterval;
+	private final Map<Listener, File> listeners = new LinkedHashMap<Listener, File>();
+	private final Map<File, FileState> states = new HashMap<File, FileState>();
+	private long interval;
+	private Thread thread;
+	
+	/**
+	 * Receives changes of watched journal files.
+	 */
+	interface Listener {
+		
+		/**
+		 * Called when the journal file was changed.
+		 * @param journalFile journal file
+		 */
+		void journalChanged(File journalFile);
+		
+		/**
+		 * Called after every check of the journal files.
+		 * @param now current time in milliseconds
+		 */
+		void tick(long now);
+	}
+	
+	JournalWatcher(long minInterval, long maxInterval) {
+		this.minInterval = minInterval;
+		this.maxInterval = Math.max(minInterval, maxInterval);
+		this.interval = minInterval;
+	}
+	
+	static JournalWatcher getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * Watch a journal file.
+	 * @param journalFile journal file
+	 * @param listener listener
+	 */
+	synchronized void register(File journalFile, Listener listener) {
+		listeners.put(listener, journalFile.getAbsoluteFile());
+		if (thread == null) {
+			thread = new Thread(new Runnable() {
+				public void run() {
+					watch();
+				}
+			}, "VSS Journal Watcher");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+	
+	/**
+	 * Stop watching.
+	 * @param listener listener
+	 */
+	synchronized void unregister(Listener listener) {
+		listeners.remove(listener);
+		states.keySet().retainAll(listeners.values());
+	}
+	
+	/**
+	 * Check all watched files once and notify the listeners.
+	 * @return true if a file was changed
+	 */
+	boolean poll() {
+		Map<Listener, File> watched;
+		synchronized (this) {
+			watched = new LinkedHashMap<Listener, File>(listeners);
+		}
+		long start = System.currentTimeMillis();
+		List<File> changed = new ArrayList<File>();
+		for (File file : new LinkedHashSet<File>(watched.values())) {
+			FileState state = new FileState(file.length(), file.lastModified());
+			FileState previous;
+			synchronized (this) {
+				previous = states.put(file, state);
+			}
+			if (previous != null && !previous.equals(state))
+				changed.add(file);
+		}
+		long statTime = System.currentTimeMillis() - start;
+		
+		for (Map.Entry<Listener, File> e : watched.entrySet()) {
+			if (changed.contains(e.getValue()))
+				e.getKey().journalChanged(e.getValue());
+		}
+		long now = System.currentTimeMillis();
+		for (Listener listener : watched.keySet()) {
+			listener.tick(now);
+		}
+		synchronized (this) {
+			interval = changed.isEmpty() ? Math.min(interval * 2, maxInterval) : minInterval;
+			interval = Math.max(interval, statTime * 10);
+		}
+		return !changed.isEmpty();
+	}
+	
+	synchronized long getInterval() {
+		return interval;
+	}
+	
+	private void watch() {
+		boolean stopped = false;
+		try {
+			while (true) {
+				synchronized (this) {
+					if (listeners.isEmpty()) {
+						thread = null;
+						stopped = true;
+						return;
+					}
+					wait(interval);
+				}
+				poll();
+			}
+		} catch (InterruptedException e) {
+			stopped = true;
+			synchronized (this) {
+				thread = null;
+			}
+			Thread.currentThread().interrupt();
+		} finally {
+			if (!stopped) {
+				// Restart after a failed listener
+				synchronized (this) {
+					thread = null;
+					if (!listeners.isEmpty()) {
+						Map.Entry<Listener, File> e = listeners.entrySet().iterator().next();
+						register(e.getValue(), e.getKey());
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Length and modification date of a file.
+	 */
+	private static final class FileState {
+		private final long length;
+		private final long lastModified;
+		
+		FileState(long length, long lastModified) {
+			this.length = length;
+			this.lastModified = lastModified;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof FileState))
+				return false;
+			FileState other = (FileState) obj;
+			return length == other.length && lastModified == other.lastModified;
+		}
+		
+		@Override
+		public int hashCode() {
+			return (int) (length ^ lastModified);
+		}
+	}
+
+}
@@ -0,0 +1,98 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+/**
+ * Quiet period of a job, based on the arrival of journal records.
+ * 
+ * A check-in of many files is written as one journal record per file. The quiet
+ * period starts with the first new record and is extended by every further record,
+ * so the build starts only after no record arrived for the wait time. To still build
+ * during a steady stream of check-ins, the quiet period never lasts longer than the
+ * maximum wait time after the first record.
+ * 
+ * @author patlau
+ */
+final class QuietPeriod {
+
+	private long marker = -1L;
+	private long firstChange;
+	private long lastChange;
+	
+	/**
+	 * Record the last matching journal record seen. Extends the quiet period if
+	 * the marker differs from the previous one.
+	 * @param recordMarker marker of the last matching record, see {@link VssRevisionState#recordMarker(VssJournalEntry)}
+	 * @param now current time in milliseconds
+	 * @return true if the marker is new
+	 */
+	synchronized boolean recordChange(long recordMarker, long now) {
+		if (firstChange != 0 && recordMarker == marker)
+			return false;
+		marker = recordMarker;
+		if (firstChange == 0)
+			firstChange = now;
+		lastChange = now;
+		return true;
+	}
+	
+	/**
+	 * Check if changes are waiting for a build.
+	 */
+	synchronized boolean isPending() {
+		return firstChange != 0;
+	}
+	
+	/**
+	 * Check if the quiet period is over.
+	 * @param now current time in milliseconds
+	 * @param waitMillis time without new records
+	 * @param maxWaitMillis maximum time since the first new record, 0 for no maximum
+	 * @return true if changes are pending and the build can start
+	 */
+	synchronized boolean isElapsed(long now, long waitMillis, long maxWaitMillis) {
+		if (firstChange == 0)
+			return false;
+		if (now - lastChange >= waitMillis)
+			return true;
+		return maxWaitMillis > 0 && now - firstChange >= maxWaitMillis;
+	}
+	
+	/**
+	 * Milliseconds until the quiet period is over if no further record arrives.
+	 */
+	synchronized long getRemaining(long now, long waitMillis, long maxWaitMillis) {
+		long remaining = lastChange + waitMillis - now;
+		if (maxWaitMillis > 0)
+			remaining = Math.min(remaining, firstChange + maxWaitMillis - now);
+		return Math.max(0L, remaining);
+	}
+	
+	/**
+	 * Start over after a build was scheduled.
+	 */
+	synchronized void reset() {
+		firstChange = 0;
+		lastChange = 0;
+	}
+}
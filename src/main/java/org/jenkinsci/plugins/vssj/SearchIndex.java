@@ -0,0 +1,446 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Inverted index over the journal history for searching check-ins.
+ * 
+ * Records are numbered in journal order. The index maps path tokens, users and
+ * comment terms to the numbers of the records containing them. The posting lists
+ * are delta encoded variable length integers, which needs one or two bytes per
+ * record for most terms. The index is kept in memory and extended in the background
+ * with the records appended to the journal. Like the {@link JournalIndex}, it covers the archived
+ * segments of a rotated journal and is carried over on rotation; it is rebuilt if
+ * the journal was replaced.
+ * 
+ * A query is a list of words, every word must match as prefix of a term of any
+ * field. Words can be restricted to a field with "path:", "user:" or "comment:". A
+ * word is expanded to at most MAX_PREFIX_TERMS terms, the result tells if records
+ * may be missing.
+ * 
+ * @author patlau
+ */
+final class SearchIndex {
+
+	private static final int MIN_TERM_LENGTH = 2;
+	static final int MAX_PREFIX_TERMS = 10000;
+	private static final String[] FIELDS = {"path:", "user:", "comment:"};
+	private static final int FLUSH_RECORDS = 4096;
+	private static final Map<String, SearchIndex> INDEXES = new HashMap<String, SearchIndex>();
+	private static final Logger LOGGER = Logger.getLogger(SearchIndex.class.getName());
+	
+	private final File journalFile;
+	private final Locale locale;
+	
+	private final TreeMap<String, PostingList> terms = new TreeMap<String, PostingList>();
+	private long[] positions = new long[1024];
+	private int count;
+	private JournalSegments.Checkpoint checkpoint = new JournalSegments.Checkpoint();
+	private final AtomicBoolean updatePending = new AtomicBoolean();
+	private final AtomicInteger updating = new AtomicInteger();
+	private final Object updateLock = new Object();
+	
+	SearchIndex(File journalFile, Locale locale) {
+		this.journalFile = journalFile;
+		this.locale = locale;
+	}
+	
+	/**
+	 * Get the shared search index of a journal file.
+	 * @param journalFile journal file
+	 * @param locale journal locale
+	 * @return index
+	 */
+	static synchronized SearchIndex forJournal(File journalFile, Locale locale) {
+		File file = journalFile.getAbsoluteFile();
+		try {
+			file = file.getCanonicalFile();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		String key = file.getPath() + "|" + locale;
+		SearchIndex index = INDEXES.get(key);
+		if (index == null) {
+			index = new SearchIndex(file, locale);
+			INDEXES.put(key, index);
+		}
+		return index;
+	}
+	
+	/**
+	 * Split text into lower case terms of letters and digits.
+	 * @param text text
+	 * @return terms, at least two characters long
+	 */
+	static List<String> tokenize(String text) {
+		List<String> tokens = new ArrayList<String>();
+		if (text == null)
+			return tokens;
+		int start = -1;
+		for (int i = 0; i <= text.length(); i++) {
+			boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+			if (letter && start < 0) {
+				start = i;
+			} else if (!letter && start >= 0) {
+				if (i - start >= MIN_TERM_LENGTH)
+					tokens.add(text.substring(start, i).toLowerCase(Locale.ENGLISH));
+				start = -1;
+			}
+		}
+		return tokens;
+	}
+	
+	/**
+	 * Index the records appended to the journal since the last update. The terms
+	 * of the records read are added in batches, so searches are not blocked while
+	 * the journal is read.
+	 * @return number of records added
+	 * @throws IOException on read errors
+	 */
+	int update() throws IOException {
+		synchronized (updateLock) {
+			JournalSegments.Checkpoint next;
+			int before;
+			synchronized (this) {
+				next = checkpoint.copy();
+				before = count;
+			}
+			if (!journalFile.exists() || next.isCurrent(journalFile))
+				return 0;
+			Indexer indexer = new Indexer(next);
+			boolean rebuilt = next.read(journalFile, new VssJournal(locale).getCharset(), indexer);
+			synchronized (this) {
+				indexer.flush();
+				return rebuilt ? count : count - before;
+			}
+		}
+	}
+	
+	/**
+	 * Index the records appended to the journal in the background, so searches do
+	 * not wait for it. Requests while an update is waiting are merged.
+	 */
+	void updateLater() {
+		if (!updatePending.compareAndSet(false, true))
+			return;
+		updating.incrementAndGet();
+		JournalIndex.UPDATER.execute(new Runnable() {
+			public void run() {
+				updatePending.set(false);
+				try {
+					update();
+				} catch (IOException e) {
+					LOGGER.log(Level.WARNING, "Error updating search index of " + journalFile, e);
+				} finally {
+					updating.decrementAndGet();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Check if a background update was requested and has not finished yet, so the
+	 * latest records may be missing from search results.
+	 */
+	boolean isUpdating() {
+		return updating.get() > 0;
+	}
+	
+	/**
+	 * Update the index right away if the journal was rotated since the last update.
+	 * The positions found before point into the segments of the old live generation
+	 * then, so a search must be repeated after the update.
+	 * @return true if the journal was rotated
+	 * @throws IOException on read errors
+	 */
+	boolean updateIfRotated() throws IOException {
+		JournalSegments.Checkpoint current;
+		synchronized (this) {
+			current = checkpoint.copy();
+		}
+		if (!journalFile.exists() || current.isLive(journalFile))
+			return false;
+		update();
+		return true;
+	}
+	
+	/**
+	 * Number of indexed records.
+	 */
+	synchronized int size() {
+		return count;
+	}
+	
+	/**
+	 * Position of a record in the journal, see {@link JournalSegments#position(int, long)}.
+	 * @param record record number
+	 * @return position
+	 */
+	synchronized long getPosition(int record) {
+		return positions[record];
+	}
+	
+	/**
+	 * Generation of the live journal, to read the records at their positions.
+	 */
+	synchronized int getLiveGeneration() {
+		return checkpoint.getLiveGeneration();
+	}
+	
+	/**
+	 * Find the records matching all words of the query.
+	 * @param query query
+	 * @return record numbers in journal order
+	 */
+	synchronized int[] search(String query) {
+		return find(query).getRecords();
+	}
+	
+	/**
+	 * Find the records matching all words of the query. A word matching too many
+	 * terms is only expanded to the first terms, the result is then marked as
+	 * truncated.
+	 * @param query query
+	 * @return records
+	 */
+	synchronized Result find(String query) {
+		BitSet result = null;
+		boolean truncated = false;
+		for (String word : query.trim().split("\\s+")) {
+			String[] fields = FIELDS;
+			String text = word;
+			for (String field : FIELDS) {
+				if (word.toLowerCase(Locale.ENGLISH).startsWith(field)) {
+					fields = new String[] {field};
+					text = word.substring(field.length());
+				}
+			}
+			for (String token : tokenize(text)) {
+				BitSet records = new BitSet(count);
+				truncated |= findPrefix(fields, token, records);
+				if (result == null)
+					result = records;
+				else
+					result.and(records);
+			}
+		}
+		if (result == null)
+			return new Result(new int[0], false);
+		int[] records = new int[result.cardinality()];
+		int n = 0;
+		for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+			records[n++] = i;
+		}
+		return new Result(records, truncated);
+	}
+	
+	/**
+	 * Add the records of the terms starting with a prefix.
+	 * @return true if the prefix matches more than the maximum number of terms
+	 */
+	private boolean findPrefix(String[] fields, String prefix, BitSet result) {
+		int expanded = 0;
+		for (String field : fields) {
+			String from = field + prefix;
+			SortedMap<String, PostingList> matches = terms.subMap(from, from + Character.MAX_VALUE);
+			for (PostingList postings : matches.values()) {
+				// Very short prefixes match too many terms
+				if (expanded++ >= MAX_PREFIX_TERMS)
+					return true;
+				postings.addTo(result);
+			}
+		}
+		return false;
+	}
+	
+	private void add(String term, int record) {
+		PostingList postings = terms.get(term);
+		if (postings == null) {
+			postings = new PostingList();
+			terms.put(term, postings);
+		}
+		postings.add(record);
+	}
+	
+	private void reset() {
+		terms.clear();
+		positions = new long[1024];
+		count = 0;
+	}
+	
+	/**
+	 * Collects the terms of the records read and adds them to the index in
+	 * batches, together with the checkpoint after the last record added.
+	 */
+	private final class Indexer implements JournalSegments.RecordHandler {
+		private final String commentLabel = ResourceBundle.getBundle("vss-journal", locale).getString("commentLabel");
+		private final JournalSegments.Checkpoint next;
+		private final long[] pendingPositions = new long[FLUSH_RECORDS];
+		private final List<List<String>> pendingTerms = new ArrayList<List<String>>();
+		
+		Indexer(JournalSegments.Checkpoint next) {
+			this.next = next;
+		}
+		
+		public void reset() {
+			synchronized (SearchIndex.this) {
+				SearchIndex.this.reset();
+			}
+		}
+		
+		public void record(JournalScanner scanner, long position) {
+			// The checkpoint is moved after this method, so it is at the last pending record
+			if (pendingTerms.size() == FLUSH_RECORDS) {
+				synchronized (SearchIndex.this) {
+					flush();
+				}
+			}
+			List<String> recordTerms = new ArrayList<String>();
+			for (String term : tokenize(scanner.getLine(0))) {
+				recordTerms.add("path:" + term);
+			}
+			if (scanner.getLineCount() > 2 && scanner.hasToken(2, 5)) {
+				for (String term : tokenize(scanner.getToken(2, 1))) {
+					recordTerms.add("user:" + term);
+				}
+			}
+			if (scanner.getLineCount() > 4) {
+				String comment = scanner.getLine(4);
+				if (comment.startsWith(commentLabel))
+					comment = comment.substring(commentLabel.length());
+				for (String term : tokenize(comment)) {
+					recordTerms.add("comment:" + term);
+				}
+			}
+			pendingPositions[pendingTerms.size()] = position;
+			pendingTerms.add(recordTerms);
+		}
+		
+		/**
+		 * Add the pending records, called with the lock of the index.
+		 */
+		void flush() {
+			for (int i = 0; i < pendingTerms.size(); i++) {
+				int record = count;
+				if (count == positions.length)
+					positions = Arrays.copyOf(positions, count * 2);
+				positions[count++] = pendingPositions[i];
+				for (String term : pendingTerms.get(i)) {
+					add(term, record);
+				}
+			}
+			pendingTerms.clear();
+			checkpoint = next.copy();
+		}
+	}
+	
+	/**
+	 * Records found by a query.
+	 */
+	static final class Result {
+		private final int[] records;
+		private final boolean truncated;
+		
+		Result(int[] records, boolean truncated) {
+			this.records = records;
+			this.truncated = truncated;
+		}
+		
+		/**
+		 * Record numbers in journal order.
+		 */
+		int[] getRecords() {
+			return records;
+		}
+		
+		/**
+		 * Check if a word of the query matched too many terms, so records may be missing.
+		 */
+		boolean isTruncated() {
+			return truncated;
+		}
+	}
+	
+	/**
+	 * Ascending record numbers, stored as variable length encoded differences.
+	 */
+	static final class PostingList {
+		private byte[] data = new byte[4];
+		private int length;
+		private int count;
+		private int last = -1;
+		
+		void add(int record) {
+			if (record == last)
+				return;
+			int delta = record - last;
+			last = record;
+			count++;
+			if (length + 5 > data.length)
+				data = Arrays.copyOf(data, data.length * 2);
+			while ((delta & ~0x7f) != 0) {
+				data[length++] = (byte) ((delta & 0x7f) | 0x80);
+				delta >>>= 7;
+			}
+			data[length++] = (byte) delta;
+		}
+		
+		int size() {
+			return count;
+		}
+		
+		void addTo(BitSet records) {
+			int value = -1;
+			int p = 0;
+			for (int i = 0; i < count; i++) {
+				int delta = 0;
+				int shift = 0;
+				byte b;
+				do {
+					b = data[p++];
+					delta |= (b & 0x7f) << shift;
+					shift += 7;
+				} while (b < 0);
+				value += delta;
+				records.set(value);
+			}
+		}
+	}
+}
@@ -24,6 +24,7 @@ package org.jenkinsci.plugins.vssj;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import hudson.model.User;
@@ -36,7 +37,7 @@ import org.apache.commons.io.FilenameUtils;
 import org.kohsuke.stapler.export.ExportedBean;
 
 /**
- * SourceSafe Changelog entry. 
+ * SourceSafe Changelog entry, the journal records of one changeset.
  * @author patlau
  *
  */
@@ -44,27 +45,51 @@ import org.kohsuke.stapler.export.ExportedBean;
 public class VssChangeLogEntry extends ChangeLogSet.Entry {
 
 	private VssJournalEntry logEntry;
+	private List<VssJournalEntry> records;
+	private transient VssChangeLogSet changeLogSet;
 	
 	public VssChangeLogEntry(VssJournalEntry entry) {
-		this.logEntry = entry;
+		this(Collections.singletonList(entry));
+	}
+	
+	/**
+	 * Create entry for a changeset.
+	 * @param records journal records with the same user and comment, at least one
+	 */
+	public VssChangeLogEntry(List<VssJournalEntry> records) {
+		this.logEntry = records.get(0);
+		this.records = records;
 	}
 	
 	@Override
 	public String getMsg() {
-		return this.logEntry.getFilename();
+		if (records.size() == 1)
+			return this.logEntry.getFilename();
+		String comment = getComment();
+		return comment != null ? comment : records.size() + " files";
 	}
 
+	/**
+	 * Set the change log set, which resolves the author once per VSS user.
+	 */
+	void setChangeLogSet(VssChangeLogSet changeLogSet) {
+		this.changeLogSet = changeLogSet;
+		setParent(changeLogSet);
+	}
+	
 	@Override
 	public User getAuthor() {
-		return this.logEntry.getUser().isEmpty() ? User.getUnknown() : User.get(this.logEntry.getUser());
+		if (changeLogSet != null)
+			return changeLogSet.getAuthor(this.logEntry.getUser());
+		return AuthorResolver.getInstance().resolve(this.logEntry.getUser());
 	}
 
 	@Override
 	public Collection<String> getAffectedPaths() {
-		List<String> list = new ArrayList<String>();
-		String s = this.logEntry.getFilename().substring(2).replace("\\", "/");
-		//list.add(FilenameUtils.getPath(s));
-		list.add(s);
+		List<String> list = new ArrayList<String>(records.size());
+		for (VssJournalEntry entry : records) {
+			list.add(getPath(entry));
+		}
 		return list;
 	}
 
@@ -81,8 +106,7 @@ public class VssChangeLogEntry extends ChangeLogSet.Entry {
     }
     
     public String getComment() {
-    	if (this.logEntry.getComment() == null || this.logEntry.getComment().trim().isEmpty() 
-    			|| this.logEntry.getComment().equals("null"))
+    	if (this.logEntry.getComment() == null || this.logEntry.getComment().trim().isEmpty())
     		return null;
     	return this.logEntry.getComment();
     }
@@ -91,6 +115,12 @@ public class VssChangeLogEntry extends ChangeLogSet.Entry {
     	return this.logEntry.getVersion();
     }
 
+    /**
+     * Number of journal records of this changeset.
+     */
+    public int getFileCount() {
+    	return records.size();
+    }
 
 	public Object getFilenameForUrl() {
 		String s = FilenameUtils.normalize(this.logEntry.getFilename());
@@ -99,11 +129,17 @@ public class VssChangeLogEntry extends ChangeLogSet.Entry {
 	
     @Override
     public Collection<? extends AffectedFile> getAffectedFiles() {
-		List<AffectedFile> list = new ArrayList<AffectedFile>();
-		list.add(new VssFile(this.logEntry));
+		List<AffectedFile> list = new ArrayList<AffectedFile>(records.size());
+		for (VssJournalEntry entry : records) {
+			list.add(new VssFile(entry));
+		}
 		return list;
     }
     
+    private static String getPath(VssJournalEntry entry) {
+    	return entry.getFilename().substring(2).replace("\\", "/");
+    }
+    
     /**
      * SourceSafe File implementation.
      * @author patlau
@@ -120,9 +156,16 @@ public class VssChangeLogEntry extends ChangeLogSet.Entry {
 		
 		@Override
 		public String getPath() {
-			return logEntry.getFilename().substring(2).replace("\\", "/");
+			return VssChangeLogEntry.getPath(entry);
 		}
 
+		public String getVersion() {
+			return entry.getVersion();
+		}
+		
+		public String getAction() {
+			return entry.getAction();
+		}
 		
 		@Override
 		public EditType getEditType() {
@@ -22,18 +22,24 @@
  */
 package org.jenkinsci.plugins.vssj;
 
+import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
 import hudson.model.Run;
 import hudson.scm.ChangeLogParser;
 import hudson.scm.RepositoryBrowser;
-import hudson.util.Digester2;
-
-import org.apache.commons.digester.Digester;
 
 import org.xml.sax.SAXException;
 
@@ -42,20 +48,55 @@ import org.xml.sax.SAXException;
  * 
  * See https://wiki.jenkins-ci.org/display/JENKINS/Change+log
  * 
+ * The change log is read with a StAX stream reader, the factory is reused per thread.
+ * The entries are grouped to changesets, one change log entry per check-in.
+ * 
  * @author patlau
  */
 public class VssChangeLogParser extends ChangeLogParser {
 
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	/**
+	 * Value written for missing fields by older versions.
+	 */
+	private static final String LEGACY_NULL = "null";
+	
+	private static final ThreadLocal<XMLInputFactory> FACTORY = new ThreadLocal<XMLInputFactory>() {
+		@Override
+		protected XMLInputFactory initialValue() {
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+			factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+			factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+			return factory;
+		}
+	};
+	
+	private final long windowSeconds;
+	
+	public VssChangeLogParser() {
+		this(ChangesetGrouper.WINDOW_SECONDS);
+	}
+	
+	/**
+	 * @param windowSeconds maximum seconds between two records of a changeset,
+	 * negative to show every record as own change
+	 */
+	public VssChangeLogParser(long windowSeconds) {
+		this.windowSeconds = windowSeconds;
+	}
+	
 	@Override
 	@SuppressWarnings("rawtypes")
 	public VssChangeLogSet parse(Run build, RepositoryBrowser<?> browser, File changelogFile) throws IOException, SAXException {
 
 		List<VssJournalEntry> changeList = parseFile(changelogFile);
 		
+		// Also groups the per-file entries of change logs written by older versions
 		List<VssChangeLogEntry> entries = new ArrayList<VssChangeLogEntry>();
-		for (VssJournalEntry e : changeList) {
-			VssChangeLogEntry cle = new VssChangeLogEntry(e);
-			entries.add(cle);
+		for (List<VssJournalEntry> changeset : ChangesetGrouper.group(changeList, windowSeconds * 1000L)) {
+			entries.add(new VssChangeLogEntry(changeset));
 		}
 		VssChangeLogSet logSet = new VssChangeLogSet(build, browser, entries);
 		return logSet;
@@ -63,24 +104,118 @@ public class VssChangeLogParser extends ChangeLogParser {
 
 	
 	List<VssJournalEntry> parseFile(File changelogFile) throws IOException, SAXException {
+		Reader reader = new InputStreamReader(new BufferedInputStream(new FileInputStream(changelogFile), BUFFER_SIZE), "UTF-8");
+		try {
+			return parse(reader);
+		} catch (XMLStreamException e) {
+			throw new SAXException("Error parsing " + changelogFile + ": " + e.getMessage(), e);
+		} finally {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * Parse change log XML. Every change element below the root creates an entry,
+	 * or one entry per file element for a changeset. Unknown elements are ignored.
+	 * @param reader change log XML
+	 * @return journal entries
+	 * @throws XMLStreamException on invalid XML
+	 */
+	List<VssJournalEntry> parse(Reader reader) throws XMLStreamException {
 		List<VssJournalEntry> changeList = new ArrayList<VssJournalEntry>();
-		Digester digester = new Digester2();
-		digester.push(changeList);
+		List<VssJournalEntry> files = new ArrayList<VssJournalEntry>();
+		XMLStreamReader xml = FACTORY.get().createXMLStreamReader(reader);
+		try {
+			VssJournalEntry change = null;
+			VssJournalEntry file = null;
+			// Entries of the same minute share the date string
+			String lastDate = null;
+			long lastTimestamp = VssJournalEntry.NO_DATETIME;
+			while (xml.hasNext()) {
+				int event = xml.next();
+				if (event == XMLStreamConstants.END_ELEMENT) {
+					if ("file".equals(xml.getLocalName())) {
+						file = null;
+					} else if ("change".equals(xml.getLocalName()) && change != null) {
+						addChange(changeList, change, files);
+						change = null;
+					}
+				}
+				if (event != XMLStreamConstants.START_ELEMENT)
+					continue;
+				String name = xml.getLocalName();
+				if ("change".equals(name)) {
+					change = new VssJournalEntry();
+					files.clear();
+				} else if ("file".equals(name) && change != null) {
+					file = new VssJournalEntry();
+					files.add(file);
+				} else if (change != null) {
+					VssJournalEntry entry = file == null ? change : file;
+					if ("date".equals(name)) {
+						String date = xml.getElementText().trim();
+						if (!date.equals(lastDate)) {
+							lastDate = date;
+							lastTimestamp = parseDatetime(date);
+						}
+						entry.setTimestamp(lastTimestamp);
+					} else if ("filename".equals(name)) {
+						entry.setFilename(xml.getElementText().trim());
+					} else if ("version".equals(name)) {
+						entry.setVersion(getText(xml, true));
+					} else if ("user".equals(name)) {
+						entry.setUser(getText(xml, true));
+					} else if ("action".equals(name)) {
+						entry.setAction(xml.getElementText().trim());
+					} else if ("comment".equals(name)) {
+						entry.setComment(getText(xml, false));
+					}
+				}
+			}
+		} finally {
+			xml.close();
+		}
+		return changeList;
+	}
+	
+	/**
+	 * Get the text of an element, null if it is empty. Older versions wrote missing
+	 * versions and users as "null", but never a missing comment.
+	 * @param legacyNull if "null" is a missing value
+	 */
+	private static String getText(XMLStreamReader xml, boolean legacyNull) throws XMLStreamException {
+		String text = xml.getElementText().trim();
+		if (text.isEmpty() || (legacyNull && text.equals(LEGACY_NULL)))
+			return null;
+		return text;
+	}
 	
-		digester.addObjectCreate("*/change", VssJournalEntry.class);
-		digester.addBeanPropertySetter("*/change/action");
-		digester.addBeanPropertySetter("*/change/comment");
-		digester.addBeanPropertySetter("*/change/user");
-		digester.addBeanPropertySetter("*/change/filename");
-		digester.addBeanPropertySetter("*/change/version");
-		digester.addBeanPropertySetter("*/change/date", "datetimeString");
-		digester.addSetNext("*/change", "add");
+	/**
+	 * Add a parsed change, the files of a changeset inherit date, user and comment.
+	 */
+	private static void addChange(List<VssJournalEntry> changeList, VssJournalEntry change, List<VssJournalEntry> files) {
+		if (files.isEmpty()) {
+			changeList.add(change);
+			return;
+		}
+		for (VssJournalEntry file : files) {
+			if (file.getTimestamp() == VssJournalEntry.NO_DATETIME)
+				file.setTimestamp(change.getTimestamp());
+			file.setUser(change.getUser());
+			file.setComment(change.getComment());
+			changeList.add(file);
+		}
+	}
 	
-		// Do the actual parsing
-		FileReader reader = new FileReader(changelogFile);
-		digester.parse(reader);
-		reader.close();
-		return changeList;
+	private static long parseDatetime(String date) {
+		if (date.isEmpty() || date.equals(LEGACY_NULL))
+			return VssJournalEntry.NO_DATETIME;
+		try {
+			return CalendarUtils.parseDatetime(date);
+		} catch (ParseException e) {
+			e.printStackTrace();
+			return VssJournalEntry.NO_DATETIME;
+		}
 	}
 
 }
@@ -22,10 +22,13 @@
  */
 package org.jenkinsci.plugins.vssj;
 
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import hudson.model.Run;
+import hudson.model.User;
 import hudson.scm.ChangeLogSet;
 import hudson.scm.RepositoryBrowser;
 
@@ -37,11 +40,30 @@ import hudson.scm.RepositoryBrowser;
 public class VssChangeLogSet extends ChangeLogSet<VssChangeLogEntry> {
 	
     private List<VssChangeLogEntry> entries;
+    private final Map<String, User> authors = new HashMap<String, User>();
     
     protected VssChangeLogSet(Run<?, ?> build, RepositoryBrowser<?> browser, List<VssChangeLogEntry> logs) {
     	//super((AbstractBuild<?, ?>) build);
         super(build, browser);
         this.entries = logs;
+        for (VssChangeLogEntry entry : logs) {
+        	entry.setChangeLogSet(this);
+        }
+    }
+
+    /**
+     * Get the Jenkins user of a VSS user, resolved once per change log set.
+     * @param vssUser VSS login
+     * @return Jenkins user
+     */
+    synchronized User getAuthor(String vssUser) {
+    	String key = vssUser == null ? "" : vssUser;
+    	User user = authors.get(key);
+    	if (user == null) {
+    		user = AuthorResolver.getInstance().resolve(vssUser);
+    		authors.put(key, user);
+    	}
+    	return user;
     }
 
     /**
@@ -25,12 +25,28 @@ package org.jenkinsci.plugins.vssj;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import hudson.FilePath;
 import hudson.Launcher;
 import hudson.Launcher.ProcStarter;
+import hudson.Util;
 import hudson.model.TaskListener;
 
 import org.apache.commons.io.FileUtils;
@@ -42,11 +58,22 @@ import org.apache.commons.lang.StringUtils;
  */
 public class VssExe {
 	
+	private static final ThreadFactory GET_THREAD_FACTORY = new ThreadFactory() {
+		private final AtomicInteger count = new AtomicInteger();
+		
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "VSS Get " + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	};
+	
 	boolean useSubdirs;
 	String ssexe;
 	Launcher launcher;
 	FilePath workspace;
 	TaskListener listener;
+	private WorkspaceManifest manifest;
 	
 	/**
 	 * Constructor for SourceSafeExe.
@@ -70,18 +97,129 @@ public class VssExe {
 			return workspace + "";
 	}
 	
+	private FilePath getVssProjectPath(String p) {
+		if (useSubdirs)
+			return workspace.child(p.substring(2));
+		else
+			return workspace;
+	}
+	
 	/**
-	 * Clean a project directory.
+	 * Clean a project directory. Project sub directories are deleted in the
+	 * background, the workspace itself is cleaned right away.
 	 * @param project SourceSafe project
 	 * @throws IOException if clean failed
+	 * @throws InterruptedException if interrupted
 	 */
-	public void clean(String project) throws IOException {
-		File dir = new File(getVssProjectDirectory(project));
+	public void clean(String project) throws IOException, InterruptedException {
+		FilePath dir = getVssProjectPath(project);
     	if (dir.exists()) {
-    		listener.getLogger().println("Clean Directory: " + dir.getAbsolutePath());
-    	    FileUtils.cleanDirectory(dir);
+    		listener.getLogger().println("Clean Directory: " + dir.getRemote());
+    		if (useSubdirs)
+    			dir.act(new WorkspaceReaper.Clean(workspace.child(WorkspaceReaper.TOMBSTONE_DIR).getRemote(), listener));
+    		else
+    			dir.deleteContents();
     	}
     	dir.mkdirs();
+    	getManifest().remove(project);
+	}
+	
+	/**
+	 * Remove a file or project deleted, renamed or moved in SourceSafe from the
+	 * workspace.
+	 * @param project configured SourceSafe project containing the path
+	 * @param path SourceSafe path of file or project
+	 * @throws IOException if delete failed
+	 */
+	public void remove(String project, String path) throws IOException {
+		String normalizedProject = IncrementalGet.normalize(project);
+		String normalizedPath = IncrementalGet.normalize(path);
+		File projectDir = new File(getVssProjectDirectory(normalizedProject)).getCanonicalFile();
+		File file = getLocalFile(normalizedProject, normalizedPath).getCanonicalFile();
+		if (!file.getPath().startsWith(projectDir.getPath() + File.separator))
+			throw new IOException("Not within project directory: " + file);
+		if (file.exists()) {
+			listener.getLogger().println("Remove: " + file.getAbsolutePath());
+			FileUtils.forceDelete(file);
+		}
+		getManifest().remove(normalizedPath);
+	}
+	
+	/**
+	 * Get manifest of the files fetched to the workspace.
+	 * @return manifest, empty if not yet saved
+	 */
+	WorkspaceManifest getManifest() {
+		if (manifest == null)
+			manifest = WorkspaceManifest.load(getManifestFile());
+		return manifest;
+	}
+	
+	/**
+	 * Save manifest of the files fetched to the workspace.
+	 * @throws IOException on write errors
+	 */
+	void saveManifest() throws IOException {
+		getManifest().save(getManifestFile());
+	}
+	
+	private File getManifestFile() {
+		return new File(workspace + File.separator + WorkspaceManifest.FILENAME);
+	}
+	
+	private File getLocalFile(String project, String path) {
+		return new File(getVssProjectDirectory(project) + path.substring(project.length()).replace('/', File.separatorChar));
+	}
+	
+	/**
+	 * Add files of the manifest which were changed or deleted locally to a plan.
+	 * @param plan incremental get
+	 * @return number of changed files
+	 */
+	int addModifiedFiles(IncrementalGet plan) {
+		int count = 0;
+		WorkspaceManifest files = getManifest();
+		for (String path : files.getPaths()) {
+			String project = plan.getProject(path);
+			if (project != null && files.isModified(path, getLocalFile(project, IncrementalGet.normalize(path)))) {
+				plan.addFile(path, files.getVersion(path));
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Update the manifest after a get: record the versions of checked in files and
+	 * the current modification date and size of all files. Files changed by other
+	 * records, like rollbacks, deletes or renames, are removed from the manifest,
+	 * their version is not known.
+	 * @param plan plan to classify the entries
+	 * @param entries journal entries of the fetched files in journal order
+	 */
+	void updateManifest(IncrementalGet plan, Collection<VssJournalEntry> entries) {
+		WorkspaceManifest files = getManifest();
+		for (VssJournalEntry entry : entries) {
+			String path = IncrementalGet.normalize(entry.getFilename());
+			String project = plan.getProject(path);
+			if (project == null)
+				continue;
+			int version = WorkspaceManifest.parseVersion(entry.getVersion());
+			if (plan.isCheckin(entry) && version > 0) {
+				files.update(path, version, getLocalFile(project, path));
+			} else if (plan.isFileRecord(entry)) {
+				files.remove(path);
+			} else {
+				String item = plan.getNamedPath(entry);
+				if (item != null)
+					files.remove(item);
+			}
+		}
+		for (String path : files.getPaths()) {
+			String project = plan.getProject(path);
+			if (project != null)
+				files.update(path, files.getVersion(path), getLocalFile(project, IncrementalGet.normalize(path)));
+		}
 	}
 	
 	/**
@@ -91,24 +229,164 @@ public class VssExe {
 	 * @return ss.exe return value
 	 */
 	public int get(String project, String paramString) {
+		return get(project, paramString, listener.getLogger());
+	}
+	
+	/**
+	 * Get files of multiple SourceSafe projects, running up to parallelism gets at
+	 * the same time. The output of each get is written to the build log as one block
+	 * when the get has finished. The first failed get cancels the others.
+	 * 
+	 * Projects are only fetched in parallel with sub directories, otherwise all
+	 * projects are fetched to the same directory and the order of the gets matters.
+	 * 
+	 * @param projects SourceSafe projects
+	 * @param paramString SourceSafe ss.exe parameters
+	 * @param parallelism maximum number of parallel gets
+	 * @throws IOException if a get failed
+	 * @throws InterruptedException if interrupted while waiting for the gets
+	 */
+	public void get(List<String> projects, final String paramString, int parallelism) throws IOException, InterruptedException {
+		PrintStream logger = listener.getLogger();
+		if (parallelism <= 1 || projects.size() <= 1 || !useSubdirs) {
+			for (String project : projects) {
+				int result = get(project, paramString);
+				if (result != 0) {
+					logger.println("VSS Get Failed with " + result);
+				}
+			}
+			return;
+		}
+		
+		int threads = Math.min(parallelism, projects.size());
+		logger.println("Get " + projects.size() + " projects with " + threads + " parallel gets");
+		ExecutorService executor = Executors.newFixedThreadPool(threads, GET_THREAD_FACTORY);
+		CompletionService<Integer> completion = new ExecutorCompletionService<Integer>(executor);
+		Map<Future<Integer>, String> futureProjects = new HashMap<Future<Integer>, String>();
+		Map<String, ByteArrayOutputStream> outputs = new HashMap<String, ByteArrayOutputStream>();
+		try {
+			for (final String project : projects) {
+				final ByteArrayOutputStream output = new ByteArrayOutputStream();
+				outputs.put(project, output);
+				futureProjects.put(completion.submit(new Callable<Integer>() {
+					public Integer call() {
+						PrintStream out = new PrintStream(output, true);
+						try {
+							return get(project, paramString, out);
+						} finally {
+							out.close();
+						}
+					}
+				}), project);
+			}
+			for (int i = 0; i < projects.size(); i++) {
+				Future<Integer> future = completion.take();
+				String project = futureProjects.get(future);
+				logger.println("---- Get " + project + " ----");
+				outputs.get(project).writeTo(logger);
+				try {
+					int result = future.get();
+					if (result != 0) {
+						logger.println("VSS Get Failed with " + result);
+					}
+				} catch (ExecutionException e) {
+					logger.println("VSS Get Failed: " + e.getCause());
+					if (i + 1 < projects.size())
+						logger.println("Cancel remaining gets");
+					throw new IOException("VSS Get of " + project + " failed: " + e.getCause().getMessage(), e.getCause());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Check if the local directory of a project does not exist or is empty.
+	 * @param project SourceSafe project
+	 * @return true if nothing was fetched yet
+	 * @throws IOException if the directory can not be read
+	 * @throws InterruptedException if interrupted
+	 */
+	public boolean isProjectDirectoryEmpty(String project) throws IOException, InterruptedException {
+		FilePath dir = getVssProjectPath(project);
+		if (!dir.exists())
+			return true;
+		for (FilePath file : dir.list()) {
+			// The workspace itself contains the files of the plugin
+			if (useSubdirs || !isPluginFile(file.getName()))
+				return false;
+		}
+		return true;
+	}
+	
+	private static boolean isPluginFile(String name) {
+		return name.equals(WorkspaceManifest.FILENAME) || name.equals(WorkspaceReaper.TOMBSTONE_DIR);
+	}
+	
+	/**
+	 * Get only the changed files of an incremental get plan.
+	 * @param plan incremental get
+	 * @param paramString SourceSafe ss.exe parameters
+	 */
+	void get(IncrementalGet plan, String paramString) {
+		List<String> fileParams = removeRecursive(paramString);
+		WorkspaceManifest files = getManifest();
+		for (IncrementalGet.Target target : plan.getTargets()) {
+			File dir = new File(getVssProjectDirectory(target.getProject()) + target.getRelativePath().replace('/', File.separatorChar));
+			if (!dir.exists())
+				dir.mkdirs();
+			if (target.isRecursive()) {
+				runGet(dir, Collections.singletonList(target.getVssPath()), tokenize(paramString), listener.getLogger());
+			} else {
+				List<String> changed = new ArrayList<String>();
+				for (String file : target.getFiles()) {
+					if (!files.isCurrent(file, target.getVersion(file), getLocalFile(target.getProject(), file)))
+						changed.add(file);
+				}
+				if (changed.size() < target.getFiles().size())
+					listener.getLogger().println("Skip " + (target.getFiles().size() - changed.size()) + " current files in " + target.getVssPath());
+				for (List<String> batch : IncrementalGet.batch(changed, IncrementalGet.MAX_ITEMS_LENGTH)) {
+					runGet(dir, batch, fileParams, listener.getLogger());
+				}
+			}
+		}
+	}
+	
+	private static List<String> removeRecursive(String paramString) {
+		List<String> params = new ArrayList<String>();
+		for (String param : tokenize(paramString)) {
+			if (!param.equalsIgnoreCase("-R"))
+				params.add(param);
+		}
+		return params;
+	}
+	
+	private static List<String> tokenize(String paramString) {
+		return Arrays.asList(Util.tokenize(StringUtils.defaultString(paramString)));
+	}
+	
+	private int get(String project, String paramString, PrintStream logger) {
 		
 		File dir = new File(getVssProjectDirectory(project));
 		if (!dir.exists())
 			dir.mkdirs();
 		
+		return runGet(dir, Collections.singletonList(project), tokenize(paramString), logger);
+	}
+	
+	private int runGet(File dir, List<String> items, List<String> params, PrintStream logger) {
 		// %SSEXE% get $/Project -R -GWR -I-Y
-		List<String> params = new ArrayList<String>();
+		List<String> args = new ArrayList<String>();
 		
 		//SS.EXE Parameter
-		params.add("\"" + ssexe + "\"");
-		params.add("GET");
-		params.add(project);
-		params.add(paramString);
-		
-		String command = StringUtils.join(params, " ");
+		args.add(ssexe);
+		args.add("GET");
+		args.addAll(items);
+		args.addAll(params);
 		
 		try {
-			return runCommand(command, dir);
+			return runCommand(args, dir, logger);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		} catch (InterruptedException e) {
@@ -117,24 +395,54 @@ public class VssExe {
 		
 	}
 	
-    int runCommand(String command, File pwd) throws IOException, InterruptedException {
+	/**
+	 * Join arguments to a command line, quoting all but plain words and options.
+	 * @param args arguments
+	 * @return command line
+	 */
+	static String toCommandLine(List<String> args) {
+		StringBuilder line = new StringBuilder();
+		for (String arg : args) {
+			if (line.length() > 0)
+				line.append(' ');
+			if (arg.matches("[\\w-]+"))
+				line.append(arg);
+			else
+				line.append('"').append(arg).append('"');
+		}
+		return line.toString();
+	}
+	
+    private synchronized Launcher getLauncher() {
         if (launcher == null) {
             launcher = new Launcher.LocalLauncher(listener);
         }
+        return launcher;
+    }
+    
+    int runCommand(List<String> args, File pwd, PrintStream logger) throws IOException, InterruptedException {
+        Launcher commandLauncher = getLauncher();
         
         WinUtils.checkForUnmappedNetworkDrive(new File(ssexe));
 
 //        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
         ByteArrayOutputStream errorStream = new ByteArrayOutputStream();
 
-        listener.getLogger().println("Get Directory: " + pwd.getAbsolutePath());
-        listener.getLogger().println("Get Command: " + command);
+        String command = toCommandLine(args);
+        logger.println("Get Directory: " + pwd.getAbsolutePath());
+        logger.println("Get Command: " + command);
 		
-        ProcStarter procStarter = launcher.launch()
+        ProcStarter procStarter = commandLauncher.launch()
         		.pwd(pwd)
-        		.cmdAsSingleString("C:\\Windows\\System32\\CMD.EXE /Q /C " + command)
         		.stderr(errorStream)
-        		.stdout(listener);
+        		.stdout(logger);
+        if (commandLauncher.isUnix()) {
+        	// ss.exe replacement on the node, the arguments are passed as they
+        	// are and not parsed by a shell
+        	procStarter.cmds(args);
+        } else {
+        	procStarter.cmdAsSingleString("C:\\Windows\\System32\\CMD.EXE /Q /C " + command);
+        }
         
 //        Proc proc = procStarter.start();
 //        BufferedReader reader = new BufferedReader(new InputStreamReader(proc.getStdout()));
@@ -146,7 +454,7 @@ public class VssExe {
         
         int rc = procStarter.join();
         if (rc != 0) {
-            listener.getLogger().println("Error running command: " + errorStream.toString());
+            logger.println("Error running command: " + errorStream.toString());
             throw new RuntimeException(errorStream.toString());
         }
 
@@ -22,22 +22,26 @@
  */
 package org.jenkinsci.plugins.vssj;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.ResourceBundle;
-
-import org.apache.commons.io.FilenameUtils;
-import org.apache.commons.lang.StringEscapeUtils;
+import java.util.zip.CRC32;
 
 /**
  * SourceSafe journal file parser.
@@ -46,9 +50,26 @@ import org.apache.commons.lang.StringEscapeUtils;
  */
 public class VssJournal {
 
+	static final long MAX_RECORD_SIZE = 64 * 1024L;
+	private static final int RANDOM_READ_BUFFER_SIZE = 4096;
+	private static final int BATCH_READ_BUFFER_SIZE = 64 * 1024;
+
 	private Calendar lastModified;
-	private List<VssJournalEntry> entries = new ArrayList<VssJournalEntry>();
+	// The parsed entries are only kept in memory and may be shared with other journals
+	private transient JournalStore store;
+	private transient int[] rows;
 	private Locale locale;
+	private String charset;
+	private VssProjectMatcher projects;
+	private long offset;
+	private long lastRecordOffset = -1L;
+	private long lastRecordHash;
+	
+	/**
+	 * Entries of journals saved by older versions, only read for migration.
+	 */
+	@Deprecated
+	private List<VssJournalEntry> entries;
 	
 	public VssJournal() {
 		this(Locale.getDefault());
@@ -58,56 +79,168 @@ public class VssJournal {
 		this.locale = locale;
 	}
 	
+	/**
+	 * Get journal charset, defaults to the charset configured for the journal locale.
+	 */
+	public Charset getCharset() {
+		if (charset == null)
+			charset = ResourceBundle.getBundle("vss-journal", locale).getString("charset");
+		return Charset.forName(charset);
+	}
+	
+	/**
+	 * Set journal charset, e.g. "windows-1252" or "IBM850".
+	 */
+	public void setCharset(String charset) {
+		this.charset = charset;
+	}
+	
 	public void setLastModified(Date lastModified) {
 		this.lastModified.setTime(lastModified);
 	}
 	
+	/**
+	 * Get entries. The returned list is a read only view.
+	 */
 	public List<VssJournalEntry> getEntries() {
-		return entries;
+		final JournalStore entryStore = store;
+		final int[] entryRows = rows;
+		final int size = size();
+		return new AbstractList<VssJournalEntry>() {
+			@Override
+			public VssJournalEntry get(int index) {
+				if (index < 0 || index >= size)
+					throw new IndexOutOfBoundsException(String.valueOf(index));
+				return entryStore.get(entryRows == null ? index : entryRows[index]);
+			}
+			
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+	
+	/**
+	 * Entries of a journal saved by an older version.
+	 * @return entries, empty if there are none
+	 */
+	@SuppressWarnings("deprecation")
+	List<VssJournalEntry> getLegacyEntries() {
+		return entries == null ? new ArrayList<VssJournalEntry>() : entries;
+	}
+	
+	/**
+	 * Number of entries.
+	 */
+	public int size() {
+		if (store == null)
+			return 0;
+		return rows == null ? store.size() : rows.length;
 	}
 	
 	public VssJournalEntry getLastChange() {
 		return getEntries().get(getEntries().size() - 1);
 	}
 	
-	
-	// Must first call readFile(logfile)
+	/**
+	 * Write entries after the given date as change log file.
+	 * @param file change log file
+	 * @param fromDate date
+	 * @throws IOException on write errors
+	 */
 	public void writeChangeFile(File file, Calendar fromDate) throws IOException {
-		PrintWriter writer = new PrintWriter(new FileWriter(file));
+		writeChangeFile(file, fromDate, ChangesetGrouper.WINDOW_SECONDS);
+	}
+	
+	/**
+	 * Write entries after the given date as change log file.
+	 * @param file change log file
+	 * @param fromDate date
+	 * @param windowSeconds maximum seconds between two records of a changeset,
+	 * negative to write every record as own change
+	 * @throws IOException on write errors
+	 */
+	public void writeChangeFile(File file, Calendar fromDate, long windowSeconds) throws IOException {
+		writeChangeFile(new FileOutputStream(file), fromDate, windowSeconds);
+	}
+	
+	/**
+	 * Write entries after the given date as change log XML in UTF-8, grouped to
+	 * changesets. The stream is closed afterwards.
+	 * @param stream output stream
+	 * @param fromDate date
+	 * @throws IOException on write errors
+	 */
+	public void writeChangeFile(OutputStream stream, Calendar fromDate) throws IOException {
+		writeChangeFile(stream, fromDate, ChangesetGrouper.WINDOW_SECONDS);
+	}
+	
+	private void writeChangeFile(OutputStream stream, Calendar fromDate, long windowSeconds) throws IOException {
+		ChangeLogWriter writer = new ChangeLogWriter(stream);
 		try {
-			writeChangeFile(writer, fromDate);
+			writeChangeFile(writer, fromDate, windowSeconds);
 		} finally {
 			writer.close();
 		}
 	}
 	
-	public void writeChangeFile(PrintWriter writer, Calendar fromDate) {
-		writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-		writer.println("<log>");
+	/**
+	 * Write entries after the given date as change log XML. The writer is flushed
+	 * but not closed.
+	 * @param writer writer
+	 * @param fromDate date
+	 * @throws IOException on write errors
+	 */
+	public void writeChangeFile(Writer writer, Calendar fromDate) throws IOException {
+		writeChangeFile(new ChangeLogWriter(writer), fromDate, ChangesetGrouper.WINDOW_SECONDS);
+	}
+	
+	private void writeChangeFile(final ChangeLogWriter writer, Calendar fromDate, long windowSeconds) throws IOException {
+		writer.startLog();
+		ChangesetGrouper grouper = new ChangesetGrouper(windowSeconds * 1000L, new ChangesetGrouper.Sink() {
+			public void changeset(List<VssJournalEntry> records) throws IOException {
+				writer.writeChangeset(records);
+			}
+		});
 		for (VssJournalEntry entry : getNewEntries(fromDate)) {
-		    writer.println("\t<change>");
-		    writer.println(String.format("\t\t<version>%s</version>", entry.getVersion()));
-		    writer.println(String.format("\t\t<date>%s</date>", entry.getDatetimeString()));
-		    writer.println(String.format("\t\t<user>%s</user>", entry.getUser()));
-		    writer.println(String.format("\t\t<action>%s</action>", StringEscapeUtils.escapeXml(entry.getAction())));
-		    writer.println(String.format("\t\t<filename>%s</filename>", entry.getFilename()));
-		    if (entry.getComment() != null && !entry.getComment().isEmpty())
-		    	writer.println(String.format("\t\t<comment>%s</comment>", StringEscapeUtils.escapeXml(entry.getComment())));
-		    writer.println("\t</change>");
-		}
-		writer.println("</log>");
+			grouper.add(entry);
+		}
+		grouper.flush();
+		writer.endLog();
 	}
 
-
+	/**
+	 * Get entries after the given date. Uses the time index of the journal to find
+	 * the first new entry; if all following entries are newer, the result is a view
+	 * on the journal entries.
+	 * @param fromDate date
+	 * @return entries after date
+	 */
 	public List<VssJournalEntry> getNewEntries(Calendar fromDate) {
+		if (store == null)
+			return new ArrayList<VssJournalEntry>();
+		long from = fromDate.getTimeInMillis();
+		int firstRow = store.firstRowAfter(from);
+		int start = firstRow;
+		if (rows != null) {
+			start = Arrays.binarySearch(rows, firstRow);
+			if (start < 0)
+				start = -start - 1;
+		}
+		int size = size();
+		int i = start;
+		while (i < size && store.getTimestamp(rows == null ? i : rows[i]) > from)
+			i++;
+		if (i == size)
+			return getEntries().subList(start, size);
+		
+		// Entries are not in chronological order
 		List<VssJournalEntry> newEntries = new ArrayList<VssJournalEntry>();
-		for (VssJournalEntry e : getEntries()) {
-			
-			//System.out.println(e.getDatetimeString() + " - " + SimpleDateFormat.getDateTimeInstance().format(lastModified.getTime()) + " => " + (e.getDatetime().before(lastModified)));
-			//System.out.println(e.getDatetime().getTime().getTime() + " - " + lastModified.getTime().getTime() + " => " + (e.getDatetime().getTime().after(lastModified.getTime())));
-			
-			if (e.getDatetime().after(fromDate)) {
-				newEntries.add(e);
+		for (i = start; i < size; i++) {
+			int row = rows == null ? i : rows[i];
+			if (store.getTimestamp(row) > from) {
+				newEntries.add(store.get(row));
 			}
 		}
 		return newEntries;
@@ -121,88 +254,358 @@ public class VssJournal {
 	 * @return true if filename is in project, otherwise false
 	 */
 	protected boolean isFilenameInProject(String filename, String[] projects) {
-		if (projects == null)
-			return true;
-		for (String project : projects) {
-			String fn = FilenameUtils.normalize(filename, true);
-			String proj = FilenameUtils.normalize(project, true);
-			if (fn.trim().startsWith(proj.trim()))
-				return true;
-		}
-		return false;
+		return VssProjectMatcher.compile(projects).matches(filename);
 	}
 
 
 	public void readJournal(File journalFile) {
-		readJournal(journalFile, null);
+		readJournal(journalFile, VssProjectMatcher.ALL);
 	}
 	
 	public VssJournal readJournal(File journalFile, String[] projects) {
+		return readJournal(journalFile, VssProjectMatcher.compile(projects));
+	}
+	
+	/**
+	 * Read journal file, starting with the archived segments of a rotated journal
+	 * (see {@link JournalSegments}).
+	 * @param journalFile journal file
+	 * @param projects project matcher
+	 * @return this journal
+	 */
+	public VssJournal readJournal(File journalFile, VssProjectMatcher projects) {
+		store = new JournalStore();
+		rows = null;
+		this.projects = projects;
+		offset = 0L;
+		lastRecordOffset = -1L;
+		lastRecordHash = 0L;
+		for (File archive : JournalSegments.forJournal(journalFile).getArchives()) {
+			readSegment(archive, projects, 0L);
+		}
+		return readRecords(journalFile, projects, 0L);
+	}
+	
+	/**
+	 * Read journal file, continuing after the last record of a previous read if the
+	 * previous journal is still a prefix of the file. If the journal was rotated
+	 * since, the rest of the archived segment with the last record and any newer
+	 * segments are read before the new journal file, so older segments are not read
+	 * again. Falls back to a full read if the last record is not found, or the
+	 * project filter changed.
+	 * @param journalFile journal file
+	 * @param projects project matcher
+	 * @param previous journal read before, may be null
+	 * @return this journal
+	 */
+	public VssJournal readJournal(File journalFile, VssProjectMatcher projects, VssJournal previous) {
+		if (previous == null || !previous.isCompatible(projects, locale, getCharset().name()))
+			return readJournal(journalFile, projects);
+		if (isCheckpointValid(journalFile, previous.offset, previous.lastRecordOffset, previous.lastRecordHash)) {
+			continueFrom(previous, projects);
+			return readRecords(journalFile, projects, offset);
+		}
+		JournalSegments segments = JournalSegments.forJournal(journalFile);
+		int rotated = segments.indexOfCheckpoint(previous.offset, previous.lastRecordOffset, previous.lastRecordHash);
+		if (rotated < 0)
+			return readJournal(journalFile, projects);
+		continueFrom(previous, projects);
+		List<File> archives = segments.getArchives();
+		readSegment(archives.get(rotated), projects, offset);
+		for (int i = rotated + 1; i < archives.size(); i++) {
+			readSegment(archives.get(i), projects, 0L);
+		}
+		return readRecords(journalFile, projects, 0L);
+	}
+	
+	private void continueFrom(VssJournal previous, VssProjectMatcher projects) {
+		store = previous.store == null ? new JournalStore() : previous.store.copy(previous.rows);
+		rows = null;
+		this.projects = projects;
+		offset = previous.offset;
+		lastRecordOffset = previous.lastRecordOffset;
+		lastRecordHash = previous.lastRecordHash;
+	}
+	
+	/**
+	 * Create a journal containing only the entries of the given projects. The
+	 * entries are shared with this journal.
+	 * @param filterProjects project matcher
+	 * @return filtered journal
+	 */
+	public VssJournal filter(VssProjectMatcher filterProjects) {
+		VssJournal journal = new VssJournal(locale);
+		journal.charset = charset;
+		journal.projects = filterProjects;
+		journal.lastModified = lastModified;
+		journal.offset = offset;
+		journal.lastRecordOffset = lastRecordOffset;
+		journal.lastRecordHash = lastRecordHash;
+		journal.store = store;
+		int[] filtered = new int[size()];
+		int n = 0;
+		for (int i = 0; i < filtered.length; i++) {
+			int row = rows == null ? i : rows[i];
+			if (store.matches(row, filterProjects))
+				filtered[n++] = row;
+		}
+		journal.rows = Arrays.copyOf(filtered, n);
+		return journal;
+	}
+	
+	/**
+	 * Get date of the last entry of the given projects.
+	 * @param filterProjects project matcher
+	 * @return milliseconds since epoch, or VssJournalEntry.NO_DATETIME if there is none
+	 */
+	public long getLastTimestamp(VssProjectMatcher filterProjects) {
+		int i = lastIndexOf(filterProjects);
+		return i < 0 ? VssJournalEntry.NO_DATETIME : store.getTimestamp(rows == null ? i : rows[i]);
+	}
+	
+	/**
+	 * Get index of the last entry of the given projects.
+	 * @param filterProjects project matcher
+	 * @return entry index, or -1 if there is none
+	 */
+	public int lastIndexOf(VssProjectMatcher filterProjects) {
+		for (int i = size() - 1; i >= 0; i--) {
+			int row = rows == null ? i : rows[i];
+			if (store.matches(row, filterProjects))
+				return i;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Check if an entry of the given projects exists at or after the given index.
+	 * @param filterProjects project matcher
+	 * @param fromIndex first entry index to check
+	 * @return true if there is a matching entry
+	 */
+	public boolean containsMatch(VssProjectMatcher filterProjects, int fromIndex) {
+		for (int i = Math.max(fromIndex, 0); i < size(); i++) {
+			int row = rows == null ? i : rows[i];
+			if (store.matches(row, filterProjects))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Byte offset after the last complete record read.
+	 */
+	public long getOffset() {
+		return offset;
+	}
+	
+	/**
+	 * Byte offset of the last complete record read.
+	 */
+	public long getLastRecordOffset() {
+		return lastRecordOffset;
+	}
+	
+	/**
+	 * CRC32 of the last complete record read.
+	 */
+	public long getLastRecordHash() {
+		return lastRecordHash;
+	}
+	
+	boolean canContinue(File journalFile, VssProjectMatcher otherProjects, Locale otherLocale, String otherCharset) {
+		return isCompatible(otherProjects, otherLocale, otherCharset)
+				&& isCheckpointValid(journalFile, offset, lastRecordOffset, lastRecordHash);
+	}
+	
+	private boolean isCompatible(VssProjectMatcher otherProjects, Locale otherLocale, String otherCharset) {
+		if (projects == null || !projects.equals(otherProjects) || locale == null || !locale.equals(otherLocale))
+			return false;
+		return getCharset().name().equals(otherCharset);
+	}
+	
+	/**
+	 * Check if the journal file still contains the given record at the given position.
+	 * @param journalFile journal file
+	 * @param offset byte offset after the record
+	 * @param recordOffset byte offset of the record
+	 * @param recordHash CRC32 of the record
+	 * @return true if the file was only appended since the record was read
+	 */
+	public static boolean isCheckpointValid(File journalFile, long offset, long recordOffset, long recordHash) {
+		if (recordOffset < 0 || recordOffset >= offset || offset - recordOffset > MAX_RECORD_SIZE)
+			return false;
+		if (!journalFile.exists() || journalFile.length() < offset)
+			return false;
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(journalFile, "r");
+			return recordHash(file, recordOffset, offset) == recordHash;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if (file != null) {
+				try {
+					file.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Read the journal records at the given byte offsets, e.g. found with a
+	 * {@link JournalIndex}. Offsets which are not the start of a record are skipped.
+	 * The records are read in the order of their offsets with one scanner, so
+	 * records close to each other are read with one read of the file. This journal
+	 * holds the entries in the order of their offsets.
+	 * @param journalFile journal file
+	 * @param recordOffsets byte offsets of records
+	 * @return entries in the order of the given offsets
+	 */
+	public List<VssJournalEntry> readEntries(File journalFile, long[] recordOffsets) {
+		return readEntries(journalFile, recordOffsets, 0);
+	}
+	
+	/**
+	 * Read the journal records at the given positions in a rotated journal, see
+	 * {@link JournalSegments#position(int, long)}. The records of each segment are
+	 * read in the order of their offsets, records of archived segments which were
+	 * deleted since are skipped.
+	 * @param journalFile live journal file
+	 * @param recordPositions positions of records
+	 * @param liveGeneration generation of the live journal file
+	 * @return entries in the order of the given positions
+	 */
+	public List<VssJournalEntry> readEntries(File journalFile, long[] recordPositions, int liveGeneration) {
+		store = new JournalStore();
+		rows = null;
+		long[] sorted = recordPositions.clone();
+		Arrays.sort(sorted);
+		Map<Long, Integer> found = new HashMap<Long, Integer>();
+		RecordDecoder decoder = new RecordDecoder();
+		JournalSegments segments = null;
+		try {
+			int start = 0;
+			while (start < sorted.length) {
+				int generation = JournalSegments.generation(sorted[start]);
+				int end = start + 1;
+				while (end < sorted.length && JournalSegments.generation(sorted[end]) == generation) {
+					end++;
+				}
+				File segment = journalFile;
+				if (generation != liveGeneration) {
+					if (segments == null)
+						segments = JournalSegments.forJournal(journalFile);
+					segment = generation < liveGeneration ? segments.getArchive(liveGeneration - generation) : null;
+				}
+				if (segment != null && JournalSegments.isCompressed(segment))
+					readCompressed(segment, sorted, start, end, found, decoder);
+				else if (segment != null)
+					readAt(segment, sorted, start, end, found, decoder);
+				start = end;
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		List<VssJournalEntry> entries = new ArrayList<VssJournalEntry>(found.size());
+		for (long recordPosition : recordPositions) {
+			Integer row = found.get(recordPosition);
+			if (row != null)
+				entries.add(store.get(row));
+		}
+		return entries;
+	}
+	
+	/**
+	 * Read the records of an uncompressed segment at the sorted positions from start
+	 * to end, seeking to each record.
+	 */
+	private void readAt(File segment, long[] sorted, int start, int end, Map<Long, Integer> found,
+			RecordDecoder decoder) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(segment, "r");
+		try {
+			JournalScanner scanner = null;
+			for (int i = start; i < end; i++) {
+				if (i > start && sorted[i] == sorted[i - 1])
+					continue;
+				long recordOffset = JournalSegments.offset(sorted[i]);
+				if (scanner == null)
+					scanner = new JournalScanner(file.getChannel(), recordOffset, getCharset(),
+							end - start > 1 ? BATCH_READ_BUFFER_SIZE : RANDOM_READ_BUFFER_SIZE);
+				else
+					scanner.seek(recordOffset);
+				if (scanner.next() && scanner.getRecordOffset() == recordOffset) {
+					found.put(sorted[i], store.size());
+					decoder.add(scanner);
+				}
+			}
+		} finally {
+			file.close();
+		}
+	}
+	
+	/**
+	 * Read the records of a compressed segment at the sorted positions from start to
+	 * end, which can only be read sequentially.
+	 */
+	private void readCompressed(File segment, long[] sorted, int start, int end, Map<Long, Integer> found,
+			RecordDecoder decoder) throws IOException {
+		InputStream in = JournalSegments.open(segment);
+		try {
+			JournalScanner scanner = new JournalScanner(in, JournalSegments.offset(sorted[start]), getCharset());
+			boolean more = scanner.next();
+			for (int i = start; i < end && more; i++) {
+				if (i > start && sorted[i] == sorted[i - 1])
+					continue;
+				long recordOffset = JournalSegments.offset(sorted[i]);
+				while (more && scanner.getRecordOffset() < recordOffset) {
+					more = scanner.next();
+				}
+				if (more && scanner.getRecordOffset() == recordOffset) {
+					found.put(sorted[i], store.size());
+					decoder.add(scanner);
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+	
+	private VssJournal readRecords(File journalFile, VssProjectMatcher projects, long fromOffset) {
 		
 		lastModified = Calendar.getInstance();
 		lastModified.setTime(new Date(journalFile.lastModified()));
 		
-		ResourceBundle vssJournalResourceBundle = ResourceBundle.getBundle("vss-journal", locale);
-		
-		entries.clear();
-		
-		BufferedReader reader = null;
+		RecordDecoder decoder = new RecordDecoder();
+		RandomAccessFile file = null;
 		
 		try {
-			reader = new BufferedReader(new FileReader(journalFile));
-			String line = reader.readLine();
-			while (line != null) {
-
-				VssJournalEntry entry = new VssJournalEntry();
-				
-				while (line != null && !line.isEmpty()) {
-					
-					if (entry.getFilename() == null) {
-						entry.setFilename(line);
-					} else if (entry.getVersion() == null) {
-						String[] substrings = line.split("\\s+");
-						if (substrings.length >= 2) {
-							entry.setVersion(substrings[1]);
-						} else {
-							entry.setVersion("");
-						}
-					} else if (entry.getUser() == null) {
-						String[] substrings = line.split("\\s+");
-						if (substrings.length >= 6) {
-							entry.setUser(substrings[1].toLowerCase());
-							Calendar cal = CalendarUtils.getDatetime(substrings[3], vssJournalResourceBundle.getString("dateFormat"), substrings[5], vssJournalResourceBundle.getString("timeFormat"));
-							entry.setDatetime(cal);
-						} else {
-							entry.setUser("");
-						}
-					} else if (entry.getAction() == null) {
-						entry.setAction(line);
-					} else if (entry.getComment() == null) {
-						if (line.startsWith(vssJournalResourceBundle.getString("commentLabel"))) {
-							entry.setComment(line.substring(11).trim());
-						} else {
-							entry.setComment(line.trim());
-						}
-					}
-					
-					line = reader.readLine();
-				}
+			file = new RandomAccessFile(journalFile, "r");
+			JournalScanner scanner = new JournalScanner(file.getChannel(), fromOffset, getCharset());
+			long recordOffset = -1L;
+			while (scanner.next()) {
 				
-				if (entry.getFilename() != null && isFilenameInProject(entry.getFilename(), projects)) {
-					entries.add(entry);
-				}
+				recordOffset = scanner.getRecordOffset();
+				offset = scanner.getRecordEnd();
 				
-				if (line != null)
-					line = reader.readLine();
+				// Only decode records which are in one of the projects
+				if (scanner.matchesFilename(projects))
+					decoder.add(scanner);
+			}
+			if (recordOffset >= 0) {
+				lastRecordOffset = recordOffset;
+				lastRecordHash = recordHash(file, lastRecordOffset, offset);
 			}
 		} catch (FileNotFoundException e) {
 			throw new RuntimeException(e);
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		} finally {
-			if (reader != null) {
+			if (file != null) {
 				try {
-					reader.close();
+					file.close();
 				} catch (IOException e) {
 					e.printStackTrace();
 				}
@@ -211,4 +614,86 @@ public class VssJournal {
 		return this;
 	}
 	
+	/**
+	 * Read an archived journal segment sequentially.
+	 */
+	private void readSegment(File segment, VssProjectMatcher projects, long fromOffset) {
+		RecordDecoder decoder = new RecordDecoder();
+		InputStream in = null;
+		try {
+			in = JournalSegments.open(segment);
+			JournalScanner scanner = new JournalScanner(in, fromOffset, getCharset());
+			while (scanner.next()) {
+				offset = scanner.getRecordEnd();
+				lastRecordOffset = scanner.getRecordOffset();
+				lastRecordHash = scanner.getRecordHash();
+				if (scanner.matchesFilename(projects))
+					decoder.add(scanner);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+	
+	private static long recordHash(RandomAccessFile file, long from, long to) throws IOException {
+		byte[] record = new byte[(int) (to - from)];
+		file.seek(from);
+		file.readFully(record);
+		CRC32 crc = new CRC32();
+		crc.update(record, 0, record.length);
+		return crc.getValue();
+	}
+	
+	/**
+	 * Decodes the current record of a scanner and adds it to the store.
+	 */
+	private final class RecordDecoder {
+		private final JournalDateParser dateParser = JournalDateParser.forLocale(locale);
+		private final String commentLabel = ResourceBundle.getBundle("vss-journal", locale).getString("commentLabel");
+		
+		void add(JournalScanner scanner) {
+			String filename = scanner.getLine(0);
+			String version = null;
+			String user = null;
+			long timestamp = VssJournalEntry.NO_DATETIME;
+			String action = null;
+			String comment = null;
+			int lines = scanner.getLineCount();
+			if (lines > 1) {
+				version = scanner.getToken(1, 1);
+				if (version == null)
+					version = "";
+			}
+			if (lines > 2) {
+				if (scanner.hasToken(2, 5)) {
+					user = scanner.getToken(2, 1).toLowerCase();
+					timestamp = scanner.getDatetime(2, 3, 5, dateParser);
+				} else {
+					user = "";
+				}
+			}
+			if (lines > 3) {
+				action = scanner.getLine(3);
+			}
+			if (lines > 4) {
+				String line = scanner.getLine(4);
+				if (line.startsWith(commentLabel)) {
+					comment = line.substring(commentLabel.length()).trim();
+				} else {
+					comment = line.trim();
+				}
+			}
+			
+			store.add(filename, version, user, timestamp, action, comment);
+		}
+	}
+	
 }
@@ -0,0 +1,220 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Process wide cache of parsed journal files.
+ * 
+ * Many jobs usually monitor the same journal file, so the unfiltered journal is
+ * parsed once and shared. Each job applies its project filter on the shared snapshot.
+ * Snapshots are validated by file size and last modified date, and updated
+ * incrementally if the file was only appended. The cache is bounded by the total
+ * number of journal entries and evicts the least recently used snapshot. A journal
+ * exceeding the bound alone is not cached and parsed again on every use.
+ * 
+ * @author patlau
+ *
+ */
+public final class VssJournalCache {
+
+	private static final Logger LOGGER = Logger.getLogger(VssJournalCache.class.getName());
+	
+	/**
+	 * Maximum number of journal entries held by all cached snapshots.
+	 */
+	public static final int MAX_ENTRIES = Integer.getInteger(VssJournalCache.class.getName() + ".maxEntries", 2000000);
+	
+	private static final VssJournalCache INSTANCE = new VssJournalCache(MAX_ENTRIES);
+	
+	private final int maxEntries;
+	private final LinkedHashMap<String, Snapshot> snapshots = new LinkedHashMap<String, Snapshot>(16, 0.75f, true);
+	private final Map<String, FutureTask<Snapshot>> loading = new HashMap<String, FutureTask<Snapshot>>();
+	private int size;
+	
+	VssJournalCache(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+	
+	/**
+	 * Get the cache instance.
+	 */
+	public static VssJournalCache getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * Get parsed journal file with all entries. If the file is currently loaded by
+	 * another thread, waits for that thread instead of parsing the file again.
+	 * The returned journal is shared and must not be modified.
+	 * @param journalFile journal file
+	 * @param locale journal locale
+	 * @return parsed journal
+	 */
+	public VssJournal getJournal(File journalFile, final Locale locale) {
+		final File file = canonicalFile(journalFile);
+		final String key = file.getPath() + "|" + locale;
+		Snapshot cached;
+		synchronized (this) {
+			cached = snapshots.get(key);
+		}
+		// The file is checked outside the lock, so a slow file system does not block
+		// the jobs using other journals
+		if (cached != null && cached.isValid(file))
+			return cached.journal;
+		final Snapshot previous;
+		FutureTask<Snapshot> task;
+		boolean owner = false;
+		synchronized (this) {
+			Snapshot snapshot = snapshots.get(key);
+			if (snapshot != cached && snapshot != null) {
+				// Loaded by another thread after the check
+				return snapshot.journal;
+			}
+			previous = snapshot;
+			task = loading.get(key);
+			if (task == null) {
+				task = new FutureTask<Snapshot>(new Callable<Snapshot>() {
+					public Snapshot call() {
+						return load(file, locale, previous);
+					}
+				});
+				loading.put(key, task);
+				owner = true;
+			}
+		}
+		if (owner) {
+			task.run();
+		}
+		try {
+			Snapshot snapshot = task.get();
+			if (owner)
+				put(key, snapshot);
+			return snapshot.journal;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			if (owner) {
+				synchronized (this) {
+					loading.remove(key);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Remove all cached snapshots.
+	 */
+	public synchronized void clear() {
+		snapshots.clear();
+		size = 0;
+	}
+	
+	/**
+	 * Number of journal entries held by the cache.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+	
+	private Snapshot load(File file, Locale locale, Snapshot previous) {
+		// Size and date must be taken before reading, so a concurrent append
+		// invalidates the snapshot
+		long length = file.length();
+		long lastModified = file.lastModified();
+		VssJournal journal = new VssJournal(locale);
+		journal.readJournal(file, VssProjectMatcher.ALL, previous == null ? null : previous.journal);
+		LOGGER.log(Level.FINE, "Loaded journal {0} with {1} entries", new Object[] {file, journal.size()});
+		return new Snapshot(journal, length, lastModified);
+	}
+	
+	private synchronized void put(String key, Snapshot snapshot) {
+		Snapshot old = snapshots.remove(key);
+		if (old != null)
+			size -= old.size();
+		if (snapshot.size() > maxEntries) {
+			LOGGER.log(Level.WARNING, "Journal {0} with {1} entries exceeds the cache limit of {2} entries and is not cached",
+					new Object[] {key, snapshot.size(), maxEntries});
+			return;
+		}
+		snapshots.put(key, snapshot);
+		size += snapshot.size();
+		Iterator<Snapshot> it = snapshots.values().iterator();
+		while (size > maxEntries && it.hasNext()) {
+			Snapshot eldest = it.next();
+			if (eldest == snapshot)
+				break;
+			size -= eldest.size();
+			it.remove();
+		}
+	}
+	
+	private static File canonicalFile(File file) {
+		try {
+			return file.getCanonicalFile();
+		} catch (IOException e) {
+			return file.getAbsoluteFile();
+		}
+	}
+	
+	/**
+	 * Parsed journal with the file state it was read from.
+	 */
+	private static final class Snapshot {
+		private final VssJournal journal;
+		private final long length;
+		private final long lastModified;
+		
+		Snapshot(VssJournal journal, long length, long lastModified) {
+			this.journal = journal;
+			this.length = length;
+			this.lastModified = lastModified;
+		}
+		
+		boolean isValid(File file) {
+			return file.length() == length && file.lastModified() == lastModified;
+		}
+		
+		int size() {
+			return journal.size();
+		}
+	}
+	
+}
@@ -22,24 +22,36 @@
  */
 package org.jenkinsci.plugins.vssj;
 
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Calendar;
 
+import org.apache.commons.lang.StringUtils;
+
 /**
  * SourceSafe Log file entry.
  * @author patlau
  *
  */
 public class VssJournalEntry {
+	
+	/**
+	 * Timestamp of entries without valid date.
+	 */
+	public static final long NO_DATETIME = Long.MIN_VALUE;
+	
 	private String filename;
 	private String version;
 	private String user;
-	private Calendar datetime;
+	private long datetime = NO_DATETIME;
 	private String action;
 	private String comment;
 	
+	/**
+	 * Date of entries saved by older versions, see {@link VssRevisionState#addAliases()}.
+	 */
+	@Deprecated
+	private Calendar legacyDatetime;
+	
 	public String getAction() {
 		return action;
 	}
@@ -65,10 +77,25 @@ public class VssJournalEntry {
 		this.user = user;
 	}
 	public Calendar getDatetime() {
-		return datetime;
+		long timestamp = getTimestamp();
+		if (timestamp == NO_DATETIME)
+			return null;
+		Calendar cal = Calendar.getInstance();
+		cal.setTimeInMillis(timestamp);
+		return cal;
 	}
 	public void setDatetime(Calendar changed) {
-		this.datetime = changed;
+		setTimestamp(changed == null ? NO_DATETIME : changed.getTimeInMillis());
+	}
+	/**
+	 * Get date of entry in milliseconds since epoch.
+	 * @return timestamp or NO_DATETIME
+	 */
+	public long getTimestamp() {
+		return datetime;
+	}
+	public void setTimestamp(long timestamp) {
+		this.datetime = timestamp;
 	}
 	public String getComment() {
 		return comment;
@@ -78,17 +105,15 @@ public class VssJournalEntry {
 	}
 	
 	public String getDatetimeString() {
-		if (datetime == null)
+		long timestamp = getTimestamp();
+		if (timestamp == NO_DATETIME)
 			return "";
-		return DateFormat.getDateTimeInstance().format(datetime.getTime());
+		return CalendarUtils.formatDatetime(timestamp);
 	}
 	
 	public void setDatetimeString(String s) {
-		Calendar cal = Calendar.getInstance();
-		SimpleDateFormat sdf = (SimpleDateFormat) DateFormat.getDateTimeInstance();
 		try {
-			cal.setTime(sdf.parse(s));
-			datetime = cal;
+			setTimestamp(CalendarUtils.parseDatetime(s));
 		} catch (ParseException e) {
 			e.printStackTrace();
 		} 
@@ -97,12 +122,23 @@ public class VssJournalEntry {
 	@Override
 	public String toString() {
 		return 
-			(filename == null ? "" : filename) + " - " +
-			(version == null ? "" : version) + " - " +
-			(user == null ? "" : user) + " - " +
-			(datetime == null ? "" : getDatetimeString()) + " - " +
-			(action == null ? "" : action) + " - " +
-			(comment == null ? "" : comment);
+			StringUtils.defaultString(getFilename()) + " - " +
+			StringUtils.defaultString(getVersion()) + " - " +
+			StringUtils.defaultString(getUser()) + " - " +
+			getDatetimeString() + " - " +
+			StringUtils.defaultString(getAction()) + " - " +
+			StringUtils.defaultString(getComment());
+	}
+	
+	/**
+	 * Convert the date of entries saved by older versions.
+	 */
+	protected Object readResolve() {
+		if (legacyDatetime != null) {
+			datetime = legacyDatetime.getTimeInMillis();
+			legacyDatetime = null;
+		}
+		return this;
 	}
 	
 }
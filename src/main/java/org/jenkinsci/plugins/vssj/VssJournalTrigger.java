@@ -0,0 +1,194 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import java.io.File;
+
+import hudson.Extension;
+import hudson.model.AbstractProject;
+import hudson.model.Cause;
+import hudson.model.Item;
+import hudson.scm.SCM;
+import hudson.triggers.Trigger;
+import hudson.triggers.TriggerDescriptor;
+
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * Build trigger which watches the VSS journal file of the job and schedules a
+ * build as soon as a record of the job's VSS projects was appended, instead of
+ * waiting for the next SCM poll.
+ * 
+ * The build is scheduled after the quiet period of the SCM, so a check-in of many
+ * files starts only one build.
+ * 
+ * @author patlau
+ */
+public class VssJournalTrigger extends Trigger<AbstractProject<?, ?>> implements JournalWatcher.Listener {
+
+	private transient int journalRows = -1;
+	private transient File watchedFile;
+	
+	@DataBoundConstructor
+	public VssJournalTrigger() {
+		super();
+	}
+	
+	@Override
+	public void start(AbstractProject<?, ?> project, boolean newInstance) {
+		super.start(project, newInstance);
+		VssSCM scm = getScm();
+		if (scm != null && scm.getVssJournalFile() != null && scm.getVssJournalFile().length() > 0) {
+			watch(scm.resolveJournalFile());
+		}
+	}
+	
+	@Override
+	public void stop() {
+		JournalWatcher.getInstance().unregister(this);
+		synchronized (this) {
+			watchedFile = null;
+		}
+		super.stop();
+	}
+	
+	/**
+	 * Check the appended journal records for changes of the job's projects. The
+	 * journal is resolved again, the watched file may not be the live journal
+	 * anymore.
+	 */
+	public void journalChanged(File journalFile) {
+		VssSCM scm = getScm();
+		if (scm != null)
+			checkJournal(scm, scm.resolveJournalFile());
+	}
+	
+	private void checkJournal(VssSCM scm, File journalFile) {
+		if (!journalFile.exists())
+			return;
+		VssJournal journal = VssJournalCache.getInstance().getJournal(journalFile, scm.getLocale());
+		synchronized (this) {
+			int fromIndex = journal.size() < journalRows ? 0 : journalRows;
+			if (journalRows >= 0) {
+				Long marker = lastMatchMarker(journal, scm.getVssProjectMatcher(), fromIndex);
+				if (marker != null)
+					scm.getQuietPeriod().recordChange(marker, System.currentTimeMillis());
+			}
+			journalRows = journal.size();
+		}
+	}
+	
+	/**
+	 * Get the quiet period marker of the last record of the projects, the same
+	 * marker polling records for it.
+	 * @param journal journal
+	 * @param projects project matcher
+	 * @param fromIndex first entry index to check
+	 * @return marker or null if there is no record of the projects at or after fromIndex
+	 */
+	static Long lastMatchMarker(VssJournal journal, VssProjectMatcher projects, int fromIndex) {
+		int last = journal.lastIndexOf(projects);
+		if (last < Math.max(fromIndex, 0))
+			return null;
+		return VssRevisionState.recordMarker(journal.getEntries().get(last));
+	}
+	
+	/**
+	 * Resolve the journal on every check, as the live file of a journal given as
+	 * directory or pattern changes when it is rotated. Take the baseline on the
+	 * first check, schedule the build once the quiet period is over.
+	 */
+	public void tick(long now) {
+		VssSCM scm = getScm();
+		if (scm == null || scm.getVssJournalFile() == null || scm.getVssJournalFile().length() == 0)
+			return;
+		File journalFile = scm.resolveJournalFile();
+		if (watch(journalFile)) {
+			// Records appended to the new live file before it was watched
+			checkJournal(scm, journalFile);
+		}
+		synchronized (this) {
+			if (journalRows < 0) {
+				if (journalFile.exists())
+					journalRows = VssJournalCache.getInstance().getJournal(journalFile, scm.getLocale()).size();
+				return;
+			}
+		}
+		if (!scm.isQuietPeriodElapsed(now))
+			return;
+		scm.getQuietPeriod().reset();
+		if (!job.isDisabled())
+			job.scheduleBuild(0, new VssJournalCause());
+	}
+	
+	/**
+	 * Watch the given live journal file instead of the file watched before.
+	 * @param journalFile live journal file
+	 * @return true if another file was watched before
+	 */
+	private synchronized boolean watch(File journalFile) {
+		File file = journalFile.getAbsoluteFile();
+		if (file.equals(watchedFile))
+			return false;
+		boolean switched = watchedFile != null;
+		watchedFile = file;
+		JournalWatcher.getInstance().register(file, this);
+		return switched;
+	}
+	
+	private VssSCM getScm() {
+		if (job == null)
+			return null;
+		SCM scm = job.getScm();
+		return scm instanceof VssSCM ? (VssSCM) scm : null;
+	}
+	
+	/**
+	 * Cause of builds started by a journal change.
+	 */
+	public static class VssJournalCause extends Cause {
+		
+		@Override
+		public String getShortDescription() {
+			return "Started by SourceSafe journal change";
+		}
+	}
+	
+	/**
+	 * Trigger descriptor.
+	 * @author patlau
+	 */
+	@Extension
+	public static class DescriptorImpl extends TriggerDescriptor {
+		
+		@Override
+		public boolean isApplicable(Item item) {
+			return item instanceof AbstractProject && ((AbstractProject<?, ?>) item).getScm() instanceof VssSCM;
+		}
+		
+		@Override
+		public String getDisplayName() {
+			return "Build when the SourceSafe journal changes";
+		}
+	}
+}
@@ -0,0 +1,231 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FilenameUtils;
+
+/**
+ * Matches journal filenames against a list of SourceSafe projects.
+ * 
+ * The project names are normalized once into a prefix tree. A filename is in a
+ * project if it starts with one of the project names, ignoring case and treating
+ * "\" like "/" as SourceSafe does. Matching walks the filename once and does not
+ * allocate.
+ * 
+ * @author patlau
+ *
+ */
+public final class VssProjectMatcher {
+
+	/**
+	 * Matcher accepting all filenames.
+	 */
+	public static final VssProjectMatcher ALL = new VssProjectMatcher(null);
+	
+	/**
+	 * Result of {@link #matches(byte[], int, int)} if the filename must be decoded.
+	 */
+	static final int UNDECIDED = -1;
+	
+	private final String[] projects;
+	private transient Node root;
+	
+	private VssProjectMatcher(String[] projects) {
+		this.projects = projects;
+	}
+	
+	/**
+	 * Compile list of projects.
+	 * @param projects project names starting with $/, null to match all filenames
+	 * @return matcher
+	 */
+	public static VssProjectMatcher compile(String[] projects) {
+		if (projects == null)
+			return ALL;
+		List<String> list = new ArrayList<String>();
+		for (String project : projects) {
+			String p = FilenameUtils.normalize(project.trim(), true);
+			if (p != null) {
+				StringBuilder sb = new StringBuilder(p.length());
+				for (int i = 0; i < p.length(); i++)
+					sb.append(fold(p.charAt(i)));
+				list.add(sb.toString());
+			}
+		}
+		return new VssProjectMatcher(list.toArray(new String[list.size()]));
+	}
+	
+	/**
+	 * Check if filename is in one of the projects.
+	 * @param filename journal filename
+	 * @return true if filename is in a project
+	 */
+	public boolean matches(CharSequence filename) {
+		return matches(filename, "");
+	}
+	
+	/**
+	 * Check if a filename given as directory and name is in one of the projects.
+	 * @param directory directory part of filename
+	 * @param name remaining part of filename
+	 * @return true if filename is in a project
+	 */
+	public boolean matches(CharSequence directory, CharSequence name) {
+		if (projects == null)
+			return true;
+		Node node = getRoot();
+		if (node.terminal)
+			return true;
+		int length = directory.length() + name.length();
+		int i = 0;
+		while (i < length && Character.isWhitespace(charAt(directory, name, i)))
+			i++;
+		char previous = 0;
+		for (; i < length; i++) {
+			char c = fold(charAt(directory, name, i));
+			// Collapse duplicate separators like FilenameUtils.normalize
+			if (c == '/' && previous == '/')
+				continue;
+			previous = c;
+			node = node.child(c);
+			if (node == null)
+				return false;
+			if (node.terminal)
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Check if a filename given as bytes of an ASCII compatible charset is in one
+	 * of the projects, without decoding it. Non ASCII characters can only be
+	 * compared after decoding, so the result is undecided if the filename has such
+	 * a character before the match is decided.
+	 * @param bytes filename bytes
+	 * @param from index of first byte
+	 * @param to index after last byte
+	 * @return 1 if filename is in a project, 0 if not, or {@link #UNDECIDED}
+	 */
+	int matches(byte[] bytes, int from, int to) {
+		if (projects == null)
+			return 1;
+		Node node = getRoot();
+		if (node.terminal)
+			return 1;
+		int i = from;
+		while (i < to && bytes[i] >= 0 && Character.isWhitespace((char) bytes[i]))
+			i++;
+		char previous = 0;
+		for (; i < to; i++) {
+			if (bytes[i] < 0)
+				return UNDECIDED;
+			char c = fold((char) bytes[i]);
+			if (c == '/' && previous == '/')
+				continue;
+			previous = c;
+			node = node.child(c);
+			if (node == null)
+				return 0;
+			if (node.terminal)
+				return 1;
+		}
+		return 0;
+	}
+	
+	private static char charAt(CharSequence first, CharSequence second, int index) {
+		int n = first.length();
+		return index < n ? first.charAt(index) : second.charAt(index - n);
+	}
+	
+	private Node getRoot() {
+		if (root == null) {
+			Node r = new Node();
+			for (String project : projects)
+				r.add(project, 0);
+			root = r;
+		}
+		return root;
+	}
+	
+	private static char fold(char c) {
+		if (c == '\\')
+			return '/';
+		if (c < 128)
+			return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+		return Character.toLowerCase(c);
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof VssProjectMatcher && Arrays.equals(projects, ((VssProjectMatcher) obj).projects);
+	}
+	
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(projects);
+	}
+	
+	@Override
+	public String toString() {
+		return projects == null ? "*" : Arrays.toString(projects);
+	}
+	
+	/**
+	 * Prefix tree node.
+	 */
+	private static final class Node {
+		private char[] keys = new char[0];
+		private Node[] children = new Node[0];
+		private boolean terminal;
+		
+		void add(String project, int index) {
+			if (index == project.length()) {
+				terminal = true;
+				return;
+			}
+			char c = project.charAt(index);
+			Node next = child(c);
+			if (next == null) {
+				next = new Node();
+				keys = Arrays.copyOf(keys, keys.length + 1);
+				children = Arrays.copyOf(children, children.length + 1);
+				keys[keys.length - 1] = c;
+				children[children.length - 1] = next;
+			}
+			next.add(project, index + 1);
+		}
+		
+		Node child(char c) {
+			for (int i = 0; i < keys.length; i++) {
+				if (keys[i] == c)
+					return children[i];
+			}
+			return null;
+		}
+	}
+	
+}
@@ -24,23 +24,47 @@ package org.jenkinsci.plugins.vssj;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.nio.charset.Charset;
 import java.util.Calendar;
-import java.util.Date;
+import java.util.List;
 import java.util.Locale;
+import java.util.zip.CRC32;
 
-import hudson.FilePath;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.Run;
 import hudson.scm.SCMRevisionState;
 
 /**
  * SourceSource Revision State implementation.
+ * 
+ * The state is persisted with every build, so it only keeps a high-water mark of
+ * the journal: the position and hash of the last record read and the date and
+ * content hash of the last record of the monitored projects. New records are
+ * detected by the last record of the projects instead of its position, which
+ * changes if the journal is rotated. The parsed journal is only kept in memory for
+ * writing the change log.
+ * 
  * @author patlau
  *
  */
 public class VssRevisionState extends SCMRevisionState {
 
 	private Long lastModified;
+	private long journalOffset;
+	private long lastRecordOffset = -1L;
+	private long lastRecordHash;
+	private long lastTimestamp = VssJournalEntry.NO_DATETIME;
+	private long lastMatchHash;
+	private int lastMatchIndex = -1;
+	
+	private transient VssJournal journal;
+	private transient VssProjectMatcher projects;
+	
+	/**
+	 * Parsed journal of states saved by older versions, only read for migration.
+	 */
+	@Deprecated
 	private VssJournal log;
 	
 	/**
@@ -50,7 +74,7 @@ public class VssRevisionState extends SCMRevisionState {
 	 * @param locale Journal file locale
 	 * @return new SourceSafe revision state
 	 */
-	public static VssRevisionState checkJournal(File journalFile, String[] projects, Locale locale) {
+	public static VssRevisionState checkJournal(File journalFile, VssProjectMatcher projects, Locale locale) {
 		VssRevisionState state = new VssRevisionState();
 		state.readJournal(journalFile, projects, locale);
 		return state;
@@ -72,6 +96,121 @@ public class VssRevisionState extends SCMRevisionState {
 		this.lastModified = date;
 	}
 
+	/**
+	 * Byte offset after the last complete record of the journal.
+	 */
+	public long getJournalOffset() {
+		return journalOffset;
+	}
+	
+	/**
+	 * Byte offset of the last complete record of the journal.
+	 */
+	public long getLastRecordOffset() {
+		return lastRecordOffset;
+	}
+	
+	/**
+	 * CRC32 of the last complete record of the journal.
+	 */
+	public long getLastRecordHash() {
+		return lastRecordHash;
+	}
+	
+	/**
+	 * Date of the last journal record of the monitored projects.
+	 * @return milliseconds since epoch or VssJournalEntry.NO_DATETIME
+	 */
+	public long getLastTimestamp() {
+		return lastTimestamp;
+	}
+	
+	/**
+	 * Index of the last journal record of the monitored projects.
+	 * @return entry index or -1
+	 */
+	public int getLastMatchIndex() {
+		return lastMatchIndex;
+	}
+	
+	/**
+	 * Hash of the content of the last journal record of the monitored projects.
+	 * @return hash, 0 if there is no record or the state was saved by an older version
+	 */
+	public long getLastMatchHash() {
+		return lastMatchHash;
+	}
+	
+	/**
+	 * Marker of the last journal record of the monitored projects for the quiet
+	 * period, see {@link #recordMarker(VssJournalEntry)}.
+	 * @return marker
+	 */
+	public long getLastMatchMarker() {
+		return 31L * lastTimestamp + lastMatchHash;
+	}
+	
+	/**
+	 * Marker of a journal record, which does not depend on its position in the
+	 * journal, so the build trigger and polling recognize the same record.
+	 * @param entry journal entry
+	 * @return date and content hash of the record
+	 */
+	static long recordMarker(VssJournalEntry entry) {
+		return 31L * entry.getTimestamp() + recordHash(entry);
+	}
+	
+	/**
+	 * Map the dates of journal entries of states saved by older versions, which
+	 * were stored as calendar.
+	 */
+	@Initializer(before = InitMilestone.PLUGINS_STARTED)
+	public static void addAliases() {
+		Run.XSTREAM2.aliasField("datetime", VssJournalEntry.class, "legacyDatetime");
+	}
+	
+	/**
+	 * Check if the journal still contains the last record read for this state.
+	 * @param journalFile journal file
+	 * @return true if journal was only appended since
+	 */
+	public boolean isCheckpointValid(File journalFile) {
+		return VssJournal.isCheckpointValid(journalFile, journalOffset, lastRecordOffset, lastRecordHash);
+	}
+
+	/**
+	 * Check if the journal contains all records since the given date, i.e. it
+	 * starts at or before the date.
+	 * @param fromDate date
+	 * @return false if the journal was not read or records may be missing
+	 */
+	public boolean isJournalComplete(Calendar fromDate) {
+		if (journal == null || journal.size() == 0)
+			return false;
+		return journal.getEntries().get(0).getTimestamp() <= fromDate.getTimeInMillis();
+	}
+	
+	/**
+	 * Get all journal entries of the monitored projects.
+	 * @return entries
+	 */
+	public List<VssJournalEntry> getEntries() {
+		if (journal == null)
+			throw new IllegalStateException("Journal not read");
+		return journal.filter(projects).getEntries();
+	}
+	
+	/**
+	 * Get journal entries of the monitored projects after the given date.
+	 * @param fromDate date
+	 * @return new entries
+	 */
+	public List<VssJournalEntry> getNewEntries(Calendar fromDate) {
+		if (journal == null)
+			throw new IllegalStateException("Journal not read");
+		return journal.filter(projects).getNewEntries(fromDate);
+	}
+
 	/**
 	 * Check if last modified date is newer than baseline.
 	 * @param baseline baseline
@@ -85,39 +224,112 @@ public class VssRevisionState extends SCMRevisionState {
 	}
 	
 	/**
-	 * Check if wait time exceeded.
+	 * Check if the journal contains records of the monitored projects which are
+	 * not in the baseline.
+	 * @param baseline baseline
+	 * @return true if there are new records or there is no baseline
+	 */
+	public boolean hasNewRecords(VssRevisionState baseline) {
+		if (baseline == null)
+			return true;
+		if (lastTimestamp != baseline.lastTimestamp)
+			return lastTimestamp > baseline.lastTimestamp;
+		// Another record within the same minute, states of older versions have no hash
+		return baseline.lastMatchHash != 0L && lastMatchHash != baseline.lastMatchHash;
+	}
+	
+	/**
+	 * Check if the journal file was not modified for the wait time.
+	 * @param seconds wait time in seconds
+	 * @return true if wait time elapsed
+	 */
+	public boolean isWaitElapsed(Long seconds) {
+		long wait = seconds == null ? 0L : seconds * 1000L;
+		return System.currentTimeMillis() >= lastModified + wait;
+	}
+	
+	/**
+	 * Check if wait time not yet elapsed.
 	 * @param seconds wait time in seconds
-	 * @return true if wait time not exceeded
+	 * @return true if the journal file was modified within the wait time
+	 * @deprecated use {@link #isWaitElapsed(Long)}, older versions returned the inverse
 	 */
+	@Deprecated
 	public boolean mustWait(Long seconds) {
-		Date now = new Date();
-		return now.getTime() > (lastModified + (seconds * 1000L));
+		return !isWaitElapsed(seconds);
 	}
 	
 	
-	private void readJournal(File journalFile, String[] projects, Locale locale) {
+	private void readJournal(File journalFile, VssProjectMatcher matcher, Locale locale) {
 		this.setLastModified(journalFile.lastModified());
-		log = new VssJournal(locale);
-		log.readJournal(journalFile, projects);
+		journal = VssJournalCache.getInstance().getJournal(journalFile, locale);
+		projects = matcher;
+		journalOffset = journal.getOffset();
+		lastRecordOffset = journal.getLastRecordOffset();
+		lastRecordHash = journal.getLastRecordHash();
+		lastMatchIndex = journal.lastIndexOf(matcher);
+		setLastMatch(lastMatchIndex < 0 ? null : journal.getEntries().get(lastMatchIndex));
+	}
+	
+	private void setLastMatch(VssJournalEntry entry) {
+		lastTimestamp = entry == null ? VssJournalEntry.NO_DATETIME : entry.getTimestamp();
+		lastMatchHash = entry == null ? 0L : recordHash(entry);
+	}
+	
+	/**
+	 * Hash of the fields of a record, which do not depend on its position.
+	 */
+	static long recordHash(VssJournalEntry entry) {
+		CRC32 crc = new CRC32();
+		Charset utf8 = Charset.forName("UTF-8");
+		String[] fields = {entry.getFilename(), entry.getVersion(), entry.getUser(), entry.getAction(), entry.getComment()};
+		for (String field : fields) {
+			if (field != null)
+				crc.update(field.getBytes(utf8));
+			crc.update(0);
+		}
+		long hash = crc.getValue();
+		return hash == 0L ? 1L : hash;
+	}
+	
+	/**
+	 * Replace the parsed journal of states saved by older versions with the
+	 * high-water mark.
+	 */
+	private Object readResolve() {
+		if (log != null) {
+			// Older versions kept the entries of the monitored projects, their
+			// fields were not normalized the same way, so only the date is compared
+			List<VssJournalEntry> entries = log.getLegacyEntries();
+			setLastMatch(entries.isEmpty() ? null : entries.get(entries.size() - 1));
+			lastMatchHash = 0L;
+			log = null;
+		}
+		return this;
 	}
 
 	/**
-	 * Write SCM change file.
-	 * @param localChangeLogFile local change file
+	 * Write SCM change file. The change log is streamed directly to the file.
+	 * @param changeLogFile change log file of the build
 	 * @param lastBuildTime last build time from Jenkins
 	 * @throws IOException on write errors
-	 * @throws InterruptedException on write errors
-	 */
-	public void writeChangeFile(FilePath localChangeLogFile,
-			Calendar lastBuildTime) throws IOException, InterruptedException {
-		StringWriter sw = new StringWriter();
-		PrintWriter writer = new PrintWriter(sw);
-		try {
-			log.writeChangeFile(writer, lastBuildTime);
-		} finally {
-			writer.close();
-		}
-		localChangeLogFile.write(sw.getBuffer().toString(), "UTF-8");
+	 */
+	public void writeChangeFile(File changeLogFile, Calendar lastBuildTime) throws IOException {
+		writeChangeFile(changeLogFile, lastBuildTime, ChangesetGrouper.WINDOW_SECONDS);
+	}
+	
+	/**
+	 * Write SCM change file. The change log is streamed directly to the file.
+	 * @param changeLogFile change log file of the build
+	 * @param lastBuildTime last build time from Jenkins
+	 * @param windowSeconds maximum seconds between two records of a changeset,
+	 * negative to write every record as own change
+	 * @throws IOException on write errors
+	 */
+	public void writeChangeFile(File changeLogFile, Calendar lastBuildTime, long windowSeconds) throws IOException {
+		if (journal == null)
+			throw new IllegalStateException("Journal not read");
+		journal.filter(projects).writeChangeFile(changeLogFile, lastBuildTime, windowSeconds);
 	}
 
 }
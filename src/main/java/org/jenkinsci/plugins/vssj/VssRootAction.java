@@ -24,19 +24,25 @@ package org.jenkinsci.plugins.vssj;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URLEncoder;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.servlet.ServletException;
 
 import hudson.Extension;
+import hudson.model.Item;
 import hudson.model.Project;
 import hudson.model.RootAction;
 import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
 import net.sf.json.JSONObject;
 
+import org.kohsuke.stapler.Stapler;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
@@ -44,7 +50,11 @@ import org.kohsuke.stapler.StaplerResponse;
 /**
  * Starting point for a simple VSS file based browser.
  * 
- * Should display the configured journal files of the projects.
+ * Displays the journal entries since midnight of the configured journal file of a
+ * project. The project is selected per request, the parsed journal is shared with
+ * polling through the journal cache and the entries are filtered and paged on the
+ * server, newest first. Older entries are found with the journal index and the
+ * search index, also as JSON through the query URL.
  * 
  * @author patlau
  *
@@ -52,11 +62,16 @@ import org.kohsuke.stapler.StaplerResponse;
 @Extension
 public class VssRootAction implements RootAction {
 
+	/**
+	 * Default number of entries per page.
+	 */
+	public static final int PAGE_SIZE = 100;
+	
 	private static final Logger LOGGER = Logger.getLogger(VssRootAction.class.getName());
+	private static final int MAX_PAGE_SIZE = 1000;
+	private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
 	private static final long serialVersionUID = 1L;
 	
-	Project<?, ?> selectedProject;
-
 	public VssRootAction() {
 		LOGGER.log(Level.FINE, "START");
 	}
@@ -104,34 +119,265 @@ public class VssRootAction implements RootAction {
 		return projects;
 	}
 	
+	/**
+	 * Get the project selected by the "project" parameter of the current request.
+	 * @return project or null
+	 */
 	public Project<?, ?> getSelectedProject() {
-		return selectedProject;
+		StaplerRequest request = Stapler.getCurrentRequest();
+		String name = request == null ? null : request.getParameter("project");
+		if (name == null || name.isEmpty())
+			return null;
+		for (Project<?, ?> p : getProjects()) {
+			if (name.equals(p.getFullName()))
+				return p;
+		}
+		return null;
 	}
 
 	public void doProjectSubmit(StaplerRequest request, StaplerResponse response) throws IOException, ServletException {
 		
 		JSONObject form = request.getSubmittedForm();
-		selectedProject = getProjects().get(Integer.parseInt(form.getString("")));
-		response.sendRedirect("");
+		Project<?, ?> project = getProjects().get(Integer.parseInt(form.getString("")));
+		response.sendRedirect(".?project=" + URLEncoder.encode(project.getFullName(), "UTF-8"));
 		
 	}
 	
-	public List<VssJournalEntry> getJournalEntries() {
-		
-		List<VssJournalEntry> list = new ArrayList<VssJournalEntry>();
+	/**
+	 * Get the page of journal entries selected by the parameters of the current
+	 * request: "project", "q" for the filter text, "page" starting with 1 and "size".
+	 * With "search" the whole history is searched with the search index, with "days"
+	 * greater than 1 or "path" the entries are found with the persistent journal index.
+	 * The records of a "path" are limited to the "days" only if greater than 1. The
+	 * indexes are updated in the background, a page is served from their current state.
+	 * @return page of entries, empty if no project is selected
+	 */
+	public JournalPage getJournalPage() {
+		StaplerRequest request = Stapler.getCurrentRequest();
+		if (request == null)
+			return getPage(getJournalEntries(), null, 1, PAGE_SIZE);
+		return getJournalPage(getSelectedProject(), request);
+	}
+	
+	/**
+	 * Search the journal history of a project, answered as JSON with the total
+	 * number of matching records, one page of entries, newest first, if the search
+	 * was truncated and if the index was still being updated. Takes the same
+	 * parameters as the viewer page.
+	 */
+	public void doQuery(StaplerRequest request, StaplerResponse response) throws IOException {
+		Jenkins.getInstance().checkPermission(Jenkins.READ);
+		Project<?, ?> project = getSelectedProject();
+		if (project != null)
+			project.checkPermission(Item.READ);
+		JournalPage page = getJournalPage(project, request);
+		JSONArray entries = new JSONArray();
+		for (VssJournalEntry entry : page.getEntries()) {
+			entries.add(new JSONObject()
+				.element("date", entry.getDatetimeString())
+				.element("user", entry.getUser())
+				.element("filename", entry.getFilename())
+				.element("version", entry.getVersion())
+				.element("action", entry.getAction())
+				.element("comment", entry.getComment()));
+		}
+		JSONObject result = new JSONObject()
+			.element("total", page.getTotal())
+			.element("page", page.getPage())
+			.element("pageCount", page.getPageCount())
+			.element("truncated", page.isTruncated())
+			.element("updating", page.isUpdating())
+			.element("entries", entries);
+		response.setContentType("application/json;charset=UTF-8");
+		result.write(response.getWriter());
+	}
+	
+	private JournalPage getJournalPage(Project<?, ?> p, StaplerRequest request) {
+		String query = request.getParameter("q");
+		String search = request.getParameter("search");
+		String path = request.getParameter("path");
+		int days = parseInt(request.getParameter("days"), 1);
+		int page = parseInt(request.getParameter("page"), 1);
+		int size = Math.min(parseInt(request.getParameter("size"), PAGE_SIZE), MAX_PAGE_SIZE);
+		boolean history = days > 1 || !isBlank(path) || !isBlank(search);
+		if (!history)
+			return getPage(getJournalEntries(), query, page, size);
 		
+		if (!isVssSCM(p))
+			return getPage(Collections.<VssJournalEntry>emptyList(), query, page, size);
+		VssSCM vss = (VssSCM) p.getScm();
+		File journalFile = vss.resolveJournalFile();
+		try {
+			if (!isBlank(search)) {
+				SearchIndex searchIndex = SearchIndex.forJournal(journalFile, vss.getLocale());
+				searchIndex.updateLater();
+				JournalPage journalPage = getSearchPage(journalFile, vss.getLocale(), searchIndex, search, query, page, size);
+				// Records found before a rotation of the journal are read from the wrong segments
+				if (searchIndex.updateIfRotated())
+					journalPage = getSearchPage(journalFile, vss.getLocale(), searchIndex, search, query, page, size);
+				journalPage.setUpdating(searchIndex.isUpdating());
+				return journalPage;
+			}
+			// The page is served from the index as far as it was updated
+			JournalIndex index = JournalIndex.forJournal(journalFile, vss.getLocale());
+			index.updateLater();
+			long from = CalendarUtils.midnight().getTimeInMillis() - (days - 1) * DAY_MILLIS;
+			JournalPage journalPage = getIndexPage(journalFile, vss.getLocale(), index, path, days > 1 ? from : null,
+					from, query, page, size);
+			if (index.updateIfRotated())
+				journalPage = getIndexPage(journalFile, vss.getLocale(), index, path, days > 1 ? from : null,
+						from, query, page, size);
+			journalPage.setUpdating(index.isUpdating());
+			return journalPage;
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Error reading journal index of " + vss.getVssJournalFile(), e);
+			return getPage(Collections.<VssJournalEntry>emptyList(), query, page, size);
+		}
+	}
+	
+	/**
+	 * Get the journal entries since midnight of the selected project.
+	 * @return entries, a read only view
+	 */
+	public List<VssJournalEntry> getJournalEntries() {
 		Project<?, ?> p = getSelectedProject();
 		if (isVssSCM(p)) {
 			VssSCM vss = (VssSCM) p.getScm();
-			File f = new File(vss.getVssJournalFile());
+			File f = vss.resolveJournalFile();
 			if (f.exists()) {
-				VssJournal journal = new VssJournal();
-				journal.readJournal(f);
-				list = journal.getNewEntries(CalendarUtils.midnight());
+				VssJournal journal = VssJournalCache.getInstance().getJournal(f, vss.getLocale());
+				return journal.getNewEntries(CalendarUtils.midnight());
 			}
 		}
-		
-		return list;
+		return Collections.emptyList();
+	}
+	
+	/**
+	 * Filter entries and select a page, newest entries first.
+	 * @param entries journal entries, oldest first
+	 * @param query filter text, matches filename, user, action or comment ignoring case
+	 * @param page page number starting with 1
+	 * @param size entries per page
+	 * @return page
+	 */
+	static JournalPage getPage(List<VssJournalEntry> entries, String query, int page, int size) {
+		String q = query == null ? "" : query.trim();
+		int pageSize = Math.max(1, size);
+		int first = (Math.max(1, page) - 1) * pageSize;
+		List<VssJournalEntry> selected = new ArrayList<VssJournalEntry>(Math.min(pageSize, entries.size()));
+		int total;
+		if (q.isEmpty()) {
+			total = entries.size();
+			for (int i = total - 1 - first; i >= 0 && selected.size() < pageSize; i--) {
+				selected.add(entries.get(i));
+			}
+		} else {
+			total = 0;
+			for (int i = entries.size() - 1; i >= 0; i--) {
+				VssJournalEntry entry = entries.get(i);
+				if (!matches(entry, q))
+					continue;
+				if (total >= first && selected.size() < pageSize)
+					selected.add(entry);
+				total++;
+			}
+		}
+		return new JournalPage(selected, q, Math.max(1, page), pageSize, total);
+	}
+	
+	/**
+	 * Select a page of the records found in an index, newest first. Without filter
+	 * text, only the records of the page are read from the journal.
+	 * @param journalFile journal file
+	 * @param locale journal locale
+	 * @param positions record positions in journal order
+	 * @param liveGeneration generation of the live journal of the index
+	 * @param query filter text
+	 * @param page page number starting with 1
+	 * @param size entries per page
+	 * @return page
+	 */
+	static JournalPage getPage(File journalFile, Locale locale, long[] positions, int liveGeneration, String query,
+			int page, int size) {
+		if (!isBlank(query))
+			return getPage(new VssJournal(locale).readEntries(journalFile, positions, liveGeneration), query, page, size);
+		int pageSize = Math.max(1, size);
+		int last = positions.length - (Math.max(1, page) - 1) * pageSize;
+		int first = Math.max(0, last - pageSize);
+		long[] pagePositions = new long[Math.max(0, last - first)];
+		for (int i = 0; i < pagePositions.length; i++) {
+			pagePositions[i] = positions[last - 1 - i];
+		}
+		List<VssJournalEntry> entries = new VssJournal(locale).readEntries(journalFile, pagePositions, liveGeneration);
+		return new JournalPage(new ArrayList<VssJournalEntry>(entries), "", Math.max(1, page), pageSize, positions.length);
+	}
+	
+	private static JournalPage getSearchPage(File journalFile, Locale locale, SearchIndex searchIndex, String search,
+			String query, int page, int size) {
+		SearchIndex.Result result = searchIndex.find(search);
+		int[] records = result.getRecords();
+		long[] positions = new long[records.length];
+		for (int i = 0; i < records.length; i++) {
+			positions[i] = searchIndex.getPosition(records[i]);
+		}
+		JournalPage journalPage = getPage(journalFile, locale, positions, searchIndex.getLiveGeneration(), query, page, size);
+		journalPage.setTruncated(result.isTruncated());
+		return journalPage;
+	}
+	
+	private static JournalPage getIndexPage(File journalFile, Locale locale, JournalIndex index, String path,
+			Long pathFrom, long from, String query, int page, int size) throws IOException {
+		if (!isBlank(path))
+			return getPage(getPathEntries(index, path.trim(), pathFrom), query, page, size);
+		return getPage(journalFile, locale, index.findRange(from, Long.MAX_VALUE, null), index.getLiveGeneration(),
+				query, page, size);
+	}
+	
+	/**
+	 * Get the records of a file found in the journal index.
+	 * @param index journal index
+	 * @param path VSS path of the file
+	 * @param from exclusive start date, null for all records
+	 */
+	static List<VssJournalEntry> getPathEntries(JournalIndex index, String path, Long from) throws IOException {
+		List<VssJournalEntry> entries = new ArrayList<VssJournalEntry>();
+		String normalized = path.replace('\\', '/');
+		long[] positions = from == null ? index.findPath(path) : index.findPath(path, from);
+		for (VssJournalEntry entry : index.readEntries(positions)) {
+			// Records of other paths with the same hash
+			if (entry.getFilename().replace('\\', '/').equalsIgnoreCase(normalized))
+				entries.add(entry);
+		}
+		return entries;
+	}
+	
+	static boolean matches(VssJournalEntry entry, String query) {
+		return containsIgnoreCase(entry.getFilename(), query) || containsIgnoreCase(entry.getUser(), query)
+				|| containsIgnoreCase(entry.getAction(), query) || containsIgnoreCase(entry.getComment(), query);
+	}
+	
+	private static boolean containsIgnoreCase(String s, String query) {
+		if (s == null)
+			return false;
+		for (int i = s.length() - query.length(); i >= 0; i--) {
+			if (s.regionMatches(true, i, query, 0, query.length()))
+				return true;
+		}
+		return false;
+	}
+	
+	private static boolean isBlank(String value) {
+		return value == null || value.trim().isEmpty();
+	}
+	
+	private static int parseInt(String value, int defaultValue) {
+		if (value == null)
+			return defaultValue;
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
 	}
 	
 	public String getProjectLabel(Project<?, ?> p) {
@@ -142,4 +388,89 @@ public class VssRootAction implements RootAction {
 		return p != null && p.getScm() != null && (p.getScm() instanceof VssSCM);
 	}
 	
+	/**
+	 * One page of filtered journal entries.
+	 */
+	public static final class JournalPage {
+		private final List<VssJournalEntry> entries;
+		private final String query;
+		private final int page;
+		private final int size;
+		private final int total;
+		private boolean truncated;
+		private boolean updating;
+		
+		JournalPage(List<VssJournalEntry> entries, String query, int page, int size, int total) {
+			this.entries = entries;
+			this.query = query;
+			this.page = page;
+			this.size = size;
+			this.total = total;
+		}
+		
+		public List<VssJournalEntry> getEntries() {
+			return entries;
+		}
+		
+		public String getQuery() {
+			return query;
+		}
+		
+		public int getPage() {
+			return page;
+		}
+		
+		public int getSize() {
+			return size;
+		}
+		
+		/**
+		 * Number of entries matching the filter.
+		 */
+		public int getTotal() {
+			return total;
+		}
+		
+		/**
+		 * Check if the search matched too many terms, so entries may be missing.
+		 */
+		public boolean isTruncated() {
+			return truncated;
+		}
+		
+		void setTruncated(boolean truncated) {
+			this.truncated = truncated;
+		}
+		
+		/**
+		 * Check if the index was still being updated, so the latest entries may be missing.
+		 */
+		public boolean isUpdating() {
+			return updating;
+		}
+		
+		void setUpdating(boolean updating) {
+			this.updating = updating;
+		}
+		
+		public int getPageCount() {
+			return Math.max(1, (total + size - 1) / size);
+		}
+		
+		/**
+		 * Index of the first entry of this page, starting with 1.
+		 */
+		public int getFirstIndex() {
+			return (page - 1) * size + 1;
+		}
+		
+		public boolean isPrevious() {
+			return page > 1;
+		}
+		
+		public boolean isNext() {
+			return page < getPageCount();
+		}
+	}
+	
 }
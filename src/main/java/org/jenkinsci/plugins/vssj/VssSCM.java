@@ -31,6 +31,7 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.List;
 import java.util.Locale;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
@@ -59,6 +60,7 @@ import net.sf.json.JSONObject;
 
 import org.jenkinsci.plugins.vssj.browsers.SourceSafeRepositoryBrowser;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.export.Exported;
@@ -78,16 +80,26 @@ import org.kohsuke.stapler.export.Exported;
  */
 public class VssSCM extends SCM {
 
+	private static final int INCREMENTAL_GET_MARGIN_SECONDS = 120;
+	private static final long DEFAULT_MAX_WAIT_SECONDS = 600L;
+
 	private SourceSafeRepositoryBrowser browser;
 	
 	private boolean clean;
     private String locale = "de";
+    private boolean incrementalGet;
+    private boolean selectiveClean;
+    private int parallelGets = 1;
     private boolean useSubdirs;
 	private boolean vssGet;
 	private String vssGetOptions = "-R -GWR -I-Y";
 	private String vssJournalFile = "";
 	private String vssProjects = "";
+	private transient VssProjectMatcher vssProjectMatcher;
 	private Long waitSeconds = 1L;
+	private Long maxWaitSeconds = DEFAULT_MAX_WAIT_SECONDS;
+	private Long changesetWindowSeconds;
+	private transient QuietPeriod quietPeriod;
     private String workspaceName = "";
 
 	/**
@@ -110,6 +122,7 @@ public class VssSCM extends SCM {
 		this.workspaceName = workspaceName;
 		this.vssJournalFile = vssJournalFile;
 		this.vssProjects = vssProjects;
+		this.vssProjectMatcher = VssProjectMatcher.compile(getVssProjectList());
 		this.waitSeconds = waitSeconds;
 		this.locale = locale;
 		this.useSubdirs = useSubdirs;
@@ -137,6 +150,61 @@ public class VssSCM extends SCM {
 		this.waitSeconds = waitSeconds;
 	}
 
+	/**
+	 * Get maximum time to wait after the first new journal record, so a steady
+	 * stream of check-ins still builds.
+	 * @return maximum wait time in seconds, 0 for no maximum
+	 */
+	public Long getMaxWaitSeconds() {
+		return maxWaitSeconds == null ? DEFAULT_MAX_WAIT_SECONDS : maxWaitSeconds;
+	}
+	
+	/**
+	 * Set maximum wait time.
+	 * @param maxWaitSeconds maximum wait time in seconds, 0 for no maximum
+	 */
+	@DataBoundSetter
+	public void setMaxWaitSeconds(Long maxWaitSeconds) {
+		this.maxWaitSeconds = maxWaitSeconds;
+	}
+	
+	/**
+	 * Get maximum time between two journal records of the same user and comment
+	 * shown as one change.
+	 * @return window in seconds, negative to show every record as own change
+	 */
+	public Long getChangesetWindowSeconds() {
+		return changesetWindowSeconds == null ? ChangesetGrouper.WINDOW_SECONDS : changesetWindowSeconds;
+	}
+	
+	/**
+	 * Set maximum time between two journal records of a change.
+	 * @param changesetWindowSeconds window in seconds, null for the default
+	 */
+	@DataBoundSetter
+	public void setChangesetWindowSeconds(Long changesetWindowSeconds) {
+		this.changesetWindowSeconds = changesetWindowSeconds;
+	}
+	
+	/**
+	 * Get the quiet period of this job, shared by polling and the journal trigger.
+	 */
+	synchronized QuietPeriod getQuietPeriod() {
+		if (quietPeriod == null)
+			quietPeriod = new QuietPeriod();
+		return quietPeriod;
+	}
+	
+	/**
+	 * Check if the quiet period after new journal records is over.
+	 * @param now current time in milliseconds
+	 * @return true if a build should start
+	 */
+	boolean isQuietPeriodElapsed(long now) {
+		long wait = getWaitSeconds() == null ? 0L : getWaitSeconds() * 1000L;
+		return getQuietPeriod().isElapsed(now, wait, getMaxWaitSeconds() * 1000L);
+	}
+
 	public boolean isClean() {
 		return clean;
 	}
@@ -190,6 +258,15 @@ public class VssSCM extends SCM {
 		this.vssJournalFile = vssJournalFile;
 	}
 	
+	/**
+	 * Get the live journal file. The configured journal may also be a directory or
+	 * a file name pattern of a rotated journal.
+	 * @return live journal file
+	 */
+	public File resolveJournalFile() {
+		return JournalSegments.resolve(vssJournalFile);
+	}
+	
 	public String getVssProjects() {
 		return vssProjects;
 	}
@@ -199,12 +276,22 @@ public class VssSCM extends SCM {
 	 */
 	public void setVssProjects(String vssProjects) {
 		this.vssProjects = vssProjects;
+		this.vssProjectMatcher = VssProjectMatcher.compile(getVssProjectList());
 	}
 	
 	private String[] getVssProjectList() {
 		return this.getVssProjects().split(";");
 	}
 	
+	/**
+	 * Get the compiled VSS projects for matching journal filenames.
+	 */
+	public VssProjectMatcher getVssProjectMatcher() {
+		if (vssProjectMatcher == null)
+			vssProjectMatcher = VssProjectMatcher.compile(getVssProjectList());
+		return vssProjectMatcher;
+	}
+	
 	/**
 	 * Get the VSS journal locale.
 	 */
@@ -212,6 +299,46 @@ public class VssSCM extends SCM {
 		return new Locale(this.locale);
 	}
 	
+	public boolean isSelectiveClean() {
+		return selectiveClean;
+	}
+	
+	/**
+	 * Set if clean only removes files deleted, renamed or moved since the last build.
+	 */
+	@DataBoundSetter
+	public void setSelectiveClean(boolean selectiveClean) {
+		this.selectiveClean = selectiveClean;
+	}
+	
+	public boolean isIncrementalGet() {
+		return incrementalGet;
+	}
+	
+	/**
+	 * Set if only files changed since the last build are fetched.
+	 */
+	@DataBoundSetter
+	public void setIncrementalGet(boolean incrementalGet) {
+		this.incrementalGet = incrementalGet;
+	}
+	
+	/**
+	 * Get maximum number of VSS projects fetched in parallel.
+	 */
+	public int getParallelGets() {
+		return Math.max(1, parallelGets);
+	}
+	
+	/**
+	 * Set maximum number of VSS projects fetched in parallel.
+	 * @param parallelGets number of parallel gets
+	 */
+	@DataBoundSetter
+	public void setParallelGets(int parallelGets) {
+		this.parallelGets = parallelGets;
+	}
+	
 	public boolean getUseSubdirs() {
 		return useSubdirs;
 	}
@@ -249,44 +376,55 @@ public class VssSCM extends SCM {
 		AbstractBuild<?, ?> lastBuild = build.getPreviousBuild();
         Calendar lastBuildTime = lastBuild == null ? CalendarUtils.midnight() : lastBuild.getTimestamp();
     	
+        // Could also be done in calcRevisionsFromBuild
+        VssRevisionState currentState = VssRevisionState.checkJournal(resolveJournalFile(), getVssProjectMatcher(), getLocale());
+        
         try {
             VssExe exe = new VssExe(launcher, workspace, buildListener, getSsExePath(), getUseSubdirs());
-            checkoutVss(logger, exe);
+            IncrementalGet plan = null;
+            if ((isClean() && isSelectiveClean()) || (isVssGet() && isIncrementalGet())) {
+            	plan = getChangesSincePreviousGet(logger, lastBuild, currentState);
+            }
+            
+            boolean cleaned = false;
+            if (!isClean()) {
+            	logger.println("Clean Disabled");
+            } else if (isSelectiveClean() && plan != null) {
+            	cleanVss(logger, exe, plan);
+            } else {
+            	cleanVss(exe);
+            	cleaned = true;
+            }
+            
+            if (!isVssGet()) {
+            	logger.println("VSS Get Disabled");
+            } else if (isIncrementalGet() && plan != null && !cleaned && !isWorkspaceEmpty(logger, exe)) {
+            	checkoutVss(logger, exe, plan);
+            	exe.updateManifest(plan, plan.getEntries());
+            	exe.saveManifest();
+            } else {
+            	exe.get(Arrays.asList(this.getVssProjectList()), getVssGetOptions(), getParallelGets());
+            	if (isIncrementalGet()) {
+            		exe.updateManifest(new IncrementalGet(getVssProjectList(), getLocale()), currentState.getEntries());
+            		exe.saveManifest();
+            	}
+            }
 		} catch (IOException e) {
 			e.printStackTrace();
-            throw new AbortException("Error Cleaning: " + e.getMessage());
-		}   
-       
-        // Could also be done in calcRevisionsFromBuild
-        VssRevisionState currentState = VssRevisionState.checkJournal(new File(this.vssJournalFile), getVssProjectList(), getLocale());
+            throw new AbortException("Error Getting SourceSafe Projects: " + e.getMessage());
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+            throw new AbortException("Interrupted Getting SourceSafe Projects: " + e.getMessage());
+		}
+        
+        // Only builds with a revision state have fetched the changes up to their build time
         build.addAction(currentState);
 
-        FilePath localChangeLogFile = null;
         try {
-     	   	localChangeLogFile = workspace.createTempFile("vss", ".xml");
-     	   currentState.writeChangeFile(localChangeLogFile, lastBuildTime);
-
- 		} catch (IOException e) {
- 			e.printStackTrace();
-             throw new AbortException("Error Reading VSS Log: " + e.getMessage());
- 		} catch (InterruptedException e) {
- 			e.printStackTrace();
-             throw new AbortException("Interrupted Reading VSS Log: " + e.getMessage());
-        }      
-        
-        try {
-	        if (localChangeLogFile.exists()) {
-	            localChangeLogFile.copyTo(new FilePath(changeLogFile));
-	            localChangeLogFile.delete();
-	        } else {
-	            createEmptyChangeLog(changeLogFile, buildListener, "log");
-	        }
+        	currentState.writeChangeFile(changeLogFile, lastBuildTime, getChangesetWindowSeconds());
 		} catch (IOException e) {
 			e.printStackTrace();
-            throw new AbortException("Error Copying Change File: " + e.getMessage());
-		} catch (InterruptedException e) {
-			e.printStackTrace();
-            throw new AbortException("Interrupted Copying Change File: " + e.getMessage());
+            throw new AbortException("Error Writing Change File: " + e.getMessage());
         }
         
         // Could also add Parameters
@@ -295,24 +433,71 @@ public class VssSCM extends SCM {
         return true;
 	}
 
-	protected void checkoutVss(PrintStream logger, VssExe exe)
-			throws IOException {
+	/**
+	 * Clean the directories of all projects.
+	 */
+	private void cleanVss(VssExe exe) throws IOException, InterruptedException {
 		for (String project : this.getVssProjectList()) {
-			if (isClean())
-				exe.clean(project);
-			else
-				logger.println("Clean Disabled");
+			exe.clean(project);
 		}
-		for (String project : this.getVssProjectList()) {
-			if (isVssGet()) {
-				int result = exe.get(project, getVssGetOptions());
-				if (result != 0) {
-					logger.println("VSS Get Failed with " + result);
-				}
-			} else {
-				logger.println("VSS Get Disabled");
+	}
+	
+	/**
+	 * Remove only files and projects deleted, renamed or moved since the previous build.
+	 */
+	private void cleanVss(PrintStream logger, VssExe exe, IncrementalGet plan) throws IOException {
+		List<String> paths = plan.getRemovedPaths();
+		logger.println("Selective Clean: " + paths.size() + " files or projects removed in SourceSafe");
+		for (String path : paths) {
+			exe.remove(plan.getProject(path), path);
+		}
+	}
+	
+	/**
+	 * Get only the changed files of an incremental get plan.
+	 */
+	private void checkoutVss(PrintStream logger, VssExe exe, IncrementalGet plan) {
+		int modified = exe.addModifiedFiles(plan);
+		if (modified > 0)
+			logger.println("Incremental Get: " + modified + " files changed in workspace");
+		if (plan.isEmpty()) {
+			logger.println("Incremental Get: no changes since previous build");
+			return;
+		}
+		logger.println("Incremental Get of " + plan.getTargets().size() + " SourceSafe projects");
+		exe.get(plan, getVssGetOptions());
+	}
+	
+	/**
+	 * Get the journal entries since the previous build for an incremental get or
+	 * selective clean. 
+	 * @return plan with the entries or null if the changes are not known
+	 */
+	private IncrementalGet getChangesSincePreviousGet(PrintStream logger, AbstractBuild<?, ?> lastBuild, VssRevisionState currentState) {
+		if (lastBuild == null || lastBuild.getAction(VssRevisionState.class) == null) {
+			logger.println("Changes since previous build unknown: no previous build with SourceSafe get");
+			return null;
+		}
+		Calendar fromDate = (Calendar) lastBuild.getTimestamp().clone();
+		// Journal dates have minute resolution and the clocks may differ
+		fromDate.add(Calendar.SECOND, -INCREMENTAL_GET_MARGIN_SECONDS);
+		if (!currentState.isJournalComplete(fromDate)) {
+			logger.println("Changes since previous build unknown: journal does not go back to previous build");
+			return null;
+		}
+		IncrementalGet plan = new IncrementalGet(getVssProjectList(), getLocale());
+		plan.addAll(currentState.getNewEntries(fromDate));
+		return plan;
+	}
+	
+	private boolean isWorkspaceEmpty(PrintStream logger, VssExe exe) throws IOException, InterruptedException {
+		for (String project : getVssProjectList()) {
+			if (exe.isProjectDirectoryEmpty(project)) {
+				logger.println("Full Get: workspace of " + project + " is empty");
+				return true;
 			}
 		}
+		return false;
 	}
 	
 	@Override
@@ -325,39 +510,48 @@ public class VssSCM extends SCM {
             return PollingResult.NO_CHANGES;
         }
         
-        File journalFile = new File(this.getVssJournalFile());
-        if (!journalFile.exists()) {
+        File journalFile = resolveJournalFile();
+        if (!journalFile.isFile()) {
             taskListener.fatalError("No valid VSS Logfile specified");
             return PollingResult.NO_CHANGES;
         }
         
 		taskListener.getLogger().println("Checking SourceSafe Log " + journalFile.getAbsolutePath());
         
-		VssRevisionState currentState = VssRevisionState.checkJournal(journalFile, getVssProjectList(), getLocale());
+		VssRevisionState vssBaseline = baseline instanceof VssRevisionState ? (VssRevisionState) baseline : null;
+		VssRevisionState currentState = VssRevisionState.checkJournal(journalFile, getVssProjectMatcher(), getLocale());
 		
 		final Run<?, ?> lastBuild =  project.getLastBuild();
-        if (lastBuild == null && !currentState.mustWait(this.getWaitSeconds())) {
+        if (lastBuild == null) {
             taskListener.getLogger().println("No existing build. Scheduling a new one.");
             return PollingResult.BUILD_NOW;
         }
 
-        boolean changes = false;
-        VssRevisionState vssBaseline = (VssRevisionState) baseline;
-        if (currentState.isNewerThan(vssBaseline)) {
-        	if (currentState.mustWait(this.getWaitSeconds())) {
-                taskListener.getLogger().println("File change detected, but must wait.");
-        	} else {
-                taskListener.getLogger().println("File change detected.");
-        		changes = true;
-        	}
+        long now = System.currentTimeMillis();
+        QuietPeriod quiet = getQuietPeriod();
+        if (!currentState.hasNewRecords(vssBaseline)) {
+        	// Built in the meantime
+        	quiet.reset();
+        	return new PollingResult(vssBaseline, currentState, Change.NONE);
         }
-		
-		return new PollingResult(vssBaseline, currentState, changes ? Change.SIGNIFICANT : Change.NONE);
+        if (quiet.recordChange(currentState.getLastMatchMarker(), now))
+            taskListener.getLogger().println("New journal records detected.");
+        
+        if (!isQuietPeriodElapsed(now)) {
+        	long wait = getWaitSeconds() == null ? 0L : getWaitSeconds() * 1000L;
+            taskListener.getLogger().println("Waiting for quiet period, "
+            		+ quiet.getRemaining(now, wait, getMaxWaitSeconds() * 1000L) / 1000L + " seconds left.");
+            // Keep the baseline, so the changes are not lost on a restart
+            return new PollingResult(vssBaseline, vssBaseline, Change.NONE);
+        }
+        quiet.reset();
+        taskListener.getLogger().println("Quiet period elapsed.");
+        return new PollingResult(vssBaseline, currentState, Change.SIGNIFICANT);
 	}
 
 	@Override
 	public ChangeLogParser createChangeLogParser() {
-		return new VssChangeLogParser();
+		return new VssChangeLogParser(getChangesetWindowSeconds());
 	}
     
     /**
@@ -391,6 +585,7 @@ public class VssSCM extends SCM {
     public static class DescriptorImpl extends SCMDescriptor<VssSCM> {
 
     	private String ssExePath = getDefaultSsExePath();
+    	private String userMapping;
     	
     	/**
     	 * Default Contructor.
@@ -399,6 +594,7 @@ public class VssSCM extends SCM {
 //        	super(VssSCM.class, SourceSafeRepositoryBrowser.class);
         	super(VssSCM.class, null);
             load();
+            AuthorResolver.getInstance().setMapping(userMapping);
         }
 
         /**
@@ -458,6 +654,23 @@ public class VssSCM extends SCM {
 			this.ssExePath = ssExePath;
 		}
 		
+		/**
+		 * Get the mapping from VSS login to Jenkins user id.
+		 * @return one "vsslogin=jenkinsid" per line
+		 */
+		public String getUserMapping() {
+			return userMapping;
+		}
+		
+		/**
+		 * Set the mapping from VSS login to Jenkins user id.
+		 * @param userMapping one "vsslogin=jenkinsid" per line
+		 */
+		public void setUserMapping(String userMapping) {
+			this.userMapping = userMapping;
+			AuthorResolver.getInstance().setMapping(userMapping);
+		}
+		
 		/**
 		 * Do form validation for SS.EXE.
 		 */
@@ -485,12 +698,10 @@ public class VssSCM extends SCM {
 			if (value == null || value.isEmpty())
 				return FormValidation.ok();
 			
-			File file = new File(value);
-			
 			// Check for network drive and try to map
-			WinUtils.checkForUnmappedNetworkDrive(file);
+			WinUtils.checkForUnmappedNetworkDrive(new File(value));
 			
-			if (file.exists() && !file.isDirectory()) {
+			if (JournalSegments.resolve(value).isFile()) {
 				return FormValidation.ok();
 			} else {
 				return FormValidation.error("Invalid Filename.");
@@ -511,6 +722,50 @@ public class VssSCM extends SCM {
 			}
 		}
 
+		/**
+		 * Do form validation of maximum wait seconds.
+		 */
+		public FormValidation doCheckMaxWaitSeconds(@QueryParameter String value) {
+			if (value == null || value.isEmpty())
+				return FormValidation.ok();
+			try {
+				if (Long.parseLong(value) >= 0)
+					return FormValidation.ok();
+			} catch (NumberFormatException e) {
+				return FormValidation.error("Not a number.");
+			}
+			return FormValidation.error("Invalid value.");
+		}
+
+		/**
+		 * Do form validation of changeset window seconds.
+		 */
+		public FormValidation doCheckChangesetWindowSeconds(@QueryParameter String value) {
+			if (value == null || value.isEmpty())
+				return FormValidation.ok();
+			try {
+				Long.parseLong(value);
+				return FormValidation.ok();
+			} catch (NumberFormatException e) {
+				return FormValidation.error("Not a number.");
+			}
+		}
+
+		/**
+		 * Do form validation of parallel gets.
+		 */
+		public FormValidation doCheckParallelGets(@QueryParameter String value) {
+			if (value == null || value.isEmpty())
+				return FormValidation.ok();
+			try {
+				if (Integer.parseInt(value) >= 1)
+					return FormValidation.ok();
+			} catch (NumberFormatException e) {
+				return FormValidation.error("Not a number.");
+			}
+			return FormValidation.error("Must be at least 1.");
+		}
+
 		/**
 		 * Do form validation of locale.
 		 */
@@ -0,0 +1,244 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Versions of the SourceSafe files fetched to a workspace.
+ * 
+ * For each file the manifest keeps the SourceSafe version and the modification
+ * date and size of the local file after the get, so changed or deleted local
+ * files can be detected without reading them.
+ * 
+ * The manifest is stored as binary file: a header, the number of files and for
+ * each file the path, version, modification date and size.
+ * 
+ * @author patlau
+ */
+final class WorkspaceManifest {
+
+	/**
+	 * Name of the manifest file in the workspace.
+	 */
+	static final String FILENAME = ".vssj-manifest";
+	
+	private static final int MAGIC = 0x5653534d;
+	private static final int FORMAT_VERSION = 1;
+	
+	private final Map<String, FileState> files = new HashMap<String, FileState>();
+	
+	/**
+	 * Read manifest file. A missing or invalid file results in an empty manifest.
+	 * @param file manifest file
+	 * @return manifest
+	 */
+	static WorkspaceManifest load(File file) {
+		WorkspaceManifest manifest = new WorkspaceManifest();
+		if (!file.isFile())
+			return manifest;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION)
+					return manifest;
+				int count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					String path = in.readUTF();
+					int version = in.readInt();
+					long lastModified = in.readLong();
+					long length = in.readLong();
+					manifest.files.put(key(path), new FileState(path, version, lastModified, length));
+				}
+			} finally {
+				in.close();
+			}
+		} catch (EOFException e) {
+			manifest.files.clear();
+		} catch (IOException e) {
+			e.printStackTrace();
+			manifest.files.clear();
+		}
+		return manifest;
+	}
+	
+	/**
+	 * Write manifest file. The file is replaced only after it was written completely.
+	 * @param file manifest file
+	 * @throws IOException on write errors
+	 */
+	void save(File file) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(files.size());
+			for (FileState state : files.values()) {
+				out.writeUTF(state.path);
+				out.writeInt(state.version);
+				out.writeLong(state.lastModified);
+				out.writeLong(state.length);
+			}
+		} finally {
+			out.close();
+		}
+		if (file.exists() && !file.delete())
+			throw new IOException("Can not replace " + file);
+		if (!tmp.renameTo(file))
+			throw new IOException("Can not rename " + tmp + " to " + file);
+	}
+	
+	int size() {
+		return files.size();
+	}
+	
+	/**
+	 * Get SourceSafe paths of all files.
+	 */
+	List<String> getPaths() {
+		List<String> paths = new ArrayList<String>(files.size());
+		for (FileState state : files.values()) {
+			paths.add(state.path);
+		}
+		return paths;
+	}
+	
+	/**
+	 * Get version of a file.
+	 * @param path SourceSafe path
+	 * @return version or 0 if unknown
+	 */
+	int getVersion(String path) {
+		FileState state = files.get(key(path));
+		return state == null ? 0 : state.version;
+	}
+	
+	/**
+	 * Check if the local file has the given version and was not changed since the get.
+	 * The version of a file may also go down, e.g. by a rollback.
+	 * @param path SourceSafe path
+	 * @param version version
+	 * @param localFile local file
+	 * @return true if file does not need to be fetched
+	 */
+	boolean isCurrent(String path, int version, File localFile) {
+		FileState state = files.get(key(path));
+		return state != null && version > 0 && state.version == version && !state.isModified(localFile);
+	}
+	
+	/**
+	 * Check if the local file was changed or deleted since the get.
+	 * @param path SourceSafe path
+	 * @param localFile local file
+	 * @return true if file is unknown or changed
+	 */
+	boolean isModified(String path, File localFile) {
+		FileState state = files.get(key(path));
+		return state == null || state.isModified(localFile);
+	}
+	
+	/**
+	 * Record the version of a fetched file. Files which do not exist locally are removed.
+	 * @param path SourceSafe path
+	 * @param version version
+	 * @param localFile local file
+	 */
+	void update(String path, int version, File localFile) {
+		if (localFile.isFile())
+			files.put(key(path), new FileState(path, version, localFile.lastModified(), localFile.length()));
+		else
+			files.remove(key(path));
+	}
+	
+	/**
+	 * Remove a file or all files of a SourceSafe project.
+	 * @param path SourceSafe path of file or project
+	 */
+	void remove(String path) {
+		String prefix = key(path);
+		while (prefix.endsWith("/"))
+			prefix = prefix.substring(0, prefix.length() - 1);
+		files.remove(prefix);
+		prefix = prefix + "/";
+		for (Iterator<String> it = files.keySet().iterator(); it.hasNext();) {
+			if (it.next().startsWith(prefix))
+				it.remove();
+		}
+	}
+	
+	/**
+	 * Parse a journal version.
+	 * @param version journal version
+	 * @return version or 0 if not a number
+	 */
+	static int parseVersion(String version) {
+		if (version == null)
+			return 0;
+		try {
+			return Integer.parseInt(version.trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+	
+	private static String key(String path) {
+		return path.trim().replace('\\', '/').toLowerCase(Locale.ENGLISH);
+	}
+	
+	/**
+	 * State of a fetched file.
+	 */
+	private static final class FileState {
+		private final String path;
+		private final int version;
+		private final long lastModified;
+		private final long length;
+		
+		FileState(String path, int version, long lastModified, long length) {
+			this.path = path;
+			this.version = version;
+			this.lastModified = lastModified;
+			this.length = length;
+		}
+		
+		boolean isModified(File localFile) {
+			return localFile.lastModified() != lastModified || localFile.length() != length || !localFile.isFile();
+		}
+	}
+
+}
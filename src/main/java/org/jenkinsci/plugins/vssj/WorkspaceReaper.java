@@ -0,0 +1,273 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import jenkins.MasterToSlaveFileCallable;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Cleans directories in the background.
+ * 
+ * The directory to clean is renamed to a tombstone in a directory owned by the
+ * plugin and recreated empty, so the build can continue right away. The tombstone
+ * is deleted by low priority background threads, each thread deleting the files of
+ * one directory and passing sub directories on to the other threads. Only
+ * directories created by the plugin may be cleaned this way; the job workspace
+ * itself is cleaned synchronously.
+ * 
+ * Tombstones left over from a restart are found and deleted when the next directory
+ * is cleaned with the same tombstone directory. If the free disk space is below a
+ * limit, the directory is cleaned synchronously instead.
+ * 
+ * The reaper works on the files of the node it runs on, a workspace is cleaned
+ * with {@link Clean} on the channel of the workspace.
+ * 
+ * @author patlau
+ */
+final class WorkspaceReaper {
+
+	/**
+	 * Name of the tombstone directory in the workspace.
+	 */
+	static final String TOMBSTONE_DIR = ".vssj-tombstones";
+	
+	/**
+	 * Marker in the name of tombstone directories.
+	 */
+	static final String TOMBSTONE_MARKER = ".vssj-tombstone-";
+	
+	private static final long MIN_FREE_SPACE = Long.getLong(WorkspaceReaper.class.getName() + ".minFreeSpace", 1024L * 1024L * 1024L);
+	private static final int THREADS = Integer.getInteger(WorkspaceReaper.class.getName() + ".threads", 2);
+	private static final WorkspaceReaper INSTANCE = new WorkspaceReaper(THREADS, MIN_FREE_SPACE);
+	private static final AtomicInteger TOMBSTONE_COUNT = new AtomicInteger();
+	
+	private final ExecutorService executor;
+	private final long minFreeSpace;
+	private final Set<String> tombstones = Collections.synchronizedSet(new HashSet<String>());
+	
+	WorkspaceReaper(int threads, long minFreeSpace) {
+		this.minFreeSpace = minFreeSpace;
+		this.executor = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "VSS Workspace Reaper " + count.incrementAndGet());
+				thread.setDaemon(true);
+				thread.setPriority(Thread.MIN_PRIORITY);
+				return thread;
+			}
+		});
+	}
+	
+	static WorkspaceReaper getInstance() {
+		return INSTANCE;
+	}
+	
+	/**
+	 * Empty a directory created by the plugin. The directory is moved to a tombstone
+	 * and deleted in the background, or its content is deleted right away if disk
+	 * space is low or the move failed.
+	 * @param dir directory
+	 * @param tombstoneDir directory owned by the plugin for the tombstones, on the
+	 * same file system and not within dir
+	 * @param logger build log
+	 * @return true if the content is deleted in the background
+	 * @throws IOException if delete failed
+	 */
+	boolean clean(File dir, File tombstoneDir, PrintStream logger) throws IOException {
+		File directory = dir.getAbsoluteFile();
+		File tombstoneParent = tombstoneDir.getAbsoluteFile();
+		if (isWithin(tombstoneParent, directory) || !(tombstoneParent.isDirectory() || tombstoneParent.mkdirs())) {
+			FileUtils.cleanDirectory(directory);
+			return false;
+		}
+		reapTombstones(tombstoneParent);
+		
+		long freeSpace = directory.getUsableSpace();
+		if (freeSpace < minFreeSpace) {
+			logger.println("Low disk space (" + (freeSpace / 1024L / 1024L) + " MB), clean synchronously");
+			FileUtils.cleanDirectory(directory);
+			return false;
+		}
+		
+		File tombstone = new File(tombstoneParent, directory.getName() + TOMBSTONE_MARKER
+				+ System.currentTimeMillis() + "-" + TOMBSTONE_COUNT.incrementAndGet());
+		if (!directory.renameTo(tombstone)) {
+			// The directory may be in use
+			FileUtils.cleanDirectory(directory);
+			return false;
+		}
+		if (!directory.mkdirs())
+			throw new IOException("Can not create directory " + directory);
+		reap(tombstone);
+		return true;
+	}
+	
+	/**
+	 * Delete leftover tombstones in the tombstone directory.
+	 * @param tombstoneDir tombstone directory
+	 */
+	void reapTombstones(File tombstoneDir) {
+		File[] files = tombstoneDir.listFiles();
+		if (files == null)
+			return;
+		for (File file : files) {
+			if (file.getName().contains(TOMBSTONE_MARKER) && file.isDirectory())
+				reap(file);
+		}
+	}
+	
+	/**
+	 * Clean a directory with the reaper of the node the directory is on.
+	 */
+	static final class Clean extends MasterToSlaveFileCallable<Boolean> {
+		private static final long serialVersionUID = 1L;
+		
+		private final String tombstoneDir;
+		private final TaskListener listener;
+		
+		/**
+		 * @param tombstoneDir path of the tombstone directory on the node
+		 * @param listener build listener
+		 */
+		Clean(String tombstoneDir, TaskListener listener) {
+			this.tombstoneDir = tombstoneDir;
+			this.listener = listener;
+		}
+		
+		public Boolean invoke(File dir, VirtualChannel channel) throws IOException {
+			return getInstance().clean(dir, new File(tombstoneDir), listener.getLogger());
+		}
+	}
+	
+	private static boolean isWithin(File file, File dir) {
+		for (File f = file; f != null; f = f.getParentFile()) {
+			if (f.equals(dir))
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Wait until all tombstones are deleted.
+	 * @param timeout maximum time to wait
+	 * @param unit unit of timeout
+	 * @return true if all tombstones are deleted
+	 * @throws InterruptedException if interrupted
+	 */
+	boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+		long end = System.nanoTime() + unit.toNanos(timeout);
+		synchronized (tombstones) {
+			while (!tombstones.isEmpty()) {
+				long wait = TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime());
+				if (wait <= 0)
+					return false;
+				tombstones.wait(wait);
+			}
+		}
+		return true;
+	}
+	
+	private void reap(File tombstone) {
+		if (!tombstones.add(tombstone.getPath()))
+			return;
+		delete(tombstone, null);
+	}
+	
+	private void reaped(File tombstone) {
+		synchronized (tombstones) {
+			tombstones.remove(tombstone.getPath());
+			tombstones.notifyAll();
+		}
+	}
+	
+	private void delete(final File dir, final Node parent) {
+		executor.execute(new Runnable() {
+			public void run() {
+				Node node = new Node(dir, parent);
+				File[] files = dir.listFiles();
+				if (files != null) {
+					for (File file : files) {
+						if (file.isDirectory() && !isSymlink(file)) {
+							node.pending.incrementAndGet();
+							delete(file, node);
+						} else {
+							file.delete();
+						}
+					}
+				}
+				node.done();
+			}
+		});
+	}
+	
+	private static boolean isSymlink(File file) {
+		try {
+			File canonical = new File(file.getParentFile().getCanonicalFile(), file.getName());
+			return !canonical.getCanonicalFile().equals(canonical.getAbsoluteFile());
+		} catch (IOException e) {
+			// Do not follow the directory if in doubt
+			return true;
+		}
+	}
+	
+	/**
+	 * Directory being deleted, deleted itself when all sub directories are deleted.
+	 */
+	private final class Node {
+		private final File dir;
+		private final Node parent;
+		private final AtomicInteger pending = new AtomicInteger(1);
+		
+		Node(File dir, Node parent) {
+			this.dir = dir;
+			this.parent = parent;
+		}
+		
+		void done() {
+			if (pending.decrementAndGet() > 0)
+				return;
+			dir.delete();
+			if (parent != null)
+				parent.done();
+			else
+				reaped(dir);
+		}
+	}
+
+}
@@ -0,0 +1,70 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import hudson.model.User;
+
+import org.junit.Test;
+
+public class AuthorResolverTest {
+
+	@Test
+	public void testMapping() {
+		AuthorResolver resolver = new AuthorResolver(60000L);
+		resolver.setMapping("# VSS logins\nUserA = a.smith\r\n\nuserb=\ninvalid\n");
+		assertEquals("a.smith", resolver.getUserId("usera"));
+		assertEquals("a.smith", resolver.getUserId("USERA"));
+		assertEquals("userb", resolver.getUserId("userb"));
+		assertEquals("invalid", resolver.getUserId("invalid"));
+		
+		User user = resolver.resolve("usera");
+		assertSame(user, resolver.resolve("UserA"));
+		resolver.setMapping("usera=andrew");
+		assertNotSame(user, resolver.resolve("usera"));
+	}
+	
+	@Test
+	public void testOncePerChangeLogSet() {
+		List<VssChangeLogEntry> entries = new ArrayList<VssChangeLogEntry>();
+		for (int i = 0; i < 100; i++) {
+			VssJournalEntry record = new VssJournalEntry();
+			record.setFilename("$/P/File" + i + ".txt");
+			record.setUser("user" + (i % 3));
+			entries.add(new VssChangeLogEntry(record));
+		}
+		AuthorResolver.getInstance().invalidate();
+		VssChangeLogSet set = new VssChangeLogSet(null, null, entries);
+		assertSame(entries.get(0).getAuthor(), entries.get(99).getAuthor());
+		assertNotSame(entries.get(0).getAuthor(), entries.get(1).getAuthor());
+		
+		// Cached across change log sets
+		User author = entries.get(1).getAuthor();
+		assertSame(author, new VssChangeLogSet(null, null, entries.subList(1, 2)).getAuthor("user1"));
+		assertSame(author, set.getAuthor("user1"));
+	}
+}
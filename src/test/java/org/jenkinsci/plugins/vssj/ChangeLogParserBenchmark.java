@@ -0,0 +1,135 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import hudson.util.Digester2;
+
+import org.apache.commons.digester.Digester;
+
+import org.xml.sax.SAXException;
+
+/**
+ * Compares the StAX change log parser with the former Digester based parser.
+ * 
+ * Not run as part of the tests, start with:
+ * java -cp ... org.jenkinsci.plugins.vssj.ChangeLogParserBenchmark [entries] [iterations]
+ * 
+ * @author patlau
+ */
+public final class ChangeLogParserBenchmark {
+
+	private ChangeLogParserBenchmark() {
+	}
+	
+	public static void main(String[] args) throws IOException, SAXException {
+		int entries = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		
+		File file = File.createTempFile("vss-changelog", ".xml");
+		file.deleteOnExit();
+		writeChangeLog(file, entries);
+		System.out.println("Change log with " + entries + " entries: " + file.length() + " bytes");
+		
+		VssChangeLogParser parser = new VssChangeLogParser();
+		// Warm up
+		for (int i = 0; i < 3; i++) {
+			check(entries, parser.parseFile(file));
+			check(entries, parseDigester(file));
+		}
+		
+		long stax = 0L;
+		long digester = 0L;
+		for (int i = 0; i < iterations; i++) {
+			long start = System.nanoTime();
+			check(entries, parser.parseFile(file));
+			stax += System.nanoTime() - start;
+			
+			start = System.nanoTime();
+			check(entries, parseDigester(file));
+			digester += System.nanoTime() - start;
+		}
+		System.out.println(String.format("StAX:     %8.1f ms/parse", stax / 1e6 / iterations));
+		System.out.println(String.format("Digester: %8.1f ms/parse", digester / 1e6 / iterations));
+	}
+	
+	private static void check(int entries, List<VssJournalEntry> list) {
+		if (list.size() != entries)
+			throw new IllegalStateException("Expected " + entries + " entries, got " + list.size());
+	}
+	
+	private static void writeChangeLog(File file, int entries) throws IOException {
+		ChangeLogWriter writer = new ChangeLogWriter(new FileOutputStream(file));
+		try {
+			writer.startLog();
+			long timestamp = CalendarUtils.midnight().getTimeInMillis();
+			for (int i = 0; i < entries; i++) {
+				VssJournalEntry entry = new VssJournalEntry();
+				entry.setFilename("$/PROJECT" + (i % 7) + "/src/dir" + (i % 100) + "/File" + i + ".java");
+				entry.setVersion(String.valueOf(i % 50 + 1));
+				entry.setUser("user" + (i % 13));
+				entry.setTimestamp(timestamp + (i / 10) * 60000L);
+				entry.setAction("File" + i + ".java eingecheckt");
+				if (i % 3 == 0)
+					entry.setComment("Comment & fix for issue " + i);
+				writer.writeEntry(entry);
+			}
+			writer.endLog();
+		} finally {
+			writer.close();
+		}
+	}
+	
+	/**
+	 * Change log parser as implemented before the StAX parser.
+	 */
+	private static List<VssJournalEntry> parseDigester(File changelogFile) throws IOException, SAXException {
+		List<VssJournalEntry> changeList = new ArrayList<VssJournalEntry>();
+		Digester digester = new Digester2();
+		digester.push(changeList);
+	
+		digester.addObjectCreate("*/change", VssJournalEntry.class);
+		digester.addBeanPropertySetter("*/change/action");
+		digester.addBeanPropertySetter("*/change/comment");
+		digester.addBeanPropertySetter("*/change/user");
+		digester.addBeanPropertySetter("*/change/filename");
+		digester.addBeanPropertySetter("*/change/version");
+		digester.addBeanPropertySetter("*/change/date", "datetimeString");
+		digester.addSetNext("*/change", "add");
+	
+		FileReader reader = new FileReader(changelogFile);
+		try {
+			digester.parse(reader);
+		} finally {
+			reader.close();
+		}
+		return changeList;
+	}
+
+}
@@ -0,0 +1,111 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+public class ChangesetGrouperTest {
+
+	private static final long MINUTE = 60000L;
+	
+	private static VssJournalEntry record(String filename, String user, long timestamp, String comment) {
+		VssJournalEntry entry = new VssJournalEntry();
+		entry.setFilename(filename);
+		entry.setVersion("2");
+		entry.setUser(user);
+		entry.setTimestamp(timestamp);
+		entry.setAction("eingecheckt");
+		entry.setComment(comment);
+		return entry;
+	}
+	
+	@Test
+	public void testGroup() {
+		List<VssJournalEntry> records = new ArrayList<VssJournalEntry>();
+		records.add(record("$/P/A.txt", "usera", 0, "fix"));
+		records.add(record("$/P/B.txt", "usera", MINUTE, "fix"));
+		// Other user in between does not split the changeset
+		records.add(record("$/P/C.txt", "userb", MINUTE, "fix"));
+		records.add(record("$/P/D.txt", "usera", 2 * MINUTE, "fix"));
+		// Other comment
+		records.add(record("$/P/E.txt", "usera", 2 * MINUTE, null));
+		// Gap larger than window
+		records.add(record("$/P/F.txt", "usera", 10 * MINUTE, "fix"));
+		
+		List<List<VssJournalEntry>> changesets = ChangesetGrouper.group(records, 2 * MINUTE);
+		assertEquals(4, changesets.size());
+		assertEquals(3, changesets.get(0).size());
+		assertEquals("$/P/D.txt", changesets.get(0).get(2).getFilename());
+		assertEquals("$/P/C.txt", changesets.get(1).get(0).getFilename());
+		assertEquals("$/P/E.txt", changesets.get(2).get(0).getFilename());
+		assertEquals("$/P/F.txt", changesets.get(3).get(0).getFilename());
+		
+		assertEquals(6, ChangesetGrouper.group(records, -1L).size());
+	}
+	
+	@Test
+	public void testWriteAndParse() throws IOException, XMLStreamException {
+		List<VssJournalEntry> records = new ArrayList<VssJournalEntry>();
+		for (int i = 0; i < 500; i++) {
+			records.add(record("$/P/File" + i + ".txt", "usera", (i / 100) * MINUTE, "big & bold"));
+		}
+		records.add(record("$/P/Other.txt", "userb", 4 * MINUTE, null));
+		
+		StringWriter xml = new StringWriter();
+		ChangeLogWriter writer = new ChangeLogWriter(xml);
+		writer.startLog();
+		for (List<VssJournalEntry> changeset : ChangesetGrouper.group(records, 2 * MINUTE)) {
+			writer.writeChangeset(changeset);
+		}
+		writer.endLog();
+		
+		List<VssJournalEntry> parsed = new VssChangeLogParser().parse(new StringReader(xml.toString()));
+		assertEquals(501, parsed.size());
+		VssJournalEntry e = parsed.get(250);
+		assertEquals("$/P/File250.txt", e.getFilename());
+		assertEquals("usera", e.getUser());
+		assertEquals("big & bold", e.getComment());
+		assertEquals(2 * MINUTE, e.getTimestamp());
+		assertEquals("userb", parsed.get(500).getUser());
+		assertNull(parsed.get(500).getComment());
+		
+		List<List<VssJournalEntry>> changesets = ChangesetGrouper.group(parsed, 2 * MINUTE);
+		assertEquals(2, changesets.size());
+		VssChangeLogEntry entry = new VssChangeLogEntry(changesets.get(0));
+		assertEquals(500, entry.getFileCount());
+		assertEquals(500, entry.getAffectedPaths().size());
+		assertEquals("big & bold", entry.getMsg());
+		assertEquals("P/File0.txt", entry.getAffectedFiles().iterator().next().getPath());
+		assertEquals("$/P/Other.txt", new VssChangeLogEntry(changesets.get(1)).getMsg());
+	}
+}
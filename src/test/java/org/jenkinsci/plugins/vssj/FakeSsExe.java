@@ -0,0 +1,68 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Executable shell script standing in for ss.exe in tests.
+ * 
+ * The script is called as "ss GET project options", waits the given delay and
+ * prints the project. Projects containing FAIL exit with an error right away.
+ * 
+ * @author patlau
+ */
+final class FakeSsExe {
+
+	private FakeSsExe() {
+	}
+	
+	/**
+	 * Create the script.
+	 * @param dir directory of the script
+	 * @param delayMillis delay of each get in milliseconds
+	 * @return script file
+	 * @throws IOException on write errors
+	 */
+	static File create(File dir, long delayMillis) throws IOException {
+		File script = new File(dir, "fake-ss.sh");
+		FileUtils.writeStringToFile(script, "#!/bin/sh\n"
+			+ "case \"$2\" in *FAIL*) echo \"$2 not found\" >&2; exit 100;; esac\n"
+			+ "sleep " + (delayMillis / 1000.0) + "\n"
+			+ "echo \"$1 $2\"\n", "UTF-8");
+		if (!script.setExecutable(true))
+			throw new IOException("Can not make " + script + " executable");
+		return script;
+	}
+	
+	/**
+	 * Check if the script can be run.
+	 */
+	static boolean isSupported() {
+		return File.pathSeparatorChar == ':';
+	}
+
+}
@@ -0,0 +1,156 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+
+public class IncrementalGetTest {
+
+	private static VssJournalEntry entry(String filename, String action) {
+		VssJournalEntry e = new VssJournalEntry();
+		e.setFilename(filename);
+		e.setAction(action);
+		return e;
+	}
+	
+	@Test
+	public void testPlan() {
+		IncrementalGet plan = new IncrementalGet(new String[] {"$/PROJECT1", "$\\Project2\\"}, new Locale("de"));
+		plan.addAll(Arrays.asList(
+			entry("$/PROJECT1/dir/File.cls", "Eingecheckt"),
+			entry("$/PROJECT1/dir/File.cls", "Eingecheckt"),
+			entry("$/project1/DIR/Other.cls", "Eingecheckt"),
+			entry("$/PROJECT1/File.txt", "Eingecheckt"),
+			entry("$/PROJECT2/dir/b", "File1.txt in File2.txt umbenannt"),
+			entry("$/PROJECT2/dir/b/sub/File.txt", "Eingecheckt"),
+			entry("$/PROJECT2/dir/c.txt", "Eingecheckt"),
+			entry("$/PROJECT3/File.txt", "Eingecheckt")));
+		
+		List<IncrementalGet.Target> targets = plan.getTargets();
+		assertEquals(4, targets.size());
+		
+		IncrementalGet.Target t = targets.get(0);
+		assertEquals("$/PROJECT1", t.getProject());
+		assertEquals("/dir", t.getRelativePath());
+		assertFalse(t.isRecursive());
+		assertEquals(Arrays.asList("$/PROJECT1/dir/File.cls", "$/project1/DIR/Other.cls"), t.getFiles());
+		
+		t = targets.get(1);
+		assertEquals("", t.getRelativePath());
+		assertEquals(Arrays.asList("$/PROJECT1/File.txt"), t.getFiles());
+		
+		t = targets.get(2);
+		assertEquals("$/Project2", t.getProject());
+		assertEquals("$/PROJECT2/dir/b", t.getVssPath());
+		assertTrue(t.isRecursive());
+		assertTrue(t.getFiles().isEmpty());
+		
+		// $/PROJECT2/dir/b/sub is fetched recursively with $/PROJECT2/dir/b
+		assertEquals("$/PROJECT2/dir", targets.get(3).getVssPath());
+	}
+	
+	@Test
+	public void testRollbackAndLabel() {
+		File f = new File("src/test/resources/vss.log");
+		VssJournalEntry rollback = null;
+		// The test journal is UTF-8 encoded
+		VssJournal journal = new VssJournal(new Locale("de"));
+		journal.setCharset("UTF-8");
+		for (VssJournalEntry e : journal.readJournal(f, VssProjectMatcher.ALL).getEntries()) {
+			if (e.getAction().equals("Version zur\u00fcckgesetzt"))
+				rollback = e;
+		}
+		assertEquals("$/PROJECT1/dir/File.cls", rollback.getFilename());
+		
+		IncrementalGet plan = new IncrementalGet(new String[] {"$/PROJECT1", "$/PROJECT2"}, new Locale("de"));
+		assertTrue(plan.isFileRecord(rollback));
+		plan.add(rollback);
+		List<IncrementalGet.Target> targets = plan.getTargets();
+		assertEquals(1, targets.size());
+		assertEquals("$/PROJECT1/dir", targets.get(0).getVssPath());
+		assertFalse(targets.get(0).isRecursive());
+		assertEquals(Arrays.asList("$/PROJECT1/dir/File.cls"), targets.get(0).getFiles());
+		assertEquals(35, targets.get(0).getVersion("$/PROJECT1/dir/File.cls"));
+		
+		// A label may be recorded on a file or a project, the containing project is fetched
+		plan.add(entry("$/PROJECT2/dir/File.txt", "Bezeichnet als Release 1"));
+		plan.add(entry("$/PROJECT2", "Bezeichnet als Release 1"));
+		plan.add(entry("$/PROJECT2/sub", "File.txt hinzugef\u00fcgt"));
+		targets = plan.getTargets();
+		assertEquals(2, targets.size());
+		assertEquals("$/PROJECT2", targets.get(1).getVssPath());
+		assertTrue(targets.get(1).isRecursive());
+		assertFalse(plan.isFileRecord(entry("$/PROJECT2", "Bezeichnet als Release 1")));
+	}
+	
+	@Test
+	public void testBatch() {
+		List<String> items = new ArrayList<String>();
+		for (int i = 0; i < 1000; i++) {
+			items.add("$/PROJECT/dir/File" + i + ".txt");
+		}
+		List<List<String>> batches = IncrementalGet.batch(items, IncrementalGet.MAX_ITEMS_LENGTH);
+		assertTrue(batches.size() > 1);
+		int count = 0;
+		for (List<String> batch : batches) {
+			int length = 0;
+			for (String item : batch) {
+				length += item.length() + 3;
+			}
+			assertTrue(length <= IncrementalGet.MAX_ITEMS_LENGTH);
+			count += batch.size();
+		}
+		assertEquals(items.size(), count);
+	}
+
+	@Test
+	public void testRemovedPaths() {
+		IncrementalGet plan = new IncrementalGet(new String[] {"$/PROJECT1", "$/PROJECT2"}, new Locale("de"));
+		plan.addAll(Arrays.asList(
+			entry("$/PROJECT1/Atlas", "File.cls gel\u00f6scht"),
+			entry("$/PROJECT1/dir/b", "File1.txt in File2.txt umbenannt"),
+			entry("$/PROJECT2/dir/v", "File.cls zerst\u00f6rt"),
+			entry("$/PROJECT1/dir", "sub verschoben nach $/PROJECT3/sub"),
+			entry("$/", "PROJECT2 zerst\u00f6rt"),
+			entry("$/PROJECT3", "File.txt gel\u00f6scht"),
+			entry("$/PROJECT1/dir/a", "a hinzugef\u00fcgt"),
+			entry("$/PROJECT1/dir/File.cls", "Eingecheckt")));
+		assertEquals(Arrays.asList("$/PROJECT1/Atlas/File.cls", "$/PROJECT1/dir/b/File1.txt",
+				"$/PROJECT2/dir/v/File.cls", "$/PROJECT1/dir/sub"), plan.getRemovedPaths());
+		
+		// Deletes need no get, $/PROJECT1/dir contains all other changes
+		List<IncrementalGet.Target> targets = plan.getTargets();
+		assertEquals(1, targets.size());
+		assertEquals("$/PROJECT1/dir", targets.get(0).getVssPath());
+		assertTrue(targets.get(0).isRecursive());
+	}
+
+}
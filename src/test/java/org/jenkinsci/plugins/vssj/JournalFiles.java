@@ -0,0 +1,85 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Journal records and segments for tests, in the format of vss-journal_de.properties.
+ * 
+ * @author patlau
+ */
+final class JournalFiles {
+
+	/**
+	 * Journal charset of the German locale.
+	 */
+	static final String CHARSET = "windows-1252";
+	
+	private JournalFiles() {
+	}
+	
+	/**
+	 * Check-in record of user UserY on 18.11.14 10:00.
+	 * @param filename VSS path
+	 * @return record with the terminating blank line
+	 */
+	static String record(String filename) {
+		return record(filename, "18.11.14", "10:00");
+	}
+	
+	/**
+	 * Check-in record of user UserY.
+	 * @param filename VSS path
+	 * @param date date, e.g. 18.11.14
+	 * @param time time, e.g. 10:00
+	 * @return record with the terminating blank line
+	 */
+	static String record(String filename, String date, String time) {
+		return filename + "\r\nVersion: 1\r\nBenutzer: UserY         Datum: " + date + "  Uhrzeit: " + time
+				+ "\r\nEingecheckt\r\n\r\n";
+	}
+	
+	/**
+	 * Compress a segment like a rotation with gzip, the uncompressed file is deleted.
+	 * @param from uncompressed segment
+	 * @param to compressed segment
+	 * @throws IOException on read or write errors
+	 */
+	static void gzip(File from, File to) throws IOException {
+		OutputStream out = new GZIPOutputStream(new FileOutputStream(to));
+		try {
+			FileUtils.copyFile(from, out);
+		} finally {
+			out.close();
+		}
+		FileUtils.forceDelete(from);
+	}
+
+}
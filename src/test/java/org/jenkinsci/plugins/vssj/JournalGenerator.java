@@ -0,0 +1,201 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Calendar;
+import java.util.Random;
+
+/**
+ * Writes a synthetic SourceSafe journal in the format of vss-journal_de.properties.
+ * The journal only depends on the seed and the settings, so benchmark runs with the
+ * same settings read the same journal.
+ * 
+ * Records are written in changesets of one user with increasing timestamps. Most
+ * records are check-ins, some add, delete or rename files.
+ * 
+ * Start with:
+ * java -cp ... org.jenkinsci.plugins.vssj.JournalGenerator file [records] [projects] [commentRatio]
+ * 
+ * @author patlau
+ */
+public final class JournalGenerator {
+
+	/**
+	 * Journal charset of the German locale.
+	 */
+	public static final String CHARSET = "windows-1252";
+	
+	private static final int DIRS_PER_PROJECT = 20;
+	private static final int FILES_PER_DIR = 50;
+	private static final int USERS = 25;
+	private static final int MAX_CHANGESET_SIZE = 8;
+	
+	private final long seed;
+	private int projects = 10;
+	private double commentRatio = 0.3;
+	private long startTime;
+	
+	/**
+	 * Create generator.
+	 * @param seed random seed
+	 */
+	public JournalGenerator(long seed) {
+		this.seed = seed;
+		Calendar start = Calendar.getInstance();
+		start.clear();
+		start.set(2014, Calendar.JANUARY, 1, 8, 0);
+		this.startTime = start.getTimeInMillis();
+	}
+	
+	public static void main(String[] args) throws IOException {
+		File file = new File(args[0]);
+		int records = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		JournalGenerator generator = new JournalGenerator(1L);
+		if (args.length > 2)
+			generator.setProjects(Integer.parseInt(args[2]));
+		if (args.length > 3)
+			generator.setCommentRatio(Double.parseDouble(args[3]));
+		generator.write(file, records);
+		System.out.println(records + " records written to " + file + ": " + file.length() + " bytes");
+	}
+	
+	/**
+	 * Number of projects $/PROJECT0 to $/PROJECTn the records are spread over.
+	 */
+	public void setProjects(int projects) {
+		this.projects = projects;
+	}
+	
+	/**
+	 * Fraction of changesets with a comment, 0 to 1.
+	 */
+	public void setCommentRatio(double commentRatio) {
+		this.commentRatio = commentRatio;
+	}
+	
+	/**
+	 * Date of the first record.
+	 */
+	public void setStartTime(long startTime) {
+		this.startTime = startTime;
+	}
+	
+	/**
+	 * Name of the project with the given number.
+	 */
+	public static String getProject(int project) {
+		return "$/PROJECT" + project;
+	}
+	
+	/**
+	 * Write a journal file.
+	 * @param file journal file
+	 * @param records number of records
+	 * @throws IOException on write errors
+	 */
+	public void write(File file, int records) throws IOException {
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), CHARSET), 64 * 1024);
+		try {
+			write(writer, records);
+		} finally {
+			writer.close();
+		}
+	}
+	
+	/**
+	 * Write journal records.
+	 * @param writer journal writer
+	 * @param records number of records
+	 * @throws IOException on write errors
+	 */
+	public void write(Writer writer, int records) throws IOException {
+		Random random = new Random(seed);
+		Calendar date = Calendar.getInstance();
+		long time = startTime;
+		int written = 0;
+		while (written < records) {
+			// One changeset of a user in one project directory
+			int changeset = Math.min(1 + random.nextInt(MAX_CHANGESET_SIZE), records - written);
+			String user = "User" + random.nextInt(USERS);
+			String dir = getProject(random.nextInt(projects)) + "/dir" + random.nextInt(DIRS_PER_PROJECT);
+			String comment = random.nextDouble() < commentRatio ? "Ticket-" + random.nextInt(10000) + " fixed" : null;
+			time += (1 + random.nextInt(30)) * 60000L;
+			date.setTimeInMillis(time);
+			String header = header(user, date);
+			for (int i = 0; i < changeset; i++) {
+				int file = random.nextInt(FILES_PER_DIR);
+				writeRecord(writer, random, dir, "File" + file + ".txt", header, comment);
+			}
+			written += changeset;
+		}
+	}
+	
+	private static void writeRecord(Writer writer, Random random, String dir, String name, String header, String comment) throws IOException {
+		int kind = random.nextInt(100);
+		if (kind < 5) {
+			// Adding a file is a record of the directory
+			writer.write(dir + "\r\nVersion: " + (1 + random.nextInt(200)) + "\r\n" + header + name + " hinzugef\u00fcgt\r\n");
+		} else if (kind < 8) {
+			writer.write(dir + "\r\nVersion: " + (1 + random.nextInt(200)) + "\r\n" + header + name + " gel\u00f6scht\r\n");
+		} else if (kind < 10) {
+			writer.write(dir + "\r\nVersion: " + (1 + random.nextInt(200)) + "\r\n" + header + name + " in New" + name + " umbenannt\r\n");
+		} else {
+			writer.write(dir + "/" + name + "\r\nVersion: " + (1 + random.nextInt(100)) + "\r\n" + header + "Eingecheckt\r\n");
+		}
+		writeEnd(writer, comment);
+	}
+	
+	/**
+	 * Write a check-in record.
+	 * @param writer journal writer
+	 * @param filename file name
+	 * @param version file version
+	 * @param user VSS user
+	 * @param date check-in date
+	 * @param comment comment or null
+	 * @throws IOException on write errors
+	 */
+	public static void writeCheckin(Writer writer, String filename, String version, String user, Calendar date, String comment) throws IOException {
+		writer.write(filename + "\r\nVersion: " + version + "\r\n" + header(user, date) + "Eingecheckt\r\n");
+		writeEnd(writer, comment);
+	}
+	
+	private static void writeEnd(Writer writer, String comment) throws IOException {
+		if (comment != null)
+			writer.write("Kommentar: " + comment + "\r\n");
+		writer.write("\r\n");
+	}
+	
+	private static String header(String user, Calendar date) {
+		return String.format("Benutzer: %-16sDatum: %2d.%02d.%02d  Uhrzeit:  %2d:%02d\r\n", user,
+				date.get(Calendar.DAY_OF_MONTH), date.get(Calendar.MONTH) + 1, date.get(Calendar.YEAR) % 100,
+				date.get(Calendar.HOUR_OF_DAY), date.get(Calendar.MINUTE));
+	}
+	
+}
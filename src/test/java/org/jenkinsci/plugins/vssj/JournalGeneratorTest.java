@@ -0,0 +1,63 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class JournalGeneratorTest {
+
+	@Test
+	public void testGenerate() throws IOException {
+		File dir = new File("target/test-generator");
+		FileUtils.deleteQuietly(dir);
+		dir.mkdirs();
+		File f1 = new File(dir, "vss1.log");
+		File f2 = new File(dir, "vss2.log");
+		JournalGenerator generator = new JournalGenerator(42L);
+		generator.setProjects(3);
+		generator.setCommentRatio(1.0);
+		generator.write(f1, 1000);
+		generator.write(f2, 1000);
+		assertTrue(FileUtils.contentEquals(f1, f2));
+		
+		VssJournal journal = new VssJournal(new Locale("de")).readJournal(f1, VssProjectMatcher.ALL);
+		assertEquals(1000, journal.size());
+		long last = VssJournalEntry.NO_DATETIME;
+		for (VssJournalEntry entry : journal.getEntries()) {
+			assertTrue(entry.getTimestamp() != VssJournalEntry.NO_DATETIME && entry.getTimestamp() >= last);
+			last = entry.getTimestamp();
+			assertNotNull(entry.getComment());
+		}
+		int project3 = journal.filter(VssProjectMatcher.compile(new String[] {JournalGenerator.getProject(3)})).size();
+		assertEquals(0, project3);
+		int project0 = journal.filter(VssProjectMatcher.compile(new String[] {JournalGenerator.getProject(0)})).size();
+		assertTrue(project0 > 0 && project0 < 1000);
+	}
+}
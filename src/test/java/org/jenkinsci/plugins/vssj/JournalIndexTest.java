@@ -0,0 +1,238 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import static org.jenkinsci.plugins.vssj.JournalFiles.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class JournalIndexTest {
+
+	private static final Locale DE = new Locale("de");
+	
+	private static JournalIndex createIndex(String name) throws IOException {
+		File dir = new File("target/" + name);
+		FileUtils.deleteQuietly(dir);
+		File f = new File(dir, "vss.log");
+		FileUtils.copyFile(new File("src/test/resources/vss.log"), f);
+		return new JournalIndex(f, DE, new File(dir, "index/vss.idx"));
+	}
+	
+	@Test
+	public void testQueries() throws IOException {
+		JournalIndex index = createIndex("test-index");
+		File f = new File("target/test-index/vss.log");
+		List<VssJournalEntry> all = new VssJournal(DE).readJournal(f, VssProjectMatcher.ALL).getEntries();
+		assertEquals(all.size(), index.update());
+		assertEquals(0, index.update());
+		assertEquals(all.size(), index.size());
+		
+		long[] project4 = index.findRange(Long.MIN_VALUE, Long.MAX_VALUE, "$/project4");
+		List<VssJournalEntry> entries = index.readEntries(project4);
+		assertEquals(project4.length, entries.size());
+		int expected = 0;
+		for (VssJournalEntry e : all) {
+			if (e.getFilename().startsWith("$/PROJECT4/"))
+				expected++;
+		}
+		assertEquals(expected, entries.size());
+		assertTrue(entries.get(0).getFilename().startsWith("$/PROJECT4/"));
+		assertEquals(0, index.findRange(Long.MIN_VALUE, Long.MAX_VALUE, "$/NONE").length);
+		
+		VssJournalEntry last = all.get(all.size() - 1);
+		long[] range = index.findRange(last.getTimestamp() - 1, last.getTimestamp(), null);
+		assertTrue(range.length > 0);
+		
+		List<VssJournalEntry> history = index.readEntries(index.findPath(last.getFilename().toLowerCase()));
+		assertEquals(last.getFilename(), history.get(history.size() - 1).getFilename());
+		assertEquals(last.getVersion(), history.get(history.size() - 1).getVersion());
+		
+		// Date ranges in the middle of the journal
+		VssJournalEntry middle = all.get(all.size() / 2);
+		int after = 0;
+		int pathAfter = 0;
+		for (VssJournalEntry e : all) {
+			if (e.getTimestamp() > middle.getTimestamp()) {
+				after++;
+				if (e.getFilename().equalsIgnoreCase(last.getFilename()))
+					pathAfter++;
+			}
+		}
+		assertEquals(after, index.findRange(middle.getTimestamp(), Long.MAX_VALUE, null).length);
+		assertEquals(all.size() - after, index.findRange(Long.MIN_VALUE, middle.getTimestamp(), null).length);
+		assertEquals(pathAfter, VssRootAction.getPathEntries(index, last.getFilename(), middle.getTimestamp()).size());
+		assertEquals(history.size(), VssRootAction.getPathEntries(index, last.getFilename(), null).size());
+		assertEquals(0, index.findPath(last.getFilename(), last.getTimestamp()).length);
+		
+		// Reloaded from disk
+		JournalIndex reloaded = new JournalIndex(f, DE, new File("target/test-index/index/vss.idx"));
+		assertEquals(all.size(), reloaded.size());
+		assertArrayEquals(project4, reloaded.findRange(Long.MIN_VALUE, Long.MAX_VALUE, "$/PROJECT4/dir"));
+	}
+	
+	@Test
+	public void testAppendAndRotate() throws IOException {
+		JournalIndex index = createIndex("test-index-rotate");
+		File f = new File("target/test-index-rotate/vss.log");
+		int size = index.update();
+		
+		String record = "$/PROJECT9/New.txt\r\nVersion: 1\r\nBenutzer: UserY         Datum: 18.11.14  Uhrzeit: 10:00\r\nEingecheckt\r\n\r\n";
+		FileUtils.writeStringToFile(f, "\r\n" + record, "windows-1252", true);
+		assertEquals(1, index.update());
+		assertEquals(size + 1, index.size());
+		assertEquals(1, index.findRange(Long.MIN_VALUE, Long.MAX_VALUE, "$/PROJECT9").length);
+		
+		// Replaced journal
+		FileUtils.writeStringToFile(f, record + record, "windows-1252");
+		assertEquals(2, index.update());
+		assertEquals(2, index.size());
+		assertEquals(2, index.findPath("$/PROJECT9/New.txt").length);
+		assertEquals(0, index.findRange(Long.MIN_VALUE, Long.MAX_VALUE, "$/PROJECT4").length);
+	}
+	
+	@Test
+	public void testCarryOverRotation() throws IOException {
+		JournalIndex index = createIndex("test-index-archives");
+		File dir = new File("target/test-index-archives");
+		File f = new File(dir, "vss.log");
+		int size = index.update();
+		long[] project4 = index.findRange(Long.MIN_VALUE, Long.MAX_VALUE, "$/PROJECT4");
+		
+		// Rotated after a record was appended
+		FileUtils.writeStringToFile(f, "\r\n" + record("$/PROJECT9/A.txt"), "windows-1252", true);
+		assertTrue(f.renameTo(new File(dir, "vss.log.1")));
+		FileUtils.writeStringToFile(f, record("$/PROJECT9/B.txt"), "windows-1252");
+		assertEquals(2, index.update());
+		assertEquals(size + 2, index.size());
+		assertEquals(project4.length, index.findRange(Long.MIN_VALUE, Long.MAX_VALUE, "$/PROJECT4").length);
+		long[] project9 = index.findRange(Long.MIN_VALUE, Long.MAX_VALUE, "$/PROJECT9");
+		List<VssJournalEntry> entries = index.readEntries(project9);
+		assertEquals(2, entries.size());
+		assertEquals("$/PROJECT9/A.txt", entries.get(0).getFilename());
+		assertEquals("$/PROJECT9/B.txt", entries.get(1).getFilename());
+		
+		// Rotated and compressed again, the live journal is empty
+		gzip(new File(dir, "vss.log.1"), new File(dir, "vss.log.2.gz"));
+		assertTrue(f.renameTo(new File(dir, "vss.log.1")));
+		FileUtils.writeStringToFile(f, "", "windows-1252");
+		assertEquals(0, index.update());
+		assertEquals(size + 2, index.size());
+		assertEquals(project4.length, index.readEntries(index.findRange(Long.MIN_VALUE, Long.MAX_VALUE, "$/PROJECT4")).size());
+		entries = index.readEntries(index.findPath("$/PROJECT9/B.txt"));
+		assertEquals(1, entries.size());
+		assertEquals("$/PROJECT9/B.txt", entries.get(0).getFilename());
+		
+		// Reloaded from disk and rebuilt from all segments
+		JournalIndex reloaded = new JournalIndex(f, DE, new File(dir, "index/vss.idx"));
+		assertEquals(size + 2, reloaded.size());
+		assertEquals(2, reloaded.readEntries(reloaded.findRange(Long.MIN_VALUE, Long.MAX_VALUE, "$/PROJECT9")).size());
+		JournalIndex rebuilt = new JournalIndex(f, DE, new File(dir, "index/rebuilt.idx"));
+		assertEquals(size + 2, rebuilt.update());
+		assertArrayEquals(index.findRange(Long.MIN_VALUE, Long.MAX_VALUE, null),
+				rebuilt.findRange(Long.MIN_VALUE, Long.MAX_VALUE, null));
+		
+		FileUtils.writeStringToFile(f, record("$/PROJECT9/C.txt"), "windows-1252");
+		assertEquals(1, index.update());
+		entries = index.readEntries(index.findRange(Long.MIN_VALUE, Long.MAX_VALUE, "$/PROJECT9"));
+		assertEquals(3, entries.size());
+		assertEquals("$/PROJECT9/C.txt", entries.get(2).getFilename());
+	}
+	
+	@Test
+	public void testUpdateIfRotated() throws IOException {
+		JournalIndex index = createIndex("test-index-stale");
+		File dir = new File("target/test-index-stale");
+		File f = new File(dir, "vss.log");
+		index.update();
+		assertFalse(index.updateIfRotated());
+		FileUtils.writeStringToFile(f, "\r\n" + record("$/PROJECT9/A.txt"), "windows-1252", true);
+		assertFalse(index.updateIfRotated());
+		index.update();
+		long[] project4 = index.findRange(Long.MIN_VALUE, Long.MAX_VALUE, "$/PROJECT4");
+		
+		// Rotated before the index was updated, the records are in the archive now
+		assertTrue(f.renameTo(new File(dir, "vss.log.1")));
+		FileUtils.writeStringToFile(f, record("$/PROJECT9/B.txt") + record("$/PROJECT9/C.txt"), "windows-1252");
+		assertTrue(index.updateIfRotated());
+		assertFalse(index.updateIfRotated());
+		List<VssJournalEntry> entries = index.readEntries(project4);
+		assertEquals(project4.length, entries.size());
+		assertTrue(entries.get(0).getFilename().startsWith("$/PROJECT4/"));
+		assertEquals(3, index.readEntries(index.findRange(Long.MIN_VALUE, Long.MAX_VALUE, "$/PROJECT9")).size());
+	}
+	
+	@Test
+	public void testUpdateLater() throws IOException, InterruptedException {
+		JournalIndex index = createIndex("test-index-later");
+		File f = new File("target/test-index-later/vss.log");
+		int size = new VssJournal(DE).readJournal(f, VssProjectMatcher.ALL).size();
+		index.updateLater();
+		for (int i = 0; i < 100 && index.isUpdating(); i++) {
+			Thread.sleep(50L);
+		}
+		assertFalse(index.isUpdating());
+		assertEquals(size, index.size());
+	}
+	
+	@Test
+	public void testOutOfOrderDates() throws IOException {
+		File dir = new File("target/test-index-dates");
+		FileUtils.deleteQuietly(dir);
+		File f = new File(dir, "vss.log");
+		// Client clocks differ, the third record has no date
+		FileUtils.writeStringToFile(f, record("$/P1/A.txt", "18.11.14", "10:00") + record("$/P2/B.txt", "18.11.14", "12:00")
+				+ "$/P1/C.txt\r\nVersion: 1\r\nEingecheckt\r\n\r\n" + record("$/P1/A.txt", "18.11.14", "09:00")
+				+ record("$/P2/B.txt", "18.11.14", "11:00") + record("$/P1/A.txt", "18.11.14", "13:00"), "windows-1252");
+		JournalIndex index = new JournalIndex(f, DE, new File(dir, "index/vss.idx"));
+		assertEquals(6, index.update());
+		
+		List<VssJournalEntry> all = new VssJournal(DE).readJournal(f, VssProjectMatcher.ALL).getEntries();
+		long t0900 = all.get(3).getTimestamp();
+		long t1000 = all.get(0).getTimestamp();
+		long t1100 = all.get(4).getTimestamp();
+		long t1200 = all.get(1).getTimestamp();
+		assertEquals(6, index.findRange(VssJournalEntry.NO_DATETIME, Long.MAX_VALUE, null).length);
+		assertEquals(5, index.findRange(t0900 - 1, Long.MAX_VALUE, null).length);
+		// Records after a later dated record are found
+		List<VssJournalEntry> range = index.readEntries(index.findRange(t1000, t1100, null));
+		assertEquals(1, range.size());
+		assertEquals("$/P2/B.txt", range.get(0).getFilename());
+		assertEquals(t1100, range.get(0).getTimestamp());
+		assertEquals(2, index.findRange(t0900, t1100, null).length);
+		assertEquals(3, index.findRange(t0900, t1200, null).length);
+		assertEquals(1, index.findRange(t0900, t1100, "$/P1").length);
+		
+		assertEquals(3, index.findPath("$/P1/A.txt").length);
+		assertEquals(2, index.findPath("$/P1/A.txt", t0900).length);
+		assertEquals(1, index.findPath("$/P2/B.txt", t1100).length);
+		assertEquals(1, index.findPath("$/P1/C.txt").length);
+		assertEquals(0, index.findPath("$/P1/C.txt", t0900).length);
+	}
+}
@@ -0,0 +1,152 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import static org.jenkinsci.plugins.vssj.JournalFiles.*;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class JournalSegmentsTest {
+
+	private static final Locale DE = new Locale("de");
+	
+	@Test
+	public void testRotation() {
+		assertEquals(1, JournalSegments.rotation("vss.log", "vss.log.1"));
+		assertEquals(12, JournalSegments.rotation("vss.log", "vss.log.12.gz"));
+		assertEquals(2, JournalSegments.rotation("journal.txt", "journal.2.txt.gz"));
+		assertEquals(3, JournalSegments.rotation("journal.txt", "journal.3.txt"));
+		assertEquals(-1, JournalSegments.rotation("journal.txt", "journal.txt"));
+		assertEquals(-1, JournalSegments.rotation("journal.txt", "journal.txt.gz"));
+		assertEquals(-1, JournalSegments.rotation("journal.txt", "journal.old.txt"));
+		assertEquals(-1, JournalSegments.rotation("journal.txt", "other.1.txt"));
+	}
+	
+	@Test
+	public void testResolve() throws IOException {
+		File dir = new File("target/test-segments-resolve");
+		FileUtils.deleteQuietly(dir);
+		File live = new File(dir, "journal.txt");
+		FileUtils.writeStringToFile(new File(dir, "journal.1.txt"), record("$/A"), CHARSET);
+		FileUtils.writeStringToFile(new File(dir, "journal.2.txt.gz"), "", CHARSET);
+		FileUtils.writeStringToFile(live, record("$/B"), CHARSET);
+		live.setLastModified(System.currentTimeMillis() - 60000L);
+		
+		assertEquals(live.getAbsoluteFile(), JournalSegments.resolve(dir.getPath()).getAbsoluteFile());
+		assertEquals(live.getAbsoluteFile(), JournalSegments.resolve(dir.getPath() + "/journal*.txt").getAbsoluteFile());
+		assertEquals(live, JournalSegments.resolve(live.getPath()));
+		File none = new File(dir, "none*.txt");
+		assertEquals(none, JournalSegments.resolve(none.getPath()));
+		
+		// Other files are not taken for the journal, even if modified later
+		FileUtils.writeStringToFile(new File(dir, "notes.txt"), "", CHARSET);
+		FileUtils.writeStringToFile(new File(dir, "journal-notes.txt"), "", CHARSET);
+		assertEquals(live.getAbsoluteFile(), JournalSegments.resolve(dir.getPath()).getAbsoluteFile());
+		assertEquals(live.getAbsoluteFile(), JournalSegments.resolve(dir.getPath() + "/journal*.txt").getAbsoluteFile());
+		File other = new File(dir, "other");
+		FileUtils.writeStringToFile(new File(other, "journal.txt"), record("$/B"), CHARSET);
+		assertEquals(new File(other, "journal.txt").getAbsoluteFile(), JournalSegments.resolve(other.getPath()).getAbsoluteFile());
+		FileUtils.writeStringToFile(new File(other, "notes.txt"), "", CHARSET);
+		assertEquals(other, JournalSegments.resolve(other.getPath()));
+		
+		List<File> archives = JournalSegments.forJournal(live).getArchives();
+		assertEquals(2, archives.size());
+		assertEquals("journal.2.txt.gz", archives.get(0).getName());
+		assertEquals("journal.1.txt", archives.get(1).getName());
+	}
+	
+	@Test
+	public void testReadRotated() throws IOException {
+		File dir = new File("target/test-segments-read");
+		FileUtils.deleteQuietly(dir);
+		File f = new File(dir, "vss.log");
+		FileUtils.copyFile(new File("src/test/resources/vss.log"), f);
+		VssJournal first = new VssJournal(DE).readJournal(f, VssProjectMatcher.ALL);
+		int size = first.size();
+		
+		// Rotated between two reads
+		File old = new File(dir, "vss.log.1");
+		FileUtils.writeStringToFile(old, record("$/OLD/File.txt"), CHARSET);
+		FileUtils.writeStringToFile(f, "\r\n" + record("$/A/File.txt"), CHARSET, true);
+		gzip(old, new File(dir, "vss.log.2.gz"));
+		gzip(f, new File(dir, "vss.log.1.gz"));
+		FileUtils.writeStringToFile(f, record("$/B/File.txt"), CHARSET);
+		VssJournal second = new VssJournal(DE).readJournal(f, VssProjectMatcher.ALL, first);
+		assertEquals(size + 2, second.size());
+		assertEquals("$/A/File.txt", second.getEntries().get(size).getFilename());
+		assertEquals("$/B/File.txt", second.getEntries().get(size + 1).getFilename());
+		
+		// Full read of all segments
+		VssJournal full = new VssJournal(DE).readJournal(f, VssProjectMatcher.ALL);
+		assertEquals(size + 3, full.size());
+		assertEquals("$/OLD/File.txt", full.getEntries().get(0).getFilename());
+		assertEquals(second.getOffset(), full.getOffset());
+		assertEquals(second.getLastRecordHash(), full.getLastRecordHash());
+		
+		// Rotated again, the live journal is empty
+		assertTrue(new File(dir, "vss.log.2.gz").renameTo(new File(dir, "vss.log.3.gz")));
+		assertTrue(new File(dir, "vss.log.1.gz").renameTo(new File(dir, "vss.log.2.gz")));
+		assertTrue(f.renameTo(new File(dir, "vss.log.1")));
+		FileUtils.writeStringToFile(f, "", CHARSET);
+		VssJournal third = new VssJournal(DE).readJournal(f, VssProjectMatcher.ALL, second);
+		assertEquals(size + 2, third.size());
+		
+		FileUtils.writeStringToFile(f, record("$/C/File.txt"), CHARSET);
+		VssJournal fourth = new VssJournal(DE).readJournal(f, VssProjectMatcher.ALL, third);
+		assertEquals(size + 3, fourth.size());
+		assertEquals("$/C/File.txt", fourth.getEntries().get(size + 2).getFilename());
+	}
+	
+	@Test
+	public void testReadLargeCompressedSegment() throws IOException {
+		File dir = new File("target/test-segments-large");
+		FileUtils.deleteQuietly(dir);
+		File f = new File(dir, "vss.log");
+		StringBuilder journal = new StringBuilder();
+		for (int i = 0; i < 30000; i++) {
+			journal.append(record("$/PROJECT/dir" + (i % 100) + "/File" + i + ".txt"));
+		}
+		FileUtils.writeStringToFile(f, journal.toString(), CHARSET);
+		VssJournal plain = new VssJournal(DE).readJournal(f, VssProjectMatcher.ALL);
+		
+		gzip(f, new File(dir, "vss.log.1.gz"));
+		FileUtils.writeStringToFile(f, "", CHARSET);
+		VssJournal compressed = new VssJournal(DE).readJournal(f, VssProjectMatcher.ALL);
+		assertEquals(30000, compressed.size());
+		assertEquals(plain.getOffset(), compressed.getOffset());
+		assertEquals(plain.getLastRecordOffset(), compressed.getLastRecordOffset());
+		assertEquals(plain.getLastRecordHash(), compressed.getLastRecordHash());
+		assertEquals("$/PROJECT/dir99/File29999.txt", compressed.getLastChange().getFilename());
+		
+		FileUtils.writeStringToFile(f, record("$/NEW/File.txt"), CHARSET);
+		VssJournal next = new VssJournal(DE).readJournal(f, VssProjectMatcher.ALL, compressed);
+		assertEquals(30001, next.size());
+	}
+}
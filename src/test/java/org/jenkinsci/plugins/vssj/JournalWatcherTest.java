@@ -0,0 +1,77 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class JournalWatcherTest {
+
+	@Test
+	public void testPoll() throws IOException {
+		File journalFile = new File("target/test-watcher/vss.log");
+		FileUtils.writeStringToFile(journalFile, "$/PROJECT1\n", "UTF-8");
+		
+		final List<File> changes = new ArrayList<File>();
+		final List<Long> ticks = new ArrayList<Long>();
+		JournalWatcher.Listener listener = new JournalWatcher.Listener() {
+			public void journalChanged(File file) {
+				changes.add(file);
+			}
+			
+			public void tick(long now) {
+				ticks.add(now);
+			}
+		};
+		// Long intervals, so only the test polls
+		JournalWatcher watcher = new JournalWatcher(100000L, 400000L);
+		watcher.register(journalFile, listener);
+		try {
+			assertFalse(watcher.poll());
+			assertEquals(200000L, watcher.getInterval());
+			assertFalse(watcher.poll());
+			assertEquals(400000L, watcher.getInterval());
+			assertFalse(watcher.poll());
+			assertEquals(400000L, watcher.getInterval());
+			assertTrue(changes.isEmpty());
+			
+			FileUtils.writeStringToFile(journalFile, "$/PROJECT1/File.txt\n", "UTF-8", true);
+			assertTrue(watcher.poll());
+			assertEquals(100000L, watcher.getInterval());
+			assertEquals(1, changes.size());
+			assertEquals(journalFile.getAbsoluteFile(), changes.get(0));
+			assertEquals(4, ticks.size());
+		} finally {
+			watcher.unregister(listener);
+		}
+		assertFalse(watcher.poll());
+		assertEquals(4, ticks.size());
+	}
+}
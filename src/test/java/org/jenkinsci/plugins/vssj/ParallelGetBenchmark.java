@@ -0,0 +1,76 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.util.StreamTaskListener;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Measures the wall clock time of serial and parallel gets with a ss.exe
+ * replacement script that waits a fixed time per get.
+ * 
+ * Not run as part of the tests, start with (Unix only):
+ * java -cp ... org.jenkinsci.plugins.vssj.ParallelGetBenchmark [projects] [delayMillis] [parallelism]
+ * 
+ * @author patlau
+ */
+public final class ParallelGetBenchmark {
+
+	private ParallelGetBenchmark() {
+	}
+	
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int projectCount = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		long delay = args.length > 1 ? Long.parseLong(args[1]) : 1000L;
+		int parallelism = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+		
+		File dir = new File(System.getProperty("java.io.tmpdir"), "vss-parallel-get");
+		FileUtils.deleteQuietly(dir);
+		dir.mkdirs();
+		File ss = FakeSsExe.create(dir, delay);
+		List<String> projects = new ArrayList<String>();
+		for (int i = 0; i < projectCount; i++) {
+			projects.add("$/PROJECT" + i);
+		}
+		
+		System.out.println(projectCount + " projects, " + delay + "ms per get");
+		for (int threads : new int[] {1, parallelism}) {
+			StreamTaskListener listener = new StreamTaskListener(new ByteArrayOutputStream());
+			VssExe exe = new VssExe(new Launcher.LocalLauncher(listener), new FilePath(dir), listener, ss.getAbsolutePath(), true);
+			long start = System.nanoTime();
+			exe.get(projects, "-R -GWR -I-Y", threads);
+			System.out.println(String.format("%2d parallel gets: %8.1f ms", threads, (System.nanoTime() - start) / 1e6));
+		}
+		FileUtils.deleteQuietly(dir);
+	}
+
+}
@@ -0,0 +1,294 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.scm.ChangeLogSet;
+import hudson.scm.PollingResult;
+import hudson.util.StreamTaskListener;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+/**
+ * Load test of many jobs polling the same journal while records are appended.
+ * 
+ * Every job polls its own project of the journal in a separate thread and builds
+ * when polling finds changes, so polls and checkouts run concurrently. A writer
+ * thread appends check-in records of random projects at a fixed rate. Reports poll
+ * latency percentiles, the heap high-water mark, journal records missing from or
+ * duplicated in the change logs of the builds, and builds without any changes.
+ * 
+ * Not run as part of the tests because of its duration, start with (Unix only):
+ * mvn test -Dtest=PollingLoadHarness -Dload.jobs=40 -Dload.seconds=300
+ * 
+ * Settings (system properties):
+ * load.jobs - number of jobs, default 40
+ * load.seconds - duration of the load, default 120
+ * load.pollMillis - delay between two polls of a job, default 1000
+ * load.rate - appended records per second, default 20
+ * load.records - records of the journal before the load, default 100000
+ * load.getMillis - duration of a get of the fake ss.exe, default 200
+ * 
+ * @author patlau
+ */
+public class PollingLoadHarness {
+
+	private static final String VERSION_PREFIX = "L";
+	
+	@Rule
+	public JenkinsRule j = new JenkinsRule();
+	
+	private final int jobs = Integer.getInteger("load.jobs", 40);
+	private final int seconds = Integer.getInteger("load.seconds", 120);
+	private final long pollMillis = Long.getLong("load.pollMillis", 1000L);
+	private final int rate = Integer.getInteger("load.rate", 20);
+	private final int records = Integer.getInteger("load.records", 100000);
+	private final long getMillis = Long.getLong("load.getMillis", 200L);
+	
+	private final List<Long> pollNanos = Collections.synchronizedList(new ArrayList<Long>());
+	private final AtomicInteger pollErrors = new AtomicInteger();
+	private final AtomicBoolean running = new AtomicBoolean(true);
+	
+	@Test
+	public void testConcurrentPolling() throws Exception {
+		Assume.assumeTrue(FakeSsExe.isSupported());
+		
+		File dir = new File("target/test-polling-load");
+		FileUtils.deleteQuietly(dir);
+		dir.mkdirs();
+		File journalFile = new File(dir, "vss.log");
+		JournalGenerator generator = new JournalGenerator(1L);
+		generator.setProjects(jobs);
+		generator.write(journalFile, records);
+		
+		j.jenkins.setNumExecutors(jobs);
+		j.jenkins.setQuietPeriod(0);
+		VssSCM.DescriptorImpl descriptor = j.jenkins.getDescriptorByType(VssSCM.DescriptorImpl.class);
+		descriptor.setSsExePath(FakeSsExe.create(dir, getMillis).getAbsolutePath());
+		
+		List<FreeStyleProject> projects = new ArrayList<FreeStyleProject>();
+		for (int i = 0; i < jobs; i++) {
+			FreeStyleProject project = j.createFreeStyleProject("job" + i);
+			VssSCM scm = new VssSCM(false, true, "-R -GWR -I-Y", journalFile.getAbsolutePath(),
+					JournalGenerator.getProject(i), "", 0L, "de", false, null);
+			project.setScm(scm);
+			projects.add(project);
+		}
+		// Baseline builds, the change logs of later builds contain the appended records
+		for (FreeStyleProject project : projects) {
+			j.assertBuildStatusSuccess(project.scheduleBuild2(0));
+		}
+		
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			pool.resetPeakUsage();
+		}
+		Map<Integer, List<String>> appended = new HashMap<Integer, List<String>>();
+		Thread writer = startWriter(journalFile, appended);
+		List<Thread> pollers = new ArrayList<Thread>();
+		for (FreeStyleProject project : projects) {
+			Thread poller = startPoller(project);
+			pollers.add(poller);
+		}
+		Thread.sleep(seconds * 1000L);
+		running.set(false);
+		writer.join();
+		for (Thread poller : pollers) {
+			poller.join();
+		}
+		// Build the records appended after the last poll
+		for (FreeStyleProject project : projects) {
+			if (poll(project).hasChanges())
+				j.assertBuildStatusSuccess(project.scheduleBuild2(0));
+		}
+		long heap = 0L;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				heap += pool.getPeakUsage().getUsed();
+		}
+		
+		int appendedCount = 0;
+		int builds = 0;
+		int emptyBuilds = 0;
+		int missed = 0;
+		int duplicated = 0;
+		for (int i = 0; i < jobs; i++) {
+			Set<String> seen = new HashSet<String>();
+			for (FreeStyleBuild build : projects.get(i).getBuilds()) {
+				if (build.getNumber() == 1)
+					continue;
+				builds++;
+				int files = 0;
+				for (ChangeLogSet.Entry entry : build.getChangeSet()) {
+					for (ChangeLogSet.AffectedFile file : entry.getAffectedFiles()) {
+						files++;
+						VssChangeLogEntry.VssFile vssFile = (VssChangeLogEntry.VssFile) file;
+						if (vssFile.getVersion().startsWith(VERSION_PREFIX) && !seen.add(vssFile.getPath() + "#" + vssFile.getVersion()))
+							duplicated++;
+					}
+				}
+				if (files == 0)
+					emptyBuilds++;
+			}
+			List<String> expected = appended.get(i);
+			if (expected == null)
+				continue;
+			appendedCount += expected.size();
+			for (String record : expected) {
+				if (!seen.contains(record))
+					missed++;
+			}
+		}
+		
+		System.out.println(String.format("%d jobs, %d s, %d records appended, %d polls, %d poll errors",
+				jobs, seconds, appendedCount, pollNanos.size(), pollErrors.get()));
+		List<Long> latencies = new ArrayList<Long>(pollNanos);
+		Collections.sort(latencies);
+		System.out.println(String.format("Poll latency ms: p50 %.1f, p90 %.1f, p99 %.1f, max %.1f",
+				percentile(latencies, 50), percentile(latencies, 90), percentile(latencies, 99), percentile(latencies, 100)));
+		System.out.println(String.format("Heap high-water mark: %d MB", heap / (1024 * 1024)));
+		System.out.println(String.format("Builds: %d, without changes (false positive triggers): %d", builds, emptyBuilds));
+		System.out.println(String.format("Change log records: %d missed, %d duplicated", missed, duplicated));
+		
+		assertEquals(0, pollErrors.get());
+		assertFalse(latencies.isEmpty());
+	}
+	
+	private Thread startWriter(final File journalFile, final Map<Integer, List<String>> appended) {
+		Thread writer = new Thread("journal writer") {
+			@Override
+			public void run() {
+				Random random = new Random(2L);
+				long interval = 1000000000L / Math.max(rate, 1);
+				long next = System.nanoTime();
+				int count = 0;
+				try {
+					while (running.get()) {
+						int project = random.nextInt(jobs);
+						String filename = JournalGenerator.getProject(project) + "/dir/File" + count + ".txt";
+						String version = VERSION_PREFIX + count;
+						append(journalFile, filename, version);
+						List<String> list = appended.get(project);
+						if (list == null) {
+							list = new ArrayList<String>();
+							appended.put(project, list);
+						}
+						list.add(filename + "#" + version);
+						count++;
+						next += interval;
+						long sleep = (next - System.nanoTime()) / 1000000L;
+						if (sleep > 0)
+							Thread.sleep(sleep);
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		};
+		writer.start();
+		return writer;
+	}
+	
+	private static void append(File journalFile, String filename, String version) throws IOException {
+		Writer out = new OutputStreamWriter(new FileOutputStream(journalFile, true), JournalGenerator.CHARSET);
+		try {
+			JournalGenerator.writeCheckin(out, filename, version, "LoadUser", Calendar.getInstance(), null);
+		} finally {
+			out.close();
+		}
+	}
+	
+	private Thread startPoller(final FreeStyleProject project) {
+		Thread poller = new Thread("poller " + project.getName()) {
+			@Override
+			public void run() {
+				try {
+					while (running.get()) {
+						if (poll(project).hasChanges())
+							project.scheduleBuild2(0).get();
+						Thread.sleep(pollMillis);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (ExecutionException e) {
+					e.printStackTrace();
+					pollErrors.incrementAndGet();
+				}
+			}
+		};
+		poller.start();
+		return poller;
+	}
+	
+	private PollingResult poll(FreeStyleProject project) {
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		long start = System.nanoTime();
+		PollingResult result = project.poll(new StreamTaskListener(log));
+		pollNanos.add(System.nanoTime() - start);
+		// Polling errors are only logged
+		String text = log.toString();
+		if (text.contains("FATAL") || text.contains("ERROR")) {
+			System.err.println(text);
+			pollErrors.incrementAndGet();
+		}
+		return result;
+	}
+	
+	private static double percentile(List<Long> sorted, int percent) {
+		if (sorted.isEmpty())
+			return 0.0;
+		int index = (int) Math.ceil(percent / 100.0 * sorted.size()) - 1;
+		return sorted.get(Math.max(index, 0)) / 1e6;
+	}
+
+}
@@ -0,0 +1,97 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class QuietPeriodTest {
+
+	@Test
+	public void testBurst() {
+		QuietPeriod quiet = new QuietPeriod();
+		assertFalse(quiet.isPending());
+		assertFalse(quiet.isElapsed(1000L, 0L, 0L));
+		
+		// One record per file of a check-in
+		assertTrue(quiet.recordChange(1, 1000L));
+		assertTrue(quiet.recordChange(2, 3000L));
+		assertFalse(quiet.recordChange(2, 4000L));
+		assertTrue(quiet.isPending());
+		assertFalse(quiet.isElapsed(7000L, 5000L, 60000L));
+		assertEquals(1000L, quiet.getRemaining(7000L, 5000L, 60000L));
+		assertTrue(quiet.isElapsed(8000L, 5000L, 60000L));
+		
+		quiet.reset();
+		assertFalse(quiet.isPending());
+		assertFalse(quiet.isElapsed(100000L, 5000L, 60000L));
+	}
+	
+	@Test
+	public void testMaximum() {
+		QuietPeriod quiet = new QuietPeriod();
+		for (int i = 0; i < 20; i++) {
+			quiet.recordChange(i, i * 4000L);
+		}
+		// Records every 4 seconds never leave 5 quiet seconds
+		assertFalse(quiet.isElapsed(77000L, 5000L, 0L));
+		assertTrue(quiet.isElapsed(77000L, 5000L, 60000L));
+		assertEquals(0L, quiet.getRemaining(77000L, 5000L, 60000L));
+	}
+	
+	@Test
+	public void testTriggerThenPolling() throws IOException {
+		File f = new File("target/test-quiet/vss.log");
+		FileUtils.deleteQuietly(f.getParentFile());
+		FileUtils.copyFile(new File("src/test/resources/vss.log"), f);
+		Locale locale = new Locale("de");
+		VssProjectMatcher projects = VssProjectMatcher.compile(new String[]{"$/PROJECT2"});
+		int rows = VssJournalCache.getInstance().getJournal(f, locale).size();
+		
+		String record = "$/PROJECT2/New.txt\r\nVersion: 1\r\nBenutzer: UserY         Datum: 18.11.14  Uhrzeit: 10:00\r\nEingecheckt\r\n\r\n";
+		FileUtils.writeStringToFile(f, "\r\n" + record, "windows-1252", true);
+		QuietPeriod quiet = new QuietPeriod();
+		
+		// The trigger sees the appended record
+		VssJournal journal = VssJournalCache.getInstance().getJournal(f, locale);
+		Long marker = VssJournalTrigger.lastMatchMarker(journal, projects, rows);
+		assertNotNull(marker);
+		assertTrue(quiet.recordChange(marker, 1000L));
+		assertNull(VssJournalTrigger.lastMatchMarker(journal, projects, journal.size()));
+		
+		// Polling finds the same record and does not extend the quiet period
+		VssRevisionState state = VssRevisionState.checkJournal(f, projects, locale);
+		assertEquals(marker.longValue(), state.getLastMatchMarker());
+		assertFalse(quiet.recordChange(state.getLastMatchMarker(), 4000L));
+		assertEquals(1000L, quiet.getRemaining(5000L, 5000L, 0L));
+		
+		FileUtils.writeStringToFile(f, record.replace("New.txt", "Other.txt"), "windows-1252", true);
+		assertTrue(quiet.recordChange(VssRevisionState.checkJournal(f, projects, locale).getLastMatchMarker(), 4000L));
+	}
+}
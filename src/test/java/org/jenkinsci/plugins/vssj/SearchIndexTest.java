@@ -0,0 +1,198 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class SearchIndexTest {
+
+	private static final Locale DE = new Locale("de");
+	
+	@Test
+	public void testTokenize() {
+		assertEquals(Arrays.asList("project4", "dir", "project", "vcxproj"), SearchIndex.tokenize("$/PROJECT4/dir/project.vcxproj"));
+		assertEquals(Arrays.asList("fix", "for", "bug", "42"), SearchIndex.tokenize("Fix for Bug #42, a"));
+	}
+	
+	@Test
+	public void testPostingList() {
+		SearchIndex.PostingList postings = new SearchIndex.PostingList();
+		int[] records = {0, 1, 127, 128, 20000, 3000000};
+		for (int record : records) {
+			postings.add(record);
+		}
+		postings.add(3000000);
+		assertEquals(records.length, postings.size());
+		BitSet bits = new BitSet();
+		postings.addTo(bits);
+		assertEquals(records.length, bits.cardinality());
+		assertTrue(bits.get(3000000));
+		assertTrue(bits.get(128));
+	}
+	
+	@Test
+	public void testSearch() throws IOException {
+		File f = new File("target/test-search/vss.log");
+		FileUtils.deleteQuietly(f.getParentFile());
+		FileUtils.copyFile(new File("src/test/resources/vss.log"), f);
+		List<VssJournalEntry> all = new VssJournal(DE).readJournal(f, VssProjectMatcher.ALL).getEntries();
+		
+		SearchIndex index = new SearchIndex(f, DE);
+		assertEquals(all.size(), index.update());
+		assertEquals(0, index.update());
+		
+		int[] records = index.search("vcx");
+		assertTrue(records.length > 0);
+		for (int record : records) {
+			assertTrue(all.get(record).getFilename().contains(".vcxproj"));
+		}
+		int expected = 0;
+		for (VssJournalEntry e : all) {
+			if (e.getFilename().startsWith("$/PROJECT4/") && e.getFilename().endsWith(".vcxproj"))
+				expected++;
+		}
+		assertEquals(expected, index.search("project4 VCXPROJ").length);
+		assertEquals(0, index.search("user:project4").length);
+		assertEquals(countUser(all, "userx"), index.search("user:userx").length);
+		assertEquals(0, index.search("nothing").length);
+		
+		List<VssJournalEntry> entries = new VssJournal(DE).readEntries(f, new long[] {index.getPosition(records[0])});
+		assertEquals(all.get(records[0]).getFilename(), entries.get(0).getFilename());
+		
+		String record = "$/PROJECT9/New.txt\r\nVersion: 1\r\nBenutzer: UserY         Datum: 18.11.14  Uhrzeit: 10:00\r\nEingecheckt\r\nKommentar: Release build\r\n\r\n";
+		FileUtils.writeStringToFile(f, "\r\n" + record, "windows-1252", true);
+		assertEquals(1, index.update());
+		assertEquals(1, index.search("comment:releas").length);
+		assertEquals(1, index.search("comment:releas user:usery").length);
+		
+		// Replaced journal
+		FileUtils.writeStringToFile(f, record, "windows-1252");
+		assertEquals(1, index.update());
+		assertEquals(1, index.size());
+		assertEquals(0, index.search("vcxproj").length);
+	}
+	
+	@Test
+	public void testTruncated() throws IOException, InterruptedException {
+		File f = new File("target/test-search-truncated/vss.log");
+		FileUtils.deleteQuietly(f.getParentFile());
+		StringBuilder journal = new StringBuilder();
+		for (int i = 0; i <= SearchIndex.MAX_PREFIX_TERMS; i++) {
+			journal.append("$/PROJECT9/xx").append(i).append(".txt\r\nVersion: 1\r\nBenutzer: UserY         Datum: 18.11.14  Uhrzeit: 10:00\r\nEingecheckt\r\n\r\n");
+		}
+		FileUtils.writeStringToFile(f, journal.toString(), "windows-1252");
+		// Indexed in the background, in several batches
+		SearchIndex index = new SearchIndex(f, DE);
+		index.updateLater();
+		for (int i = 0; i < 200 && index.isUpdating(); i++) {
+			Thread.sleep(50L);
+		}
+		assertFalse(index.isUpdating());
+		assertEquals(SearchIndex.MAX_PREFIX_TERMS + 1, index.size());
+		assertEquals(0, index.update());
+		
+		SearchIndex.Result result = index.find("path:xx");
+		assertTrue(result.isTruncated());
+		assertEquals(SearchIndex.MAX_PREFIX_TERMS, result.getRecords().length);
+		result = index.find("path:xx1234");
+		assertFalse(result.isTruncated());
+		assertEquals(1, result.getRecords().length);
+		assertFalse(index.find("usery").isTruncated());
+	}
+	
+	@Test
+	public void testReadEntries() throws IOException {
+		File f = new File("target/test-search-read/vss.log");
+		FileUtils.deleteQuietly(f.getParentFile());
+		FileUtils.copyFile(new File("src/test/resources/vss.log"), f);
+		List<VssJournalEntry> all = new VssJournal(DE).readJournal(f, VssProjectMatcher.ALL).getEntries();
+		SearchIndex index = new SearchIndex(f, DE);
+		index.update();
+		
+		// Newest first, with a duplicate and an offset before a record
+		int last = all.size() - 1;
+		long[] offsets = {index.getPosition(last), index.getPosition(3), index.getPosition(last - 1) - 1,
+				index.getPosition(0), index.getPosition(3), index.getPosition(last - 1)};
+		List<VssJournalEntry> entries = new VssJournal(DE).readEntries(f, offsets);
+		assertEquals(5, entries.size());
+		int[] expected = {last, 3, 0, 3, last - 1};
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(all.get(expected[i]).toString(), entries.get(i).toString());
+		}
+	}
+	
+	@Test
+	public void testRotated() throws IOException {
+		File dir = new File("target/test-search-rotated");
+		FileUtils.deleteQuietly(dir);
+		File f = new File(dir, "vss.log");
+		FileUtils.copyFile(new File("src/test/resources/vss.log"), f);
+		SearchIndex index = new SearchIndex(f, DE);
+		int size = index.update();
+		int[] vcxproj = index.search("vcxproj");
+		
+		// Rotated into a compressed archive
+		String record = "$/PROJECT9/New.txt\r\nVersion: 1\r\nBenutzer: UserY         Datum: 18.11.14  Uhrzeit: 10:00\r\nEingecheckt\r\nKommentar: Release build\r\n\r\n";
+		JournalFiles.gzip(f, new File(dir, "vss.log.1.gz"));
+		FileUtils.writeStringToFile(f, record, "windows-1252");
+		assertEquals(1, index.update());
+		assertEquals(size + 1, index.size());
+		assertArrayEquals(vcxproj, index.search("vcxproj"));
+		
+		// Newest first, from both segments
+		List<VssJournalEntry> all = new VssJournal(DE).readJournal(f, VssProjectMatcher.ALL).getEntries();
+		long[] positions = {index.getPosition(size), index.getPosition(3), index.getPosition(0), index.getPosition(3)};
+		List<VssJournalEntry> entries = new VssJournal(DE).readEntries(f, positions, index.getLiveGeneration());
+		assertEquals(4, entries.size());
+		int[] expected = {size, 3, 0, 3};
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(all.get(expected[i]).toString(), entries.get(i).toString());
+		}
+		assertEquals("$/PROJECT9/New.txt", entries.get(0).getFilename());
+		
+		// A new index reads all segments
+		SearchIndex rebuilt = new SearchIndex(f, DE);
+		assertEquals(size + 1, rebuilt.update());
+		assertEquals(index.getPosition(size), rebuilt.getPosition(size));
+		assertEquals(index.getLiveGeneration(), rebuilt.getLiveGeneration());
+	}
+	
+	private static int countUser(List<VssJournalEntry> all, String user) {
+		int n = 0;
+		for (VssJournalEntry e : all) {
+			if (user.equals(e.getUser()))
+				n++;
+		}
+		return n;
+	}
+}
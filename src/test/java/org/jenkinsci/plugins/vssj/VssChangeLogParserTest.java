@@ -0,0 +1,92 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+public class VssChangeLogParserTest {
+
+	@Test
+	public void testParseExistingChangeLog() throws XMLStreamException {
+		long timestamp = CalendarUtils.midnight().getTimeInMillis();
+		String date = CalendarUtils.formatDatetime(timestamp);
+		String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<log>\n"
+			+ "\t<change>\n"
+			+ "\t\t<version>12</version>\n"
+			+ "\t\t<date>" + date + "</date>\n"
+			+ "\t\t<user>userx</user>\n"
+			+ "\t\t<action>File.txt eingecheckt</action>\n"
+			+ "\t\t<filename>$/PROJECT1/File.txt</filename>\n"
+			+ "\t\t<comment>fix &amp; <![CDATA[more]]></comment>\n"
+			+ "\t\t<unknown>ignored</unknown>\n"
+			+ "\t</change>\n"
+			+ "\t<change>\n"
+			+ "\t\t<version>null</version>\n"
+			+ "\t\t<date></date>\n"
+			+ "\t\t<filename> $/PROJECT1/Other.txt </filename>\n"
+			+ "\t</change>\n"
+			+ "</log>\n";
+		List<VssJournalEntry> list = new VssChangeLogParser().parse(new StringReader(xml));
+		assertEquals(2, list.size());
+		VssJournalEntry e = list.get(0);
+		assertEquals("12", e.getVersion());
+		assertEquals(timestamp, e.getTimestamp());
+		assertEquals("userx", e.getUser());
+		assertEquals("File.txt eingecheckt", e.getAction());
+		assertEquals("$/PROJECT1/File.txt", e.getFilename());
+		assertEquals("fix & more", e.getComment());
+		
+		e = list.get(1);
+		// Older versions wrote missing values as null
+		assertNull(e.getVersion());
+		assertEquals(VssJournalEntry.NO_DATETIME, e.getTimestamp());
+		assertNull(e.getUser());
+		assertNull(e.getComment());
+		assertEquals("$/PROJECT1/Other.txt", e.getFilename());
+	}
+	
+	@Test
+	public void testParseInvalidChangeLog() throws IOException {
+		File f = new File("target/test-invalid-changelog.xml");
+		FileUtils.writeStringToFile(f, "<log><change><filename>a</change></log>", "UTF-8");
+		try {
+			new VssChangeLogParser().parseFile(f);
+			fail("Invalid XML accepted");
+		} catch (SAXException e) {
+			assertTrue(e.getMessage().contains(f.getName()));
+		}
+	}
+
+}
@@ -0,0 +1,207 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.util.StreamTaskListener;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class VssExeTest {
+
+	@Test
+	public void testParallelGet() throws IOException, InterruptedException {
+		Assume.assumeTrue(FakeSsExe.isSupported());
+		File dir = new File("target/test-parallel-get");
+		FileUtils.deleteQuietly(dir);
+		dir.mkdirs();
+		File ss = FakeSsExe.create(dir, 500L);
+		
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		StreamTaskListener listener = new StreamTaskListener(log);
+		VssExe exe = new VssExe(new Launcher.LocalLauncher(listener), new FilePath(dir), listener, ss.getAbsolutePath(), true);
+		
+		long start = System.currentTimeMillis();
+		exe.get(Arrays.asList("$/P1", "$/P2", "$/P3", "$/P4"), "-R", 4);
+		long time = System.currentTimeMillis() - start;
+		assertTrue("Gets not parallel: " + time + "ms", time < 1900L);
+		
+		String output = log.toString();
+		for (String project : new String[] {"$/P1", "$/P2", "$/P3", "$/P4"}) {
+			assertTrue(new File(dir, project.substring(2)).isDirectory());
+			int block = output.indexOf("---- Get " + project + " ----");
+			assertTrue(block >= 0);
+			// Output of a get follows its header
+			assertTrue(output.indexOf("GET " + project + "\n", block) > block);
+		}
+	}
+	
+	@Test
+	public void testParallelGetFailFast() throws IOException, InterruptedException {
+		Assume.assumeTrue(FakeSsExe.isSupported());
+		File dir = new File("target/test-parallel-get-fail");
+		FileUtils.deleteQuietly(dir);
+		dir.mkdirs();
+		File ss = FakeSsExe.create(dir, 2000L);
+		
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		StreamTaskListener listener = new StreamTaskListener(log);
+		VssExe exe = new VssExe(new Launcher.LocalLauncher(listener), new FilePath(dir), listener, ss.getAbsolutePath(), true);
+		
+		long start = System.currentTimeMillis();
+		try {
+			exe.get(Arrays.asList("$/P1", "$/FAIL", "$/P2"), "-R", 3);
+			fail("Failed get not reported");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().contains("$/FAIL"));
+		}
+		assertTrue(System.currentTimeMillis() - start < 2000L);
+		assertTrue(log.toString().contains("---- Get $/FAIL ----"));
+	}
+
+	@Test
+	public void testIncrementalGet() throws IOException, InterruptedException {
+		Assume.assumeTrue(FakeSsExe.isSupported());
+		File dir = new File("target/test-incremental-get");
+		FileUtils.deleteQuietly(dir);
+		dir.mkdirs();
+		File ss = FakeSsExe.create(dir, 0L);
+		
+		IncrementalGet plan = new IncrementalGet(new String[] {"$/PROJECT1"}, new Locale("de"));
+		VssJournalEntry entry = new VssJournalEntry();
+		entry.setFilename("$/PROJECT1/dir/File.cls");
+		entry.setAction("Eingecheckt");
+		plan.add(entry);
+		
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		StreamTaskListener listener = new StreamTaskListener(log);
+		VssExe exe = new VssExe(new Launcher.LocalLauncher(listener), new FilePath(dir), listener, ss.getAbsolutePath(), true);
+		assertTrue(exe.isProjectDirectoryEmpty("$/PROJECT1"));
+		exe.get(plan, "-R -GWR -I-Y");
+		
+		assertTrue(new File(dir, "PROJECT1/dir").isDirectory());
+		assertTrue(log.toString().contains("GET \"$/PROJECT1/dir/File.cls\" -GWR -I-Y"));
+		assertTrue(log.toString().contains("GET $/PROJECT1/dir/File.cls\n"));
+	}
+
+	@Test
+	public void testArguments() throws IOException {
+		Assume.assumeTrue(FakeSsExe.isSupported());
+		File dir = new File("target/test-get-arguments");
+		FileUtils.deleteQuietly(dir);
+		dir.mkdirs();
+		File ss = FakeSsExe.create(dir, 0L);
+		
+		IncrementalGet plan = new IncrementalGet(new String[] {"$/PROJECT1"}, new Locale("de"));
+		VssJournalEntry entry = new VssJournalEntry();
+		entry.setFilename("$/PROJECT1/My File;$(touch x).cls");
+		entry.setAction("Eingecheckt");
+		plan.add(entry);
+		
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		StreamTaskListener listener = new StreamTaskListener(log);
+		VssExe exe = new VssExe(new Launcher.LocalLauncher(listener), new FilePath(dir), listener, ss.getAbsolutePath(), true);
+		exe.get(plan, "-R \"-YUser Name\" -GWR");
+		
+		// Names are passed to ss.exe as they are, not interpreted by a shell
+		assertTrue(log.toString().contains("GET $/PROJECT1/My File;$(touch x).cls\n"));
+		assertFalse(new File(dir, "PROJECT1/x").exists());
+		assertEquals("GET \"$/A B\" -R \"-YUser Name\"", VssExe.toCommandLine(Arrays.asList("GET", "$/A B", "-R", "-YUser Name")));
+	}
+
+	@Test
+	public void testRemove() throws IOException {
+		File dir = new File("target/test-remove");
+		FileUtils.deleteQuietly(dir);
+		File file = new File(dir, "PROJECT1/dir/File.cls");
+		FileUtils.writeStringToFile(file, "a", "UTF-8");
+		FileUtils.writeStringToFile(new File(dir, "PROJECT1/sub/a.txt"), "a", "UTF-8");
+		FileUtils.writeStringToFile(new File(dir, "PROJECT1/keep.txt"), "a", "UTF-8");
+		
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		StreamTaskListener listener = new StreamTaskListener(log);
+		VssExe exe = new VssExe(null, new FilePath(dir), listener, "ss", true);
+		exe.getManifest().update("$/PROJECT1/dir/File.cls", 1, file);
+		exe.remove("$/PROJECT1", "$/PROJECT1/dir/File.cls");
+		exe.remove("$/PROJECT1", "$/PROJECT1/sub");
+		exe.remove("$/PROJECT1", "$/PROJECT1/missing.txt");
+		assertFalse(file.exists());
+		assertTrue(new File(dir, "PROJECT1/dir").isDirectory());
+		assertFalse(new File(dir, "PROJECT1/sub").exists());
+		assertTrue(new File(dir, "PROJECT1/keep.txt").exists());
+		assertEquals(0, exe.getManifest().size());
+		
+		try {
+			exe.remove("$/PROJECT1", "$/PROJECT1/../keep.txt");
+			fail("Removed file outside of project");
+		} catch (IOException e) {
+			assertTrue(new File(dir, "PROJECT1/keep.txt").exists());
+		}
+	}
+	
+	@Test
+	public void testProjectDirectoryEmpty() throws IOException, InterruptedException {
+		File dir = new File("target/test-project-empty");
+		FileUtils.deleteQuietly(dir);
+		FileUtils.writeStringToFile(new File(dir, WorkspaceManifest.FILENAME), "", "UTF-8");
+		new File(dir, WorkspaceReaper.TOMBSTONE_DIR).mkdirs();
+		
+		StreamTaskListener listener = new StreamTaskListener(new ByteArrayOutputStream());
+		VssExe exe = new VssExe(null, new FilePath(dir), listener, "ss", false);
+		assertTrue(exe.isProjectDirectoryEmpty("$/PROJECT1"));
+		FileUtils.writeStringToFile(new File(dir, "File.cls"), "a", "UTF-8");
+		assertFalse(exe.isProjectDirectoryEmpty("$/PROJECT1"));
+		
+		exe = new VssExe(null, new FilePath(dir), listener, "ss", true);
+		assertTrue(exe.isProjectDirectoryEmpty("$/PROJECT1"));
+		FileUtils.writeStringToFile(new File(dir, "PROJECT1/" + WorkspaceManifest.FILENAME), "", "UTF-8");
+		assertFalse(exe.isProjectDirectoryEmpty("$/PROJECT1"));
+	}
+	
+	@Test
+	public void testClean() throws IOException, InterruptedException {
+		File dir = new File("target/test-clean");
+		FileUtils.deleteQuietly(dir);
+		FileUtils.writeStringToFile(new File(dir, "PROJECT1/dir/File.cls"), "a", "UTF-8");
+		
+		StreamTaskListener listener = new StreamTaskListener(new ByteArrayOutputStream());
+		VssExe exe = new VssExe(null, new FilePath(dir), listener, "ss", true);
+		exe.clean("$/PROJECT1");
+		assertTrue(exe.isProjectDirectoryEmpty("$/PROJECT1"));
+		assertTrue(WorkspaceReaper.getInstance().awaitIdle(10, TimeUnit.SECONDS));
+		assertEquals(0, new File(dir, WorkspaceReaper.TOMBSTONE_DIR).list().length);
+	}
+
+}
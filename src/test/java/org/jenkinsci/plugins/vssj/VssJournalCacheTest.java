@@ -0,0 +1,93 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * Test for the shared journal cache.
+ * @author patlau
+ *
+ */
+public class VssJournalCacheTest {
+
+	@Test
+	public void testSharedSnapshot() throws IOException {
+		File f = new File("target/test-cache.log");
+		FileUtils.copyFile(new File("src/test/resources/vss.log"), f);
+		VssJournalCache cache = new VssJournalCache(100000);
+		
+		VssJournal journal = cache.getJournal(f, new Locale("de"));
+		assertSame(journal, cache.getJournal(new File("target/../target/test-cache.log"), new Locale("de")));
+		assertEquals(journal.getEntries().size(), cache.size());
+		
+		VssJournal filtered = journal.filter(VssProjectMatcher.compile(new String[]{"$/PROJECT1"}));
+		assertFalse(filtered.getEntries().isEmpty());
+		assertTrue(filtered.getEntries().size() < journal.getEntries().size());
+		
+		FileUtils.writeStringToFile(f, "\n$/PROJECT1/dir/New.txt\nVersion: 1\nBenutzer: UserX           Datum: 18.11.14  Uhrzeit: 10:00\nEingecheckt\n\n", true);
+		VssJournal appended = cache.getJournal(f, new Locale("de"));
+		assertNotSame(journal, appended);
+		assertEquals(journal.getEntries().size() + 1, appended.getEntries().size());
+		assertEquals(appended.getEntries().size(), cache.size());
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		File f1 = new File("target/test-cache1.log");
+		File f2 = new File("target/test-cache2.log");
+		FileUtils.copyFile(new File("src/test/resources/vss.log"), f1);
+		FileUtils.copyFile(new File("src/test/resources/vss.log"), f2);
+		VssJournalCache cache = new VssJournalCache(150);
+		
+		VssJournal journal = cache.getJournal(f1, new Locale("de"));
+		assertEquals(journal.getEntries().size(), cache.size());
+		cache.getJournal(f2, new Locale("de"));
+		assertEquals(journal.getEntries().size(), cache.size());
+		assertNotSame(journal, cache.getJournal(f1, new Locale("de")));
+	}
+
+
+	@Test
+	public void testLargerThanLimit() throws IOException {
+		File f1 = new File("target/test-cache-small.log");
+		File f2 = new File("target/test-cache-large.log");
+		FileUtils.writeStringToFile(f1, "$/PROJECT1/a\nVersion: 1\nBenutzer: UserX           Datum: 18.11.14  Uhrzeit: 10:00\nEingecheckt\n\n");
+		FileUtils.copyFile(new File("src/test/resources/vss.log"), f2);
+		VssJournalCache cache = new VssJournalCache(50);
+		
+		VssJournal small = cache.getJournal(f1, new Locale("de"));
+		VssJournal large = cache.getJournal(f2, new Locale("de"));
+		assertTrue(large.size() > 50);
+		assertNotSame(large, cache.getJournal(f2, new Locale("de")));
+		assertEquals(1, cache.size());
+		assertSame(small, cache.getJournal(f1, new Locale("de")));
+	}
+}
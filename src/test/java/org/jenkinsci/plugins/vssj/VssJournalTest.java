@@ -26,11 +26,15 @@ import static org.junit.Assert.*;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 
+import org.apache.commons.io.FileUtils;
 import org.jenkinsci.plugins.vssj.VssChangeLogParser;
 import org.jenkinsci.plugins.vssj.VssJournal;
 import org.jenkinsci.plugins.vssj.VssJournalEntry;
@@ -92,4 +96,240 @@ public class VssJournalTest {
 		
 	}
 
+	@Test
+	public void testReadJournalIncremental() throws IOException {
+		File f = new File("target/test-incremental.log");
+		FileUtils.copyFile(new File("src/test/resources/vss.log"), f);
+		VssProjectMatcher projects = VssProjectMatcher.compile(new String[]{"$/PROJECT1"});
+		
+		VssJournal first = new VssJournal(new Locale("de")).readJournal(f, projects);
+		int count = first.getEntries().size();
+		assertEquals(f.length(), first.getOffset());
+		
+		// Half written record must not be consumed
+		FileUtils.writeStringToFile(f, "\n$/PROJECT1/dir/New.txt\nVersion: 1\n", true);
+		VssJournal second = new VssJournal(new Locale("de")).readJournal(f, projects, first);
+		assertEquals(count, second.getEntries().size());
+		assertEquals(first.getOffset(), second.getOffset());
+		
+		// Record without blank line is complete with all header lines
+		FileUtils.writeStringToFile(f, "Benutzer: UserX           Datum: 18.11.14  Uhrzeit: 10:00\nEingecheckt\n", true);
+		VssJournal unterminated = new VssJournal(new Locale("de")).readJournal(f, projects, second);
+		assertEquals(count + 1, unterminated.getEntries().size());
+		assertEquals(f.length(), unterminated.getOffset());
+		assertEquals("$/PROJECT1/dir/New.txt", unterminated.getLastChange().getFilename());
+		
+		FileUtils.writeStringToFile(f, "\n$/PROJECT1/dir/Next.txt\nVersion: 1\nBenutzer: UserX           Datum: 18.11.14  Uhrzeit: 10:01\nEingecheckt\nKommentar: Fix\n\n", true);
+		VssJournal third = new VssJournal(new Locale("de")).readJournal(f, projects, unterminated);
+		assertEquals(count + 2, third.getEntries().size());
+		assertEquals("$/PROJECT1/dir/Next.txt", third.getLastChange().getFilename());
+		assertEquals("Fix", third.getLastChange().getComment());
+		assertEquals(third.getEntries().size(), new VssJournal(new Locale("de")).readJournal(f, projects).getEntries().size());
+		
+		// Rotated journal is read from the beginning
+		FileUtils.writeStringToFile(f, "$/PROJECT1/dir/Other.txt\nVersion: 2\nBenutzer: UserX           Datum: 19.11.14  Uhrzeit: 10:00\nEingecheckt\n\n");
+		VssJournal rotated = new VssJournal(new Locale("de")).readJournal(f, projects, third);
+		assertEquals(1, rotated.getEntries().size());
+	}
+
+	@Test
+	public void testReadPartialRecord() throws IOException {
+		File f = new File("target/test-partial.log");
+		FileUtils.copyFile(new File("src/test/resources/vss-partial.log"), f);
+		
+		// The last record has no action line yet
+		VssJournal first = new VssJournal(new Locale("de")).readJournal(f, VssProjectMatcher.ALL);
+		assertEquals(2, first.getEntries().size());
+		assertEquals("Fix", first.getLastChange().getComment());
+		assertTrue(first.getOffset() < f.length());
+		
+		FileUtils.writeStringToFile(f, "Eingecheckt\r\n", true);
+		VssJournal second = new VssJournal(new Locale("de")).readJournal(f, VssProjectMatcher.ALL, first);
+		assertEquals(3, second.getEntries().size());
+		assertEquals("$/PROJECT1/dir/New.txt", second.getLastChange().getFilename());
+		assertEquals(f.length(), second.getOffset());
+	}
+	
+	@Test
+	public void testChangeEntry() {
+		File f = new File("src/test/resources/vss.log");
+		VssJournal journal = new VssJournal(new Locale("de")).readJournal(f, VssProjectMatcher.ALL);
+		VssJournalEntry entry = journal.getEntries().get(0);
+		String comment = entry.getComment();
+		entry.setComment("changed");
+		entry.setUser("other");
+		assertEquals("changed", entry.getComment());
+		assertEquals(comment, journal.getEntries().get(0).getComment());
+	}
+	
+	@Test
+	public void testReadJournalCharset() throws IOException {
+		File f = new File("target/test-charset.log");
+		String record = "$/PROJECT1/a\r\nVersion: 1\r\nBenutzer: UserX           Datum: 18.11.14  Uhrzeit: 10:00\r\na hinzugef\u00fcgt\r\n";
+		FileUtils.writeStringToFile(f, "\r\n" + record + "\r\n", "windows-1252");
+		
+		VssJournal log = new VssJournal(new Locale("de")).readJournal(f, VssProjectMatcher.ALL);
+		assertEquals(1, log.getEntries().size());
+		assertEquals("$/PROJECT1/a", log.getLastChange().getFilename());
+		assertEquals("1", log.getLastChange().getVersion());
+		assertEquals("userx", log.getLastChange().getUser());
+		assertEquals("a hinzugef\u00fcgt", log.getLastChange().getAction());
+		
+		FileUtils.writeStringToFile(f, record + "\r\n", "UTF-8");
+		log = new VssJournal(new Locale("de"));
+		log.setCharset("UTF-8");
+		log.readJournal(f);
+		assertEquals("a hinzugef\u00fcgt", log.getLastChange().getAction());
+	}
+
+	@Test
+	public void testProjectMatcher() {
+		VssProjectMatcher m = VssProjectMatcher.compile(new String[]{" $/Project1 ", "$\\PROJECT2\\dir"});
+		assertTrue(m.matches("$/PROJECT1/dir/File.txt"));
+		assertTrue(m.matches("$\\project1\\File.txt"));
+		assertTrue(m.matches("  $/project2/DIR/File.txt"));
+		assertTrue(m.matches("$//PROJECT2/dir"));
+		assertFalse(m.matches("$/PROJECT2/other/File.txt"));
+		assertFalse(m.matches("$/PROJECT"));
+		assertFalse(VssProjectMatcher.compile(new String[]{}).matches("$/PROJECT1"));
+		
+		// Raw bytes, decoded only for non ASCII characters before the decision
+		assertEquals(1, m.matches(bytes("$\\project1\\File.txt"), 0, 19));
+		assertEquals(1, m.matches(bytes("x  $//PROJECT2/dir/\u00e4"), 1, 20));
+		assertEquals(0, m.matches(bytes("$/PROJECT3/\u00e4"), 0, 12));
+		assertEquals(VssProjectMatcher.UNDECIDED, m.matches(bytes("$/PROJECT\u00e4/a"), 0, 12));
+		VssProjectMatcher umlaut = VssProjectMatcher.compile(new String[]{"$/PROJ\u00c4"});
+		assertEquals(VssProjectMatcher.UNDECIDED, umlaut.matches(bytes("$/PROJ\u00e4/a"), 0, 9));
+		assertTrue(umlaut.matches("$/PROJ\u00e4/a"));
+		assertTrue(VssProjectMatcher.compile(new String[]{""}).matches("$/PROJECT1"));
+		assertTrue(VssProjectMatcher.ALL.matches("$/PROJECT1"));
+		assertEquals(m, VssProjectMatcher.compile(new String[]{"$/PROJECT1", "$/project2/dir"}));
+	}
+
+	@Test
+	public void testDateParser() throws ParseException {
+		JournalDateParser parser = JournalDateParser.forLocale(new Locale("de"));
+		SimpleDateFormat sdf = new SimpleDateFormat("dd.MM.yy HH:mm");
+		assertEquals(sdf.parse("03.11.14 10:55").getTime(), parser.parse("3.11.14", "10:55"));
+		assertEquals(sdf.parse("18.11.14 09:42").getTime(), parser.parse("18.11.14", "9:42"));
+		assertEquals(sdf.parse("31.12.14 23:59").getTime(), parser.parse("31.12.14", "23:59"));
+		assertEquals(sdf.parse("31.12.14 00:00").getTime(), parser.parse("31.12.14", "x"));
+		assertEquals(VssJournalEntry.NO_DATETIME, parser.parse("31.13.14", "10:00"));
+		assertEquals(VssJournalEntry.NO_DATETIME, parser.parse("3-11-14", "10:00"));
+		
+		VssJournalEntry entry = new VssJournalEntry();
+		entry.setTimestamp(parser.parse("18.11.14", "17:42"));
+		assertEquals(17, entry.getDatetime().get(Calendar.HOUR_OF_DAY));
+		
+		VssJournalEntry copy = new VssJournalEntry();
+		copy.setDatetimeString(entry.getDatetimeString());
+		assertEquals(entry.getTimestamp(), copy.getTimestamp());
+	}
+
+	@Test
+	public void testJournalStore() {
+		JournalStore store = new JournalStore();
+		for (int i = 0; i < 100; i++) {
+			store.add("$/PROJECT" + (i % 2) + "/dir/File" + (i % 10) + ".txt", String.valueOf(i), "userx", i * 1000L, "Eingecheckt", i % 3 == 0 ? "comment" : null);
+		}
+		store.add("File", null, null, VssJournalEntry.NO_DATETIME, null, null);
+		store.add("$\\PROJECT\\File", "", "", 0L, "a", "b");
+		store.add("$/PROJECT/File", "007", "", 0L, "a", "b");
+		
+		assertEquals(103, store.size());
+		VssJournalEntry e = store.get(42);
+		assertEquals("$/PROJECT0/dir/File2.txt", e.getFilename());
+		assertEquals("42", e.getVersion());
+		assertEquals("userx", e.getUser());
+		assertEquals(42000L, e.getTimestamp());
+		assertEquals("Eingecheckt", e.getAction());
+		assertEquals("comment", e.getComment());
+		assertNull(store.get(43).getComment());
+		
+		e = store.get(100);
+		assertEquals("File", e.getFilename());
+		assertNull(e.getVersion());
+		assertNull(e.getUser());
+		assertNull(e.getDatetime());
+		assertEquals("$\\PROJECT\\File", store.get(101).getFilename());
+		assertEquals("", store.get(101).getVersion());
+		assertEquals("007", store.get(102).getVersion());
+		
+		JournalStore copy = store.copy(new int[] {1, 42});
+		assertEquals(2, copy.size());
+		assertEquals("$/PROJECT0/dir/File2.txt", copy.get(1).getFilename());
+		assertTrue(copy.matches(0, VssProjectMatcher.compile(new String[] {"$/project1/DIR"})));
+		assertFalse(copy.matches(1, VssProjectMatcher.compile(new String[] {"$/project1/DIR"})));
+		
+		// Copies of all rows share them and append in place
+		JournalStore shared = store.copy(null);
+		shared.add("$/PROJECT/New", "1", "usery", 1000L, "Eingecheckt", "new comment");
+		assertEquals(104, shared.size());
+		assertEquals(103, store.size());
+		assertEquals("$/PROJECT/New", shared.get(103).getFilename());
+		assertEquals("usery", shared.get(103).getUser());
+		assertEquals("$/PROJECT0/dir/File2.txt", shared.get(42).getFilename());
+		try {
+			store.add("$/PROJECT/Other", "1", "userz", 1000L, "Eingecheckt", null);
+			fail("Copied store must not be changed");
+		} catch (IllegalStateException ex) {
+			assertEquals(103, store.size());
+		}
+		
+		// A second copy of the same rows does not share them
+		JournalStore second = store.copy(null);
+		second.add("$/PROJECT/Second", "2", "userz", 2000L, "Eingecheckt", null);
+		assertEquals(104, second.size());
+		assertEquals("$/PROJECT/Second", second.get(103).getFilename());
+		assertEquals("userz", second.get(103).getUser());
+		assertEquals("$/PROJECT/New", shared.get(103).getFilename());
+		assertEquals("new comment", shared.get(103).getComment());
+		assertEquals("comment", second.get(42).getComment());
+	}
+
+	@Test
+	public void testTimeIndex() {
+		JournalStore store = new JournalStore();
+		for (int i = 0; i < 1000; i++) {
+			// Every tenth record is a bit late
+			long time = i % 10 == 0 ? i * 1000L - 1500L : i * 1000L;
+			store.add("$/PROJECT/File" + i, "1", "user", time, "a", null);
+		}
+		assertEquals(0, store.firstRowAfter(Long.MIN_VALUE));
+		assertEquals(1000, store.firstRowAfter(1000000L));
+		int row = store.firstRowAfter(500000L);
+		assertTrue(row <= 501);
+		for (int i = 0; i < row; i++) {
+			assertTrue(store.getTimestamp(i) <= 500000L);
+		}
+		assertEquals(0, store.copy(null).firstRowAfter(-1000000L));
+		assertEquals(499, store.copy(null).firstRowAfter(498000L));
+	}
+
+	@Test
+	public void testWriteChangeFile() throws IOException, SAXException {
+		File f = new File("target/test-escape.log");
+		String record = "$/PROJECT1/a&b<c>.txt\r\nVersion: 1\r\nBenutzer: User<X>         Datum: 18.11.14  Uhrzeit: 10:00\r\na \"eingecheckt\"\r\nKommentar: 'x' & y\r\n";
+		FileUtils.writeStringToFile(f, record + "\r\n", "UTF-8");
+		VssJournal log = new VssJournal(new Locale("de"));
+		log.setCharset("UTF-8");
+		log.readJournal(f);
+		
+		File changeLog = new File("target/test-escape.xml");
+		Calendar from = Calendar.getInstance();
+		from.setTimeInMillis(0L);
+		log.writeChangeFile(changeLog, from);
+		List<VssJournalEntry> list = new VssChangeLogParser().parseFile(changeLog);
+		assertEquals(1, list.size());
+		VssJournalEntry e = list.get(0);
+		assertEquals("$/PROJECT1/a&b<c>.txt", e.getFilename());
+		assertEquals("user<x>", e.getUser());
+		assertEquals("a \"eingecheckt\"", e.getAction());
+		assertEquals("'x' & y", e.getComment());
+		assertEquals(log.getLastChange().getTimestamp(), e.getTimestamp());
+	}
+
+	private static byte[] bytes(String s) {
+		return s.getBytes(Charset.forName("windows-1252"));
+	}
 }
@@ -0,0 +1,128 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import hudson.model.Run;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+/**
+ * Test for the SourceSafe revision state.
+ * @author patlau
+ *
+ */
+public class VssRevisionStateTest {
+
+	@Test
+	public void testHighWaterMark() {
+		File f = new File("src/test/resources/vss.log");
+		VssProjectMatcher projects = VssProjectMatcher.compile(new String[]{"$/PROJECT2"});
+		VssRevisionState state = VssRevisionState.checkJournal(f, projects, new Locale("de"));
+		
+		assertEquals(f.length(), state.getJournalOffset());
+		assertTrue(state.isCheckpointValid(f));
+		
+		List<VssJournalEntry> entries = new VssJournal(new Locale("de")).readJournal(f, projects).getEntries();
+		assertEquals(entries.get(entries.size() - 1).getTimestamp(), state.getLastTimestamp());
+		
+		VssRevisionState none = VssRevisionState.checkJournal(f, VssProjectMatcher.compile(new String[]{"$/NONE"}), new Locale("de"));
+		assertEquals(VssJournalEntry.NO_DATETIME, none.getLastTimestamp());
+	}
+	
+	@Test
+	public void testNewRecords() {
+		File f = new File("src/test/resources/vss.log");
+		Locale locale = new Locale("de");
+		VssProjectMatcher projects = VssProjectMatcher.compile(new String[]{"$/PROJECT2"});
+		VssRevisionState state = VssRevisionState.checkJournal(f, projects, locale);
+		
+		assertTrue(state.getLastMatchIndex() >= 0);
+		assertTrue(state.hasNewRecords(null));
+		assertFalse(state.hasNewRecords(VssRevisionState.checkJournal(f, projects, locale)));
+		assertTrue(state.hasNewRecords(VssRevisionState.checkJournal(f, VssProjectMatcher.compile(new String[]{"$/NONE"}), locale)));
+		
+		assertFalse(state.isWaitElapsed(Long.valueOf(Integer.MAX_VALUE)));
+		assertTrue(state.isWaitElapsed(0L));
+		assertTrue(state.mustWait(Long.valueOf(Integer.MAX_VALUE)));
+	}
+	
+	@Test
+	public void testLegacyState() {
+		File f = new File("src/test/resources/vss.log");
+		Locale locale = new Locale("de");
+		VssProjectMatcher projects = VssProjectMatcher.compile(new String[]{"$/PROJECT2"});
+		List<VssJournalEntry> entries = new VssJournal(locale).readJournal(f, projects).getEntries();
+		VssJournalEntry last = entries.get(entries.size() - 1);
+		
+		// State saved by older versions with the parsed journal
+		String xml = "<org.jenkinsci.plugins.vssj.VssRevisionState>"
+			+ "<lastModified>" + f.lastModified() + "</lastModified>"
+			+ "<log><entries><org.jenkinsci.plugins.vssj.VssJournalEntry>"
+			+ "<filename>" + last.getFilename() + "</filename>"
+			+ "<version>" + last.getVersion() + "</version>"
+			+ "<user>" + last.getUser() + "</user>"
+			+ "<datetime><time>" + last.getTimestamp() + "</time><timezone>" + TimeZone.getDefault().getID() + "</timezone></datetime>"
+			+ "<action>" + last.getAction() + "</action>"
+			+ "</org.jenkinsci.plugins.vssj.VssJournalEntry></entries>"
+			+ "<locale>de</locale></log>"
+			+ "</org.jenkinsci.plugins.vssj.VssRevisionState>";
+		VssRevisionState.addAliases();
+		VssRevisionState legacy = (VssRevisionState) Run.XSTREAM2.fromXML(xml);
+		
+		assertEquals(last.getTimestamp(), legacy.getLastTimestamp());
+		assertEquals(0L, legacy.getLastMatchHash());
+		assertFalse(VssRevisionState.checkJournal(f, projects, locale).hasNewRecords(legacy));
+	}
+	
+	@Test
+	public void testSameMinute() throws IOException {
+		File f = new File("target/test-state/vss.log");
+		Locale locale = new Locale("de");
+		VssProjectMatcher projects = VssProjectMatcher.compile(new String[]{"$/PROJECT9"});
+		String record = "$/PROJECT9/A.txt\r\nVersion: 1\r\nBenutzer: UserY         Datum: 18.11.14  Uhrzeit: 10:00\r\nEingecheckt\r\n\r\n";
+		FileUtils.deleteQuietly(f.getParentFile());
+		FileUtils.writeStringToFile(f, record, "windows-1252");
+		VssRevisionState baseline = VssRevisionState.checkJournal(f, projects, locale);
+		assertTrue(baseline.getLastMatchHash() != 0L);
+		assertFalse(VssRevisionState.checkJournal(f, projects, locale).hasNewRecords(baseline));
+		
+		// Rewritten journal, the last record has another position but is the same
+		FileUtils.writeStringToFile(f, record.replace("PROJECT9", "PROJECT8") + record, "windows-1252");
+		assertFalse(VssRevisionState.checkJournal(f, projects, locale).hasNewRecords(baseline));
+		
+		FileUtils.writeStringToFile(f, record.replace("A.txt", "B.txt"), "windows-1252", true);
+		VssRevisionState current = VssRevisionState.checkJournal(f, projects, locale);
+		assertEquals(baseline.getLastTimestamp(), current.getLastTimestamp());
+		assertTrue(current.hasNewRecords(baseline));
+	}
+
+}
@@ -0,0 +1,82 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class VssRootActionTest {
+
+	private static List<VssJournalEntry> createEntries(int count) {
+		List<VssJournalEntry> entries = new ArrayList<VssJournalEntry>();
+		for (int i = 0; i < count; i++) {
+			VssJournalEntry entry = new VssJournalEntry();
+			entry.setFilename("$/PROJECT" + (i % 10) + "/File" + i + ".txt");
+			entry.setUser("user" + (i % 7));
+			entry.setAction("eingecheckt");
+			entry.setTimestamp(i * 1000L);
+			entries.add(entry);
+		}
+		return entries;
+	}
+	
+	@Test
+	public void testPage() {
+		List<VssJournalEntry> entries = createEntries(100000);
+		VssRootAction.JournalPage page = VssRootAction.getPage(entries, null, 1, 100);
+		assertEquals(100000, page.getTotal());
+		assertEquals(1000, page.getPageCount());
+		assertEquals(100, page.getEntries().size());
+		assertEquals("$/PROJECT9/File99999.txt", page.getEntries().get(0).getFilename());
+		assertFalse(page.isPrevious());
+		assertTrue(page.isNext());
+		
+		page = VssRootAction.getPage(entries, "", 1000, 100);
+		assertEquals("$/PROJECT0/File0.txt", page.getEntries().get(99).getFilename());
+		assertEquals(99901, page.getFirstIndex());
+		assertFalse(page.isNext());
+		
+		page = VssRootAction.getPage(entries, "", 2000, 100);
+		assertTrue(page.getEntries().isEmpty());
+	}
+	
+	@Test
+	public void testFilter() {
+		List<VssJournalEntry> entries = createEntries(100000);
+		VssRootAction.JournalPage page = VssRootAction.getPage(entries, " project3/FILE ", 2, 50);
+		assertEquals(10000, page.getTotal());
+		assertEquals(200, page.getPageCount());
+		assertEquals("$/PROJECT3/File99493.txt", page.getEntries().get(0).getFilename());
+		assertEquals("project3/FILE", page.getQuery());
+		
+		page = VssRootAction.getPage(entries, "USER6", 1, 100);
+		assertEquals(14285, page.getTotal());
+		assertEquals("user6", page.getEntries().get(0).getUser());
+		
+		assertEquals(0, VssRootAction.getPage(entries, "nothing", 1, 100).getTotal());
+	}
+}
@@ -0,0 +1,144 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+import hudson.FilePath;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class WorkspaceManifestTest {
+
+	@Test
+	public void testSaveLoad() throws IOException {
+		File dir = new File("target/test-manifest");
+		FileUtils.deleteQuietly(dir);
+		dir.mkdirs();
+		File a = new File(dir, "a.txt");
+		FileUtils.writeStringToFile(a, "a", "UTF-8");
+		
+		WorkspaceManifest manifest = new WorkspaceManifest();
+		manifest.update("$/PROJECT1/a.txt", 3, a);
+		manifest.update("$/PROJECT1/missing.txt", 1, new File(dir, "missing.txt"));
+		manifest.update("$/PROJECT2/b.txt", 1, a);
+		assertEquals(2, manifest.size());
+		
+		File file = new File(dir, WorkspaceManifest.FILENAME);
+		manifest.save(file);
+		manifest = WorkspaceManifest.load(file);
+		assertEquals(2, manifest.size());
+		assertEquals(3, manifest.getVersion("$\\project1\\A.txt"));
+		assertEquals(0, manifest.getVersion("$/PROJECT1/missing.txt"));
+		assertTrue(manifest.isCurrent("$/PROJECT1/a.txt", 3, a));
+		// Version went down, e.g. by a rollback
+		assertFalse(manifest.isCurrent("$/PROJECT1/a.txt", 2, a));
+		assertFalse(manifest.isCurrent("$/PROJECT1/a.txt", 4, a));
+		assertFalse(manifest.isModified("$/PROJECT1/a.txt", a));
+		
+		FileUtils.writeStringToFile(a, "changed", "UTF-8");
+		assertTrue(manifest.isModified("$/PROJECT1/a.txt", a));
+		assertFalse(manifest.isCurrent("$/PROJECT1/a.txt", 3, a));
+		
+		manifest.remove("$/PROJECT1/");
+		assertEquals(Arrays.asList("$/PROJECT2/b.txt"), manifest.getPaths());
+		
+		FileUtils.writeStringToFile(file, "invalid", "UTF-8");
+		assertEquals(0, WorkspaceManifest.load(file).size());
+		assertEquals(0, WorkspaceManifest.load(new File(dir, "none")).size());
+	}
+	
+	@Test
+	public void testModifiedFiles() throws IOException {
+		File dir = new File("target/test-manifest-modified");
+		FileUtils.deleteQuietly(dir);
+		File a = new File(dir, "PROJECT1/dir/a.txt");
+		FileUtils.writeStringToFile(a, "a", "UTF-8");
+		
+		VssExe exe = new VssExe(null, new FilePath(dir), null, "ss", true);
+		IncrementalGet plan = new IncrementalGet(new String[] {"$/PROJECT1"}, new Locale("de"));
+		VssJournalEntry entry = new VssJournalEntry();
+		entry.setFilename("$/PROJECT1/dir/a.txt");
+		entry.setVersion("5");
+		entry.setAction("Eingecheckt");
+		exe.updateManifest(plan, Arrays.asList(entry));
+		exe.saveManifest();
+		
+		exe = new VssExe(null, new FilePath(dir), null, "ss", true);
+		assertEquals(5, exe.getManifest().getVersion("$/PROJECT1/dir/a.txt"));
+		assertEquals(0, exe.addModifiedFiles(plan));
+		assertTrue(plan.isEmpty());
+		
+		a.delete();
+		assertEquals(1, exe.addModifiedFiles(plan));
+		assertEquals(Arrays.asList("$/PROJECT1/dir/a.txt"), plan.getTargets().get(0).getFiles());
+		assertEquals(5, plan.getTargets().get(0).getVersion("$/PROJECT1/dir/a.txt"));
+	}
+	
+	@Test
+	public void testVersionDown() throws IOException {
+		File dir = new File("target/test-manifest-rollback");
+		FileUtils.deleteQuietly(dir);
+		File a = new File(dir, "PROJECT1/dir/a.txt");
+		FileUtils.writeStringToFile(a, "a", "UTF-8");
+		File b = new File(dir, "PROJECT1/dir/b.txt");
+		FileUtils.writeStringToFile(b, "b", "UTF-8");
+		
+		VssExe exe = new VssExe(null, new FilePath(dir), null, "ss", true);
+		IncrementalGet plan = new IncrementalGet(new String[] {"$/PROJECT1"}, new Locale("de"));
+		exe.updateManifest(plan, Arrays.asList(
+			entry("$/PROJECT1/dir/a.txt", "5", "Eingecheckt"),
+			entry("$/PROJECT1/dir/a.txt", "6", "Eingecheckt"),
+			entry("$/PROJECT1/dir/b.txt", "2", "Eingecheckt")));
+		assertEquals(6, exe.getManifest().getVersion("$/PROJECT1/dir/a.txt"));
+		
+		// A rollback fetches the file, even if the manifest has a newer version
+		plan.add(entry("$/PROJECT1/dir/a.txt", "4", "Version zur\u00fcckgesetzt"));
+		assertEquals(4, plan.getTargets().get(0).getVersion("$/PROJECT1/dir/a.txt"));
+		assertFalse(exe.getManifest().isCurrent("$/PROJECT1/dir/a.txt", 4, a));
+		
+		// Rollbacks and deletes reset the manifest entry
+		exe.updateManifest(plan, Arrays.asList(
+			entry("$/PROJECT1/dir/a.txt", "4", "Version zur\u00fcckgesetzt"),
+			entry("$/PROJECT1/dir", "12", "b.txt gel\u00f6scht")));
+		assertEquals(0, exe.getManifest().size());
+		
+		exe.updateManifest(plan, Arrays.asList(entry("$/PROJECT1/dir/a.txt", "3", "Eingecheckt")));
+		assertEquals(3, exe.getManifest().getVersion("$/PROJECT1/dir/a.txt"));
+	}
+	
+	private static VssJournalEntry entry(String filename, String version, String action) {
+		VssJournalEntry entry = new VssJournalEntry();
+		entry.setFilename(filename);
+		entry.setVersion(version);
+		entry.setAction(action);
+		return entry;
+	}
+
+}
@@ -0,0 +1,99 @@
+/**
+ * The MIT License
+ * Copyright (c) 2015 Patrick Lauper
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.jenkinsci.plugins.vssj;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+public class WorkspaceReaperTest {
+
+	private static File createTree(File dir) throws IOException {
+		FileUtils.deleteQuietly(dir);
+		File project = new File(dir, "PROJECT1");
+		for (int i = 0; i < 5; i++) {
+			for (int j = 0; j < 5; j++) {
+				FileUtils.writeStringToFile(new File(project, "dir" + i + "/sub" + j + "/File.txt"), "x", "UTF-8");
+			}
+			FileUtils.writeStringToFile(new File(project, "File" + i + ".txt"), "x", "UTF-8");
+		}
+		return project;
+	}
+	
+	@Test
+	public void testClean() throws IOException, InterruptedException {
+		File dir = new File("target/test-reaper");
+		File project = createTree(dir);
+		File tombstones = new File(dir, WorkspaceReaper.TOMBSTONE_DIR);
+		// Leftover from a restart
+		File leftover = new File(tombstones, "PROJECT2" + WorkspaceReaper.TOMBSTONE_MARKER + "1");
+		FileUtils.writeStringToFile(new File(leftover, "a/b/File.txt"), "x", "UTF-8");
+		// Not owned by the plugin
+		File other = new File(dir, "PROJECT3" + WorkspaceReaper.TOMBSTONE_MARKER + "1");
+		FileUtils.writeStringToFile(new File(other, "File.txt"), "x", "UTF-8");
+		
+		WorkspaceReaper reaper = new WorkspaceReaper(3, 0L);
+		PrintStream logger = new PrintStream(new ByteArrayOutputStream());
+		assertTrue(reaper.clean(project, tombstones, logger));
+		assertTrue(project.isDirectory());
+		assertEquals(0, project.list().length);
+		
+		assertTrue(reaper.awaitIdle(10, TimeUnit.SECONDS));
+		assertEquals(3, dir.list().length);
+		assertEquals(0, tombstones.list().length);
+		assertTrue(new File(other, "File.txt").exists());
+	}
+	
+	@Test
+	public void testCleanWorkspace() throws IOException {
+		File dir = new File("target/test-reaper-workspace");
+		createTree(dir);
+		
+		// The tombstones would be moved along with the directory
+		WorkspaceReaper reaper = new WorkspaceReaper(1, 0L);
+		assertFalse(reaper.clean(dir, new File(dir, WorkspaceReaper.TOMBSTONE_DIR), new PrintStream(new ByteArrayOutputStream())));
+		assertTrue(dir.isDirectory());
+		assertEquals(0, dir.list().length);
+	}
+	
+	@Test
+	public void testCleanLowDiskSpace() throws IOException, InterruptedException {
+		File dir = new File("target/test-reaper-disk");
+		File project = createTree(dir);
+		
+		WorkspaceReaper reaper = new WorkspaceReaper(1, Long.MAX_VALUE);
+		ByteArrayOutputStream log = new ByteArrayOutputStream();
+		assertFalse(reaper.clean(project, new File(dir, WorkspaceReaper.TOMBSTONE_DIR), new PrintStream(log, true)));
+		assertEquals(0, project.list().length);
+		assertEquals(2, dir.list().length);
+		assertTrue(log.toString().contains("Low disk space"));
+	}
+
+}